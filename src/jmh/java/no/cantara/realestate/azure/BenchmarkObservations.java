@@ -0,0 +1,35 @@
+package no.cantara.realestate.azure;
+
+import no.cantara.realestate.observations.ObservationMessage;
+import no.cantara.realestate.observations.ObservationMessageBuilder;
+
+import java.time.Instant;
+
+/**
+ * The observation every benchmark publishes — same shape as the stub observations in the tests.
+ */
+public final class BenchmarkObservations {
+
+    private BenchmarkObservations() {
+    }
+
+    public static ObservationMessage stubObservation() {
+        return new ObservationMessageBuilder()
+                .withSensorId("rec1")
+                .withRealEstate("RE1")
+                .withBuilding("Building1")
+                .withFloor("04")
+                .withSection("Section West")
+                .withServesRoom("Room1")
+                .withPlacementRoom("Room21")
+                .withClimateZone("air1")
+                .withElectricityZone("light")
+                .withSensorType("temp")
+                .withMeasurementUnit("C")
+                .withValue(22)
+                .withObservationTime(Instant.now().minusSeconds(10))
+                .withReceivedAt(Instant.now())
+                .withTfm("TFM12345")
+                .build();
+    }
+}
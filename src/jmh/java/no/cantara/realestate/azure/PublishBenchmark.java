@@ -0,0 +1,78 @@
+package no.cantara.realestate.azure;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.microsoft.azure.sdk.iot.device.DeviceClient;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageSentCallback;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.observations.ObservationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single-message publish path: building the IoT Hub message, and a full {@code publish()} against a
+ * device client that acknowledges every send at once, so the cost measured is ours and not the SDK's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    private AzureObservationDistributionClient distributionClient;
+    private ObservationMessage observationMessage;
+
+    @Setup
+    public void setUp() {
+        distributionClient = new AzureObservationDistributionClient(new AckingDeviceClient());
+        observationMessage = BenchmarkObservations.stubObservation();
+    }
+
+    @Benchmark
+    public Message buildTelemetryMessage() throws JsonProcessingException {
+        return distributionClient.buildTelemetryMessage(observationMessage);
+    }
+
+    @Benchmark
+    public long publish() {
+        distributionClient.publish(observationMessage);
+        return distributionClient.getNumberOfMessagesPublished();
+    }
+
+    /*
+    Connected, stable, and acknowledges each message on the calling thread.
+     */
+    static class AckingDeviceClient extends AzureDeviceClient {
+
+        AckingDeviceClient() {
+            super((DeviceClient) null);
+        }
+
+        @Override
+        public boolean isConnectionEstablished() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnectionUnstable() {
+            return false;
+        }
+
+        @Override
+        public void sendEventAsync(Message message, MessageSentCallback messageSentCallback) {
+            messageSentCallback.onMessageSent(message, null, message);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package no.cantara.realestate.azure.iot;
+
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubClientException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classification runs in every send callback: once for the successful send, and for each status code
+ * IoT Hub reports on failure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MqttSendFailureClassifierBenchmark {
+
+    private IotHubClientException[] failures;
+
+    @Setup
+    public void setUp() {
+        IotHubStatusCode[] statusCodes = IotHubStatusCode.values();
+        failures = new IotHubClientException[statusCodes.length];
+        for (int i = 0; i < statusCodes.length; i++) {
+            failures[i] = new IotHubClientException(statusCodes[i], statusCodes[i].name());
+        }
+    }
+
+    @Benchmark
+    public MqttSendFailureType classifySuccess() {
+        return MqttSendFailureClassifier.classify((IotHubClientException) null);
+    }
+
+    @Benchmark
+    public void classifyEveryStatusCode(Blackhole blackhole) {
+        for (IotHubClientException failure : failures) {
+            blackhole.consume(MqttSendFailureClassifier.classify(failure));
+        }
+    }
+}
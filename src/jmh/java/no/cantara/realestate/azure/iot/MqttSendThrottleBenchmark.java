@@ -0,0 +1,58 @@
+package no.cantara.realestate.azure.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MqttSendThrottle} under contention: SDK callback threads record outcomes while publisher
+ * threads ask for the current back-off delay before every send (#440).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MqttSendThrottleBenchmark {
+
+    private MqttSendThrottle throttle;
+
+    @Setup
+    public void setUp() {
+        throttle = new MqttSendThrottle();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void recordOutcome() {
+        throttle.recordOutcome(MqttSendFailureType.NONE);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(6)
+    public long currentBackoffDelayMillis() {
+        return throttle.currentBackoffDelayMillis();
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public long recordAndRead() {
+        throttle.recordOutcome(MqttSendFailureType.NONE);
+        return throttle.currentBackoffDelayMillis();
+    }
+}
@@ -0,0 +1,68 @@
+package no.cantara.realestate.azure.rec;
+
+import no.cantara.realestate.azure.BenchmarkObservations;
+import no.cantara.realestate.observations.ObservationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning an {@link ObservationMessage} into a {@link RecObservationMessage}: the reflective
+ * copy the constructor used to do on every publish, against the precomputed {@link ObservationCopyPlan}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecObservationMessageBenchmark {
+
+    private ObservationMessage observationMessage;
+
+    @Setup
+    public void setUp() {
+        observationMessage = BenchmarkObservations.stubObservation();
+    }
+
+    @Benchmark
+    public RecObservationMessage copyPlan() {
+        return new RecObservationMessage(observationMessage);
+    }
+
+    @Benchmark
+    public RecObservationMessage reflectiveCopy() {
+        return reflectiveCopy(observationMessage);
+    }
+
+    /*
+    The copy RecObservationMessage(ObservationMessage) used to do, kept here as the baseline.
+     */
+    static RecObservationMessage reflectiveCopy(ObservationMessage observationMessage) {
+        RecObservationMessage recObservationMessage = new RecObservationMessage();
+        for (Method getMethod : observationMessage.getClass().getMethods()) {
+            if (getMethod.getName().startsWith("get")) {
+                try {
+                    Method setMethod = RecObservationMessage.class.getMethod(getMethod.getName().replace("get", "set"), getMethod.getReturnType());
+                    setMethod.invoke(recObservationMessage, getMethod.invoke(observationMessage, (Object[]) null));
+                } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException |
+                         InvocationTargetException ex) {
+                    //not found set
+                }
+            }
+        }
+        recObservationMessage.addQuantityKind(observationMessage.getSensorType());
+        return recObservationMessage;
+    }
+}
@@ -0,0 +1,55 @@
+package no.cantara.realestate.azure.rec;
+
+import no.cantara.realestate.azure.BenchmarkObservations;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.realestate.observations.ObservationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REC telemetry serialization: the {@code writeValueAsString} plus re-encode the publish path used to
+ * do, against {@link RecTelemetrySerializer}. Run with {@code -prof gc} to compare allocation per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecTelemetrySerializerBenchmark {
+
+    private ObjectMapper objectMapper;
+    private RecTelemetrySerializer serializer;
+    private ObservationMessage observationMessage;
+
+    @Setup
+    public void setUp() {
+        objectMapper = RealEstateObjectMapper.getInstance().getObjectMapper();
+        serializer = new RecTelemetrySerializer(objectMapper);
+        observationMessage = BenchmarkObservations.stubObservation();
+    }
+
+    @Benchmark
+    public byte[] writeValueAsString() throws JsonProcessingException {
+        String json = objectMapper.writeValueAsString(new RecObservationMessage(observationMessage));
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] recTelemetrySerializer() throws JsonProcessingException {
+        return serializer.serialize(observationMessage);
+    }
+}
@@ -1,8 +1,10 @@
 package no.cantara.realestate.azure;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.google.auto.service.AutoService;
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageSentCallback;
@@ -17,7 +19,9 @@ import no.cantara.realestate.ExceptionStatusType;
 import no.cantara.realestate.MqttUnavailableException;
 import no.cantara.realestate.RealEstateException;
 import no.cantara.realestate.azure.iot.*;
+import no.cantara.realestate.azure.metrics.DailyQuotaMetrics;
 import no.cantara.realestate.azure.rec.RecObservationMessage;
+import no.cantara.realestate.azure.rec.RecTelemetrySerializer;
 import no.cantara.realestate.distribution.ObservationDistributionClient;
 import no.cantara.realestate.json.RealEstateObjectMapper;
 import no.cantara.realestate.observations.ObservationMessage;
@@ -25,9 +29,20 @@ import no.cantara.realestate.plugins.distribution.DistributionService;
 import no.cantara.realestate.utils.LimitedArrayList;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubStatusCode.OK;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -39,18 +54,45 @@ public class AzureObservationDistributionClient implements ObservationDistributi
     private static final int DEFAULT_MAX_SIZE = 1000;
     public static final int MAX_CONSECUTIVE_CLIENT_DISCONNECT_ERRORS = 20;
     public static final String CONNECTIONSTRING_KEY = "distribution.azure.connectionString";
+    public static final String BATCH_ENABLED_KEY = "distribution.azure.batch.enabled";
+    public static final String BATCH_MAX_COUNT_KEY = "distribution.azure.batch.maxCount";
+    public static final String BATCH_MAX_BYTES_KEY = "distribution.azure.batch.maxBytes";
+    public static final String BATCH_LINGER_MILLIS_KEY = "distribution.azure.batch.lingerMillis";
+    public static final String SEND_QUEUE_CAPACITY_KEY = "distribution.azure.sendQueue.capacity";
+    public static final String SEND_QUEUE_OVERFLOW_POLICY_KEY = "distribution.azure.sendQueue.overflowPolicy";
+    /** How long the send-queue drainer waits before re-checking a closed connection or an open circuit. */
+    static final long SEND_QUEUE_IDLE_POLL_MILLIS = 1_000L;
+    public static final String SPOOL_DIRECTORY_KEY = "distribution.azure.spool.directory";
+    public static final String SPOOL_SEGMENT_BYTES_KEY = "distribution.azure.spool.segmentBytes";
+    public static final String SPOOL_MAX_SEGMENTS_KEY = "distribution.azure.spool.maxSegments";
+    public static final String SPOOL_REPLAY_PER_SECOND_KEY = "distribution.azure.spool.replayPerSecond";
+    /** How many times a spooled observation is resent while connected before it is discarded. */
+    static final int MAX_SPOOL_REPLAY_ATTEMPTS = 5;
+    public static final String QUOTA_DAILY_MESSAGES_KEY = "distribution.azure.quota.dailyMessages";
+    public static final String QUOTA_MESSAGES_PER_SECOND_KEY = "distribution.azure.quota.messagesPerSecond";
+    /** Longest quota pacing delay an observation is parked for; a longer one means the day's budget is spent. */
+    static final long MAX_QUOTA_PACING_MILLIS = 60_000L;
+    public static final String TRANSPORT_PROTOCOL_KEY = "distribution.azure.transport.protocol";
+    public static final String TRANSPORT_KEEP_ALIVE_SECONDS_KEY = "distribution.azure.transport.keepAliveSeconds";
+    public static final String TRANSPORT_SEND_INTERVAL_MILLIS_KEY = "distribution.azure.transport.sendIntervalMillis";
+    public static final String TRANSPORT_MESSAGES_PER_SEND_INTERVAL_KEY = "distribution.azure.transport.messagesSentPerSendInterval";
+    public static final int DEFAULT_SPOOL_REPLAY_PER_SECOND = 50;
 
     private final AzureDeviceClient azureDeviceClient;
     private final RealEstateObjectMapper objectMapper;
-    private List<ObservationMessage> observedMessages = new LimitedArrayList(DEFAULT_MAX_SIZE);
-    private Map<String, ObservationMessage> messagesAwaitingSentAck = new HashMap<>();
-    private long numberOfMessagesObserved = 0;
-    private long numberOfMessagesPublished = 0;
-    private long numberOfMessagesFailed = 0;
+    private final RecTelemetrySerializer telemetrySerializer;
+    // Guarded by its own monitor; it is the only accounting state that is not lock-free.
+    private final List<ObservationMessage> observedMessages = new LimitedArrayList(DEFAULT_MAX_SIZE);
+    // Written by publisher threads, read and cleared by the SDK callback threads.
+    private final Map<String, ObservationMessage> messagesAwaitingSentAck = new ConcurrentHashMap<>();
+    private final LongAdder numberOfMessagesObserved = new LongAdder();
+    private final LongAdder numberOfMessagesPublished = new LongAdder();
+    private final LongAdder numberOfMessagesFailed = new LongAdder();
 
     // Detection of MQTT/IoT Hub send failures (issue #439). Counts per failure category plus the
     // most recent failure, so throttling (#440) and stop-sending (#441) have something to react to.
-    private final Map<MqttSendFailureType, Long> failuresByType = new EnumMap<>(MqttSendFailureType.class);
+    // One adder per category, created up front so the map itself is never modified after construction.
+    private final Map<MqttSendFailureType, LongAdder> failuresByType = newFailureCounters();
     private volatile MqttSendFailureType lastFailureType = MqttSendFailureType.NONE;
     private volatile Instant lastFailureAt = null;
 
@@ -61,22 +103,59 @@ public class AzureObservationDistributionClient implements ObservationDistributi
     // Circuit breaker (issue #441). Hard-stops new sends when the quota is exhausted or throttling
     // is persistent; rejected messages are counted (not silently lost) and resume on recovery.
     private final MqttSendCircuitBreaker circuitBreaker = new MqttSendCircuitBreaker();
-    private long numberOfMessagesRejected = 0;
+    private final LongAdder numberOfMessagesRejected = new LongAdder();
+
+    // Batching mode. When enabled, observations are coalesced into one JSON array message so a
+    // building full of sensors does not spend one IoT Hub message (and one round-trip) per reading.
+    private volatile TelemetryBatcher batcher = null;
+    private ScheduledExecutorService batchLingerScheduler = null;
+    private final Map<String, List<ObservationMessage>> batchesAwaitingSentAck = new ConcurrentHashMap<>();
+
+    // Non-blocking publish path. publishAsync() parks messages here and a single drain thread sends
+    // them at the rate the throttle allows, so the caller is never put to sleep.
+    private volatile MqttSendQueue sendQueue = new MqttSendQueue();
+    private ScheduledExecutorService sendQueueScheduler = null;
+    private final AtomicBoolean sendQueueDrainScheduled = new AtomicBoolean(false);
+
+    // Optional on-disk spool. When enabled, observations that would otherwise be rejected (circuit
+    // open, link unstable) or lost unacked are kept on disk and replayed once sending recovers.
+    private volatile ObservationSpool spool = null;
+    private Path spoolDirectory = null;
+    private int spoolSegmentBytes;
+    private int spoolMaxSegments;
+    private ScheduledExecutorService spoolReplayScheduler = null;
+    private int spoolReplayPerSecond = DEFAULT_SPOOL_REPLAY_PER_SECOND;
+    private final LongAdder numberOfMessagesSpooled = new LongAdder();
+    private final LongAdder numberOfMessagesDiscardedFromSpool = new LongAdder();
+    // Failed resends of the record at the head of the spool; only touched by the replay thread.
+    private int spoolReplayFailures = 0;
+
+    // Optional proactive pacing against the hub's daily message quota, shared by every device on the hub.
+    private volatile DailyQuotaScheduler quotaScheduler = null;
+
+    // Set by closeConnection(): the background threads and the spool stay stopped until openConnection().
+    private boolean connectionClosed = false;
+    private DailyQuotaMetrics quotaMetrics = null;
+    private boolean quotaMetricsEnabled = false;
 
     private final Tracer tracer;
     private final TelemetryClient telemetryClient;
-    private Instant whenLastMessageDistributedAt = null;
+    private volatile Instant whenLastMessageDistributedAt = null;
 
     private String lastUnhealthyCause = null;
 
-    /*
-    Intended used for testing.
+    /**
+     * Distribute through a device client created elsewhere, e.g. one device of a multiplexed AMQP
+     * connection in an {@link AzureObservationDistributionPool}.
+     *
+     * @param azureDeviceClient the IoT Hub device to send through
      */
-    protected AzureObservationDistributionClient(AzureDeviceClient azureDeviceClient) {
+    public AzureObservationDistributionClient(AzureDeviceClient azureDeviceClient) {
         tracer = GlobalOpenTelemetry.getTracer("OTEL.AzureMonitor.AzureObservationDistributionClient");
         telemetryClient = new TelemetryClient();
         this.azureDeviceClient = azureDeviceClient;
         objectMapper = RealEstateObjectMapper.getInstance();
+        telemetrySerializer = new RecTelemetrySerializer(objectMapper.getObjectMapper());
     }
 
     /*
@@ -87,17 +166,30 @@ public class AzureObservationDistributionClient implements ObservationDistributi
         telemetryClient = new TelemetryClient();
         this.azureDeviceClient = azureDeviceClient != null ? azureDeviceClient : new AzureDeviceClient(connectionString);
         objectMapper = RealEstateObjectMapper.getInstance();
+        telemetrySerializer = new RecTelemetrySerializer(objectMapper.getObjectMapper());
     }
 
     public AzureObservationDistributionClient() {
         tracer = GlobalOpenTelemetry.getTracer("OTEL.AzureMonitor.AzureObservationDistributionClient");
         telemetryClient = new TelemetryClient();
-        String devicePrimaryConnectionString = no.cantara.config.ApplicationProperties.getInstance().get(CONNECTIONSTRING_KEY);
+        no.cantara.config.ApplicationProperties config = no.cantara.config.ApplicationProperties.getInstance();
+        String devicePrimaryConnectionString = config.get(CONNECTIONSTRING_KEY);
         if (devicePrimaryConnectionString == null || devicePrimaryConnectionString.isEmpty()) {
             throw new RealEstateException("ConnectionString is missing. Please provide " + CONNECTIONSTRING_KEY + "= in local_override.properties.");
         }
-        azureDeviceClient = new AzureDeviceClient(devicePrimaryConnectionString);
+        azureDeviceClient = new AzureDeviceClient(devicePrimaryConnectionString, transportSettings(config));
         objectMapper = RealEstateObjectMapper.getInstance();
+        telemetrySerializer = new RecTelemetrySerializer(objectMapper.getObjectMapper());
+        applySendSettings(config);
+        DailyQuotaScheduler scheduler = dailyQuotaScheduler(config);
+        if (scheduler != null) {
+            useDailyQuota(scheduler);
+            registerQuotaMetrics();
+        }
+        String spoolDirectory = config.get(SPOOL_DIRECTORY_KEY, "");
+        if (!spoolDirectory.isEmpty()) {
+            enableSpool(Paths.get(spoolDirectory), config);
+        }
     }
 
     /**
@@ -111,15 +203,72 @@ public class AzureObservationDistributionClient implements ObservationDistributi
         telemetryClient = new TelemetryClient();
         azureDeviceClient = new AzureDeviceClient(devicePrimaryConnectionString);
         objectMapper = RealEstateObjectMapper.getInstance();
+        telemetrySerializer = new RecTelemetrySerializer(objectMapper.getObjectMapper());
     }
 
     public String getName() {
         return "AzureObservationDistributionClient";
     }
 
+    /*
+    Transport settings from distribution.azure.transport.*, defaulting to MQTT_WS with a 30 s keep-alive.
+     */
+    static IotHubTransportSettings transportSettings(no.cantara.config.ApplicationProperties config) {
+        return new IotHubTransportSettings(
+                IotHubClientProtocol.valueOf(config.get(TRANSPORT_PROTOCOL_KEY, IotHubTransportSettings.DEFAULT_PROTOCOL.name())),
+                Integer.parseInt(config.get(TRANSPORT_KEEP_ALIVE_SECONDS_KEY,
+                        String.valueOf(IotHubTransportSettings.DEFAULT_KEEP_ALIVE_SECONDS))),
+                Integer.parseInt(config.get(TRANSPORT_SEND_INTERVAL_MILLIS_KEY,
+                        String.valueOf(IotHubTransportSettings.DEFAULT_SEND_INTERVAL_MILLIS))),
+                Integer.parseInt(config.get(TRANSPORT_MESSAGES_PER_SEND_INTERVAL_KEY,
+                        String.valueOf(IotHubTransportSettings.DEFAULT_MESSAGES_SENT_PER_SEND_INTERVAL))));
+    }
+
+    /*
+    Batching and send queue settings from distribution.azure.*. Shared with the pooled client, which
+    applies them to every device.
+     */
+    void applySendSettings(no.cantara.config.ApplicationProperties config) {
+        if (Boolean.parseBoolean(config.get(BATCH_ENABLED_KEY, "false"))) {
+            enableBatching(
+                    Integer.parseInt(config.get(BATCH_MAX_COUNT_KEY,
+                            String.valueOf(TelemetryBatcher.DEFAULT_MAX_BATCH_COUNT))),
+                    Integer.parseInt(config.get(BATCH_MAX_BYTES_KEY,
+                            String.valueOf(TelemetryBatcher.DEFAULT_MAX_BATCH_BYTES))),
+                    Long.parseLong(config.get(BATCH_LINGER_MILLIS_KEY,
+                            String.valueOf(TelemetryBatcher.DEFAULT_LINGER_MILLIS))));
+        }
+        configureSendQueue(
+                Integer.parseInt(config.get(SEND_QUEUE_CAPACITY_KEY, String.valueOf(MqttSendQueue.DEFAULT_CAPACITY))),
+                MqttSendQueue.OverflowPolicy.valueOf(config.get(SEND_QUEUE_OVERFLOW_POLICY_KEY,
+                        MqttSendQueue.DEFAULT_OVERFLOW_POLICY.name())));
+    }
+
+    /*
+    The daily quota pacing from distribution.azure.quota.*, or null when dailyMessages is not set.
+     */
+    static DailyQuotaScheduler dailyQuotaScheduler(no.cantara.config.ApplicationProperties config) {
+        long dailyMessages = Long.parseLong(config.get(QUOTA_DAILY_MESSAGES_KEY, "0"));
+        if (dailyMessages <= 0) {
+            return null;
+        }
+        return new DailyQuotaScheduler(dailyMessages, Integer.parseInt(config.get(QUOTA_MESSAGES_PER_SECOND_KEY,
+                String.valueOf(DailyQuotaScheduler.DEFAULT_MAX_UNITS_PER_SECOND))));
+    }
+
+    /*
+    Enable the spool in directory with the segment and replay settings from distribution.azure.spool.*.
+     */
+    void enableSpool(Path directory, no.cantara.config.ApplicationProperties config) {
+        enableSpool(directory,
+                Integer.parseInt(config.get(SPOOL_SEGMENT_BYTES_KEY, String.valueOf(ObservationSpool.DEFAULT_SEGMENT_BYTES))),
+                Integer.parseInt(config.get(SPOOL_MAX_SEGMENTS_KEY, String.valueOf(ObservationSpool.DEFAULT_MAX_SEGMENTS))),
+                Integer.parseInt(config.get(SPOOL_REPLAY_PER_SECOND_KEY, String.valueOf(DEFAULT_SPOOL_REPLAY_PER_SECOND))));
+    }
+
     @Override
     public void initialize(Properties properties) {
-        azureDeviceClient.openConnection();
+        openConnection();
     }
 
     /**
@@ -138,7 +287,19 @@ public class AzureObservationDistributionClient implements ObservationDistributi
     @Override
     public void publish(ObservationMessage observationMessage) throws RealEstateException, MqttUnavailableException {
         // Throw a typed exception if the connection is not established, nor stable (#1805).
-        verifyStableConnection();
+        try {
+            verifyStableConnection();
+        } catch (MqttUnavailableException e) {
+            spoolIfEnabled(observationMessage);
+            throw e;
+        } catch (RealEstateException e) {
+            // Not connected yet. Once the observation is spooled it is replayed after connecting, and a
+            // retry by the caller would send it twice.
+            if (e.getStatusType() == ExceptionStatusType.RETRY_MAY_FIX_ISSUE && spoolIfEnabled(observationMessage)) {
+                return;
+            }
+            throw e;
+        }
 
         if (observationMessage == null) {
             log.trace("Missing observations message, not able to publish");
@@ -148,15 +309,46 @@ public class AzureObservationDistributionClient implements ObservationDistributi
             rejectSend(observationMessage);
             return;
         }
+        long quotaDelayMillis = quotaDelayMillis();
+        if (quotaDelayMillis > MAX_QUOTA_PACING_MILLIS) {
+            rejectOverQuota(observationMessage);
+            return;
+        }
+        if (quotaDelayMillis > 0 || (quotaScheduler != null && !sendQueue.isEmpty())) {
+            // Wait for the quota on the send-queue thread, behind anything already waiting there.
+            publishAsync(observationMessage);
+            return;
+        }
 
         applyBackpressureIfThrottled();
+        sendObservation(observationMessage);
+    }
+
+    private void sendObservation(ObservationMessage observationMessage) {
+        sendObservation(observationMessage, true);
+    }
+
+    /*
+    Hand one observation to the IoT Hub client, or to the current batch. Connection, circuit and
+    throttle checks are the caller's responsibility. Replayed observations were counted as observed
+    when they were first published.
+     */
+    private void sendObservation(ObservationMessage observationMessage, boolean countObserved) {
         telemetryClient.trackEvent("publish-attempt");
 
+        if (batcher != null) {
+            publishBatched(observationMessage, countObserved);
+            return;
+        }
+
         try {
             log.trace("Publishing observationMessage: {}", observationMessage);
             Message telemetryMessage = buildTelemetryMessage(observationMessage);
-            log.trace("Built AzureMessage from observationMessage: {}, with body: {}", telemetryMessage, new String(telemetryMessage.getBytes(), StandardCharsets.UTF_8));
+            if (log.isTraceEnabled()) {
+                log.trace("Built AzureMessage from observationMessage: {}, with body: {}", telemetryMessage, new String(telemetryMessage.getBytes(), StandardCharsets.UTF_8));
+            }
             String messageId = telemetryMessage.getMessageId();
+            chargeQuota(telemetryMessage.getBytes().length);
             messagesAwaitingSentAck.put(messageId, observationMessage);
             log.trace("Try to send to Azure IoT Hub: {}", observationMessage);
             Span span = tracer.spanBuilder("iot.send").setSpanKind(SpanKind.PRODUCER).startSpan();
@@ -167,6 +359,9 @@ public class AzureObservationDistributionClient implements ObservationDistributi
                         if (iotHubClientException != null) {
                             log.trace("Received Error when sending message to to Azure IoT Hub: {}, Exception: {}", sentMessage, iotHubClientException);
                             MqttSendFailureType failureType = registerFailure(iotHubClientException, observationMessage);
+                            if (isWorthSpooling(failureType)) {
+                                spoolIfEnabled(observationMessage);
+                            }
                             telemetryClient.trackEvent("publish-failed-" + failureType.name());
                             span.setStatus(StatusCode.ERROR, iotHubClientException.getMessage());
                             span.recordException(iotHubClientException);
@@ -184,13 +379,306 @@ public class AzureObservationDistributionClient implements ObservationDistributi
                     }
                 }
             });
-            addMessagesObserved();
+            if (countObserved) {
+                addMessagesObserved();
+            }
+
+        } catch (JsonProcessingException e) {
+            log.debug("Failed to parse message: {}", observationMessage, e);
+            throw new RealEstateException("Failed to parse observation message", e, ExceptionStatusType.data_error);
+        }
+
+    }
+
+    /**
+     * Publish without ever blocking the calling thread. The observation is parked in a bounded send
+     * queue and sent by a background drainer at the rate the adaptive throttle (#440) allows. While the
+     * connection is not yet established, or the send circuit is open (#441), messages stay parked
+     * instead of being rejected; when the queue is full the configured
+     * {@link MqttSendQueue.OverflowPolicy} decides what is dropped.
+     *
+     * @param observationMessage the observation to send
+     * @return a future that completes once the observation has been handed to the IoT Hub client (or
+     * added to a batch), and completes exceptionally if it is dropped from a full queue or the send
+     * is refused — e.g. with {@link MqttUnavailableException} when the link is unstable. Delivery
+     * acknowledgement is reflected in {@link #getNumberOfMessagesPublished()} as for
+     * {@link #publish(ObservationMessage)}.
+     */
+    public CompletableFuture<Void> publishAsync(ObservationMessage observationMessage) {
+        if (observationMessage == null) {
+            log.trace("Missing observations message, not able to publish");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = sendQueue.offer(observationMessage);
+        if (future.isCompletedExceptionally()) {
+            telemetryClient.trackEvent("error-publish-observationmessage-send-queue-full");
+        }
+        requestSendQueueDrain(0L);
+        return future;
+    }
+
+    /**
+     * Replace the send queue used by {@link #publishAsync(ObservationMessage)}.
+     *
+     * @param capacity       the maximum number of parked observations
+     * @param overflowPolicy what to drop when the queue is full
+     * @throws IllegalStateException if observations are already parked in the current queue
+     */
+    public synchronized void configureSendQueue(int capacity, MqttSendQueue.OverflowPolicy overflowPolicy) {
+        if (!sendQueue.isEmpty()) {
+            throw new IllegalStateException("Cannot reconfigure the send queue while it holds " + sendQueue.size() + " observations");
+        }
+        sendQueue = new MqttSendQueue(capacity, overflowPolicy);
+    }
+
+    private void requestSendQueueDrain(long delayMillis) {
+        if (!sendQueueDrainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (connectionClosed) {
+                // Parked observations wait for openConnection().
+                sendQueueDrainScheduled.set(false);
+                return;
+            }
+            if (sendQueueScheduler == null) {
+                sendQueueScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "iothub-send-queue");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            sendQueueScheduler.schedule(this::drainSendQueue, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+    Runs on the send-queue thread and reschedules itself until the queue is empty. Exceptions must not
+    escape, or the drainer silently stops.
+     */
+    void drainSendQueue() {
+        sendQueueDrainScheduled.set(false);
+        long nextDelayMillis;
+        try {
+            nextDelayMillis = drainSendQueueUntilBlocked();
+        } catch (Exception e) {
+            log.warn("Failed to drain the Azure IoT Hub send queue", e);
+            nextDelayMillis = SEND_QUEUE_IDLE_POLL_MILLIS;
+        }
+        if (nextDelayMillis >= 0) {
+            requestSendQueueDrain(nextDelayMillis);
+        }
+    }
+
+    /**
+     * Send parked observations until the queue is empty or sending has to pause.
+     *
+     * @return milliseconds to wait before draining again, or {@code -1} when the queue is empty
+     */
+    long drainSendQueueUntilBlocked() {
+        while (!sendQueue.isEmpty()) {
+            boolean linkUnstable = azureDeviceClient != null && azureDeviceClient.isConnectionUnstable();
+            if (!isConnectionEstablished() && !linkUnstable) {
+                return SEND_QUEUE_IDLE_POLL_MILLIS;
+            }
+            long throttleDelayMillis = sendThrottle.currentBackoffDelayMillis();
+            if (throttleDelayMillis > 0) {
+                return throttleDelayMillis;
+            }
+            if (!circuitBreaker.allowSend()) {
+                return SEND_QUEUE_IDLE_POLL_MILLIS;
+            }
+            long quotaDelayMillis = quotaDelayMillis();
+            if (quotaDelayMillis > 0) {
+                // When the day's budget is spent this waits for the reset; the queue's overflow policy
+                // decides what is kept meanwhile.
+                return Math.min(quotaDelayMillis, MAX_QUOTA_PACING_MILLIS);
+            }
+            MqttSendQueue.PendingSend pending = sendQueue.poll();
+            if (pending == null) {
+                break;
+            }
+            try {
+                verifyStableConnection();
+                sendObservation(pending.getObservationMessage());
+                pending.getFuture().complete(null);
+            } catch (MqttUnavailableException e) {
+                spoolIfEnabled(pending.getObservationMessage());
+                pending.getFuture().completeExceptionally(e);
+            } catch (RuntimeException e) {
+                pending.getFuture().completeExceptionally(e);
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * @return the number of observations parked by {@link #publishAsync(ObservationMessage)} and not
+     * yet handed to the IoT Hub client.
+     */
+    public long getNumberOfMessagesInSendQueue() {
+        return sendQueue.size();
+    }
+
+    /**
+     * @return how many observations {@link #publishAsync(ObservationMessage)} dropped because the send
+     * queue was full.
+     */
+    public long getNumberOfMessagesDroppedFromSendQueue() {
+        return sendQueue.getNumberOfMessagesDropped();
+    }
+
+    /**
+     * Switch to batching mode: observations published from now on are coalesced into one JSON array
+     * message per batch. A batch is sent when it holds {@code maxCount} observations, when the next
+     * observation would push it above {@code maxBytes}, or when its oldest observation has waited
+     * {@code lingerMillis}.
+     *
+     * <p>Note that the IoT Hub to Azure Data Explorer data connection must use the {@code MULTIJSON}
+     * format to unpack the array into one row per observation.
+     *
+     * @param maxCount     maximum observations per message
+     * @param maxBytes     maximum payload size, at most {@link TelemetryBatcher#DEFAULT_MAX_BATCH_BYTES}
+     * @param lingerMillis maximum time an observation waits for the batch to fill up
+     */
+    public synchronized void enableBatching(int maxCount, int maxBytes, long lingerMillis) {
+        if (batcher != null) {
+            throw new IllegalStateException("Batching is already enabled");
+        }
+        batcher = new TelemetryBatcher(maxCount, maxBytes, lingerMillis);
+        if (!connectionClosed) {
+            startBatchLinger();
+        }
+        log.info("Batching enabled for Azure IoT Hub: maxCount={}, maxBytes={}, lingerMillis={}",
+                maxCount, maxBytes, lingerMillis);
+    }
+
+    private synchronized void startBatchLinger() {
+        batchLingerScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "iothub-batch-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long pollMillis = Math.max(10L, batcher.getLingerMillis() / 2);
+        batchLingerScheduler.scheduleWithFixedDelay(this::flushExpiredBatch, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code true} if observations are coalesced into batched messages.
+     */
+    public boolean isBatchingEnabled() {
+        return batcher != null;
+    }
+
+    /**
+     * Send whatever is waiting in the current batch right away, without waiting for the linger time.
+     * A no-op when batching is not enabled.
+     */
+    public void flush() {
+        TelemetryBatcher currentBatcher = batcher;
+        if (currentBatcher == null) {
+            return;
+        }
+        TelemetryBatch batch = currentBatcher.drain();
+        if (batch != null) {
+            dispatchBatch(batch);
+        }
+    }
+
+    protected void publishBatched(ObservationMessage observationMessage) {
+        publishBatched(observationMessage, true);
+    }
 
+    private void publishBatched(ObservationMessage observationMessage, boolean countObserved) {
+        byte[] observationJson;
+        try {
+            observationJson = serializeObservation(observationMessage);
         } catch (JsonProcessingException e) {
             log.debug("Failed to parse message: {}", observationMessage, e);
             throw new RealEstateException("Failed to parse observation message", e, ExceptionStatusType.data_error);
         }
+        List<TelemetryBatch> readyBatches = batcher.add(observationMessage, observationJson);
+        if (countObserved) {
+            addMessagesObserved();
+        }
+        for (TelemetryBatch batch : readyBatches) {
+            sendBatch(batch);
+        }
+    }
+
+    /*
+    Runs on the linger scheduler. Exceptions must not escape, or the scheduler silently stops.
+     */
+    void flushExpiredBatch() {
+        try {
+            TelemetryBatcher currentBatcher = batcher;
+            if (currentBatcher == null || !isConnectionEstablished()) {
+                return;
+            }
+            TelemetryBatch batch = currentBatcher.pollExpired();
+            if (batch != null) {
+                dispatchBatch(batch);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to flush expired batch to Azure IoT Hub", e);
+        }
+    }
+
+    /*
+    A batch that has waited for the linger time may find the circuit opened in the meantime.
+     */
+    private void dispatchBatch(TelemetryBatch batch) {
+        if (!circuitBreaker.allowSend()) {
+            for (ObservationMessage observationMessage : batch.getObservations()) {
+                rejectSend(observationMessage);
+            }
+            return;
+        }
+        sendBatch(batch);
+    }
 
+    protected void sendBatch(TelemetryBatch batch) {
+        Message telemetryMessage = buildBatchTelemetryMessage(batch);
+        String messageId = telemetryMessage.getMessageId();
+        List<ObservationMessage> observations = batch.getObservations();
+        batchesAwaitingSentAck.put(messageId, observations);
+        chargeQuota(batch.getPayload().length);
+        log.trace("Try to send batch of {} observations to Azure IoT Hub, messageId={}, payloadBytes={}",
+                batch.size(), messageId, batch.getPayload().length);
+        Span span = tracer.spanBuilder("iot.send.batch").setSpanKind(SpanKind.PRODUCER).startSpan();
+        span.setAttribute("observations", batch.size());
+        azureDeviceClient.sendEventAsync(telemetryMessage, new MessageSentCallback() {
+            @Override
+            public void onMessageSent(Message sentMessage, IotHubClientException iotHubClientException, Object callbackContext) {
+                try {
+                    if (iotHubClientException != null) {
+                        log.trace("Received Error when sending batch of {} observations to Azure IoT Hub: {}, Exception: {}",
+                                observations.size(), sentMessage, iotHubClientException);
+                        // IoT Hub answered once for the whole batch, so the throttle and circuit see one outcome.
+                        MqttSendFailureType failureType = registerFailure(iotHubClientException, null);
+                        addMessagesFailed(observations.size() - 1);
+                        if (isWorthSpooling(failureType)) {
+                            for (ObservationMessage observation : observations) {
+                                spoolIfEnabled(observation);
+                            }
+                        }
+                        telemetryClient.trackEvent("publish-failed-" + failureType.name());
+                        span.setStatus(StatusCode.ERROR, iotHubClientException.getMessage());
+                        span.recordException(iotHubClientException);
+                        setUnhealthy("publish-failed--%s--%s".formatted(messageId, iotHubClientException.getMessage()));
+                    } else {
+                        log.trace("Batch of {} observations is sent to Azure IoT Hub: {}", observations.size(), sentMessage);
+                        addMessagesPublished(observations.size());
+                        registerSuccess();
+                        span.setStatus(StatusCode.OK);
+                        setHealthy();
+                    }
+                    messageSent(sentMessage);
+                } finally {
+                    span.end();
+                }
+            }
+        });
     }
 
     /**
@@ -213,7 +701,7 @@ public class AzureObservationDistributionClient implements ObservationDistributi
                         azureDeviceClient.getConnectionStatus(),
                         azureDeviceClient.getConnectionStatusReason(),
                         azureDeviceClient.getConnectionRetryingForMillis());
-                log.error("Rejecting publish — {} Rejected total={}", exception.getMessage(), numberOfMessagesRejected);
+                log.error("Rejecting publish — {} Rejected total={}", exception.getMessage(), numberOfMessagesRejected.sum());
                 throw new MqttUnavailableException("Connection to AzureDeviceClient is unstable. Client should call closeConnection(), wait and re-connect: " + exception.getMessage(), exception, ExceptionStatusType.RETRY_NOT_POSSIBLE);
             } else {
                 log.warn("Connection not established, message will be queued/dropped");
@@ -271,19 +759,30 @@ public class AzureObservationDistributionClient implements ObservationDistributi
 
     @Override
     public long getNumberOfMessagesPublished() {
-        return numberOfMessagesPublished;
+        return numberOfMessagesPublished.sum();
     }
 
     @Override
     public long getNumberOfMessagesFailed() {
-        return numberOfMessagesFailed;
+        return numberOfMessagesFailed.sum();
     }
 
     protected Message buildTelemetryMessage(ObservationMessage observationMessage) throws JsonProcessingException {
-        RecObservationMessage recObservationMessage = new RecObservationMessage(observationMessage);
-        String observationJson = objectMapper.getObjectMapper().writeValueAsString(recObservationMessage);
-        log.trace("Publishing RecObservationMessage: {}", observationJson);
-        Message telemetryMessage = new Message(observationJson);
+        return withTelemetryProperties(new Message(serializeObservation(observationMessage)));
+    }
+
+    /**
+     * Build one IoT Hub message carrying every observation in the batch as a JSON array.
+     */
+    protected Message buildBatchTelemetryMessage(TelemetryBatch batch) {
+        return withTelemetryProperties(new Message(batch.getPayload()));
+    }
+
+    protected byte[] serializeObservation(ObservationMessage observationMessage) throws JsonProcessingException {
+        return telemetrySerializer.serialize(observationMessage);
+    }
+
+    private Message withTelemetryProperties(Message telemetryMessage) {
         String messageId = UUID.randomUUID().toString();
         telemetryMessage.setMessageId(messageId);
         telemetryMessage.setMessageType(MessageType.DEVICE_TELEMETRY);
@@ -294,7 +793,7 @@ public class AzureObservationDistributionClient implements ObservationDistributi
 
     @Override
     public long getNumberOfMessagesObserved() {
-        return numberOfMessagesObserved;
+        return numberOfMessagesObserved.sum();
     }
 
     @Override
@@ -303,9 +802,26 @@ public class AzureObservationDistributionClient implements ObservationDistributi
     }
 
     public void openConnection() {
+        synchronized (this) {
+            if (quotaMetricsEnabled) {
+                registerQuotaMetrics();
+            }
+            if (connectionClosed) {
+                connectionClosed = false;
+                if (batcher != null) {
+                    startBatchLinger();
+                }
+                if (spoolDirectory != null) {
+                    openSpool(spoolDirectory);
+                }
+            }
+        }
         if (azureDeviceClient != null) {
             azureDeviceClient.openConnection();
         }
+        if (!sendQueue.isEmpty()) {
+            requestSendQueueDrain(0L);
+        }
     }
 
     public boolean isConnectionEstablished() {
@@ -316,10 +832,42 @@ public class AzureObservationDistributionClient implements ObservationDistributi
         }
     }
 
+    /**
+     * Send the current batch and close the connection. The send-queue drainer, batch linger and spool
+     * replay threads are stopped and the spool is closed; parked observations stay in the send queue
+     * and {@link #openConnection()} starts everything again.
+     */
     public void closeConnection() {
+        flush();
+        synchronized (this) {
+            connectionClosed = true;
+            if (sendQueueScheduler != null) {
+                sendQueueScheduler.shutdownNow();
+                sendQueueScheduler = null;
+                sendQueueDrainScheduled.set(false);
+            }
+            if (batchLingerScheduler != null) {
+                batchLingerScheduler.shutdownNow();
+                batchLingerScheduler = null;
+            }
+            if (spoolReplayScheduler != null) {
+                spoolReplayScheduler.shutdownNow();
+                spoolReplayScheduler = null;
+            }
+            if (spool != null) {
+                spool.close();
+                spool = null;
+            }
+        }
         if (azureDeviceClient != null) {
             azureDeviceClient.closeConnection();
         }
+        synchronized (this) {
+            if (quotaMetrics != null) {
+                quotaMetrics.close();
+                quotaMetrics = null;
+            }
+        }
     }
 
     protected Map<String, ObservationMessage> getMessagesAwaitingSentAck() {
@@ -349,38 +897,47 @@ public class AzureObservationDistributionClient implements ObservationDistributi
         }
     }
 
-    synchronized void messageSent(Message sentMessage) {
+    void messageSent(Message sentMessage) {
         if (sentMessage != null) {
             String messageId = sentMessage.getMessageId();
-            ObservationMessage observationMessage = messagesAwaitingSentAck.get(messageId);
-            messagesAwaitingSentAck.remove(messageId);
-            observedMessages.add(observationMessage);
+            List<ObservationMessage> batchedObservations = batchesAwaitingSentAck.remove(messageId);
+            if (batchedObservations != null) {
+                synchronized (observedMessages) {
+                    for (ObservationMessage batchedObservation : batchedObservations) {
+                        observedMessages.add(batchedObservation);
+                    }
+                }
+                updateWhenLastObservationDistributed();
+                return;
+            }
+            ObservationMessage observationMessage = messagesAwaitingSentAck.remove(messageId);
+            if (observationMessage != null) {
+                synchronized (observedMessages) {
+                    observedMessages.add(observationMessage);
+                }
+            }
             updateWhenLastObservationDistributed();
         }
     }
 
-    synchronized void addMessagesObserved() {
-        if (numberOfMessagesObserved < Long.MAX_VALUE) {
-            numberOfMessagesObserved++;
-        } else {
-            numberOfMessagesObserved = 1;
-        }
+    void addMessagesObserved() {
+        numberOfMessagesObserved.increment();
     }
 
-    synchronized void addMessagesPublished() {
-        if (numberOfMessagesPublished < Long.MAX_VALUE) {
-            numberOfMessagesPublished++;
-        } else {
-            numberOfMessagesPublished = 1;
-        }
+    void addMessagesPublished() {
+        numberOfMessagesPublished.increment();
     }
 
-    synchronized void addMessagesFailed() {
-        if (numberOfMessagesFailed < Long.MAX_VALUE) {
-            numberOfMessagesFailed++;
-        } else {
-            numberOfMessagesFailed = 1;
-        }
+    void addMessagesFailed() {
+        numberOfMessagesFailed.increment();
+    }
+
+    void addMessagesPublished(long count) {
+        numberOfMessagesPublished.add(count);
+    }
+
+    void addMessagesFailed(long count) {
+        numberOfMessagesFailed.add(count);
     }
 
     /**
@@ -395,7 +952,7 @@ public class AzureObservationDistributionClient implements ObservationDistributi
      */
     synchronized MqttSendFailureType registerFailure(IotHubClientException exception, ObservationMessage observationMessage) {
         MqttSendFailureType failureType = MqttSendFailureClassifier.classify(exception);
-        failuresByType.merge(failureType, 1L, Long::sum);
+        failuresByType.get(failureType).increment();
         lastFailureType = failureType;
         lastFailureAt = Instant.ofEpochMilli(System.currentTimeMillis());
         addMessagesFailed();
@@ -440,8 +997,8 @@ public class AzureObservationDistributionClient implements ObservationDistributi
     /**
      * @return how many sends failed with the given {@link MqttSendFailureType} since startup.
      */
-    public synchronized long getNumberOfMessagesFailed(MqttSendFailureType failureType) {
-        return failuresByType.getOrDefault(failureType, 0L);
+    public long getNumberOfMessagesFailed(MqttSendFailureType failureType) {
+        return failuresByType.get(failureType).sum();
     }
 
     /**
@@ -449,8 +1006,23 @@ public class AzureObservationDistributionClient implements ObservationDistributi
      * endpoints and metrics — e.g. a rising {@link MqttSendFailureType#QUOTA_EXCEEDED} or
      * {@link MqttSendFailureType#THROTTLED} count indicates IoT Hub overload.
      */
-    public synchronized Map<MqttSendFailureType, Long> getFailureCountsByType() {
-        return new EnumMap<>(failuresByType);
+    public Map<MqttSendFailureType, Long> getFailureCountsByType() {
+        Map<MqttSendFailureType, Long> failureCounts = new EnumMap<>(MqttSendFailureType.class);
+        for (Map.Entry<MqttSendFailureType, LongAdder> entry : failuresByType.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                failureCounts.put(entry.getKey(), count);
+            }
+        }
+        return failureCounts;
+    }
+
+    private static Map<MqttSendFailureType, LongAdder> newFailureCounters() {
+        Map<MqttSendFailureType, LongAdder> failureCounters = new EnumMap<>(MqttSendFailureType.class);
+        for (MqttSendFailureType failureType : MqttSendFailureType.values()) {
+            failureCounters.put(failureType, new LongAdder());
+        }
+        return failureCounters;
     }
 
     /**
@@ -472,6 +1044,8 @@ public class AzureObservationDistributionClient implements ObservationDistributi
      * Brake the send rate when IoT Hub is signalling overload (issue #440). Called at the start of
      * {@link #publish(ObservationMessage)} on the distributor thread, so braking here naturally
      * slows the whole pipeline. When not throttled the delay is {@code 0} and this is a no-op.
+     * Callers that must not be blocked should use {@link #publishAsync(ObservationMessage)}, which
+     * waits out the same delay on its own drain thread.
      */
     protected void applyBackpressureIfThrottled() {
         long delayMillis = sendThrottle.currentBackoffDelayMillis();
@@ -515,12 +1089,251 @@ public class AzureObservationDistributionClient implements ObservationDistributi
      * Reject a message because the send circuit is open (issue #441). The message is dropped on
      * purpose — buffering it risks running out of memory and retrying it is the self-DoS we are
      * preventing — but it is counted and logged so the loss is defined and observable, never silent.
+     * When the on-disk spool is enabled the message is written there instead and replayed later.
      */
     private void rejectSend(ObservationMessage observationMessage) {
         addMessagesRejected();
         telemetryClient.trackEvent("error-publish-observationmessage-circuit-open");
         log.debug("MQTT send circuit OPEN (reason={}); rejecting observationMessage. Rejected total={}",
-                circuitBreaker.getOpenReason(), numberOfMessagesRejected);
+                circuitBreaker.getOpenReason(), numberOfMessagesRejected.sum());
+        spoolIfEnabled(observationMessage);
+    }
+
+    /**
+     * Pace sending against the IoT Hub daily message quota. Observations published from now on are sent
+     * as the {@link DailyQuotaScheduler} token bucket allows, which spreads {@code dailyMessages} evenly over
+     * the UTC day and never exceeds {@code messagesPerSecond}. While the bucket is empty,
+     * {@link #publish(ObservationMessage)} parks observations in the send queue instead of blocking the
+     * caller, as {@link #publishAsync(ObservationMessage)} does. If the day's budget is spent anyway,
+     * {@link #publish(ObservationMessage)} rejects (and spools, when enabled) instead of waiting for
+     * midnight. Remaining budget and projected exhaustion are exported as OpenTelemetry gauges.
+     *
+     * @param dailyMessages     the hub tier's daily quota, in 4 KB messages (e.g. 400 000 for one S1 unit)
+     * @param messagesPerSecond the hub tier's device-to-cloud send limit
+     */
+    public synchronized void enableDailyQuota(long dailyMessages, int messagesPerSecond) {
+        useDailyQuota(new DailyQuotaScheduler(dailyMessages, messagesPerSecond));
+        registerQuotaMetrics();
+    }
+
+    /*
+    Export the quota gauges until closeConnection(); openConnection() registers them again. Pooled devices
+    share a scheduler and leave this to the pool.
+     */
+    private synchronized void registerQuotaMetrics() {
+        quotaMetricsEnabled = true;
+        if (quotaMetrics == null) {
+            quotaMetrics = DailyQuotaMetrics.register(quotaScheduler);
+        }
+    }
+
+    /*
+    Share one scheduler between the devices of a pool; the quota belongs to the hub, not the device.
+     */
+    synchronized void useDailyQuota(DailyQuotaScheduler scheduler) {
+        if (quotaScheduler != null) {
+            throw new IllegalStateException("Daily quota pacing is already enabled");
+        }
+        quotaScheduler = scheduler;
+        log.info("Pacing Azure IoT Hub sending against a daily budget of {} messages, at most {} per second",
+                scheduler.getDailyBudget(), scheduler.getMaxUnitsPerSecond());
+    }
+
+    /**
+     * @return the daily quota scheduler, or {@code null} when quota pacing is not enabled.
+     */
+    public DailyQuotaScheduler getDailyQuotaScheduler() {
+        return quotaScheduler;
+    }
+
+    private long quotaDelayMillis() {
+        DailyQuotaScheduler scheduler = quotaScheduler;
+        return scheduler == null ? 0L : scheduler.millisUntilNextSend();
+    }
+
+    private void chargeQuota(int payloadBytes) {
+        DailyQuotaScheduler scheduler = quotaScheduler;
+        if (scheduler != null) {
+            scheduler.recordSent(payloadBytes);
+        }
+    }
+
+    private void rejectOverQuota(ObservationMessage observationMessage) {
+        addMessagesRejected();
+        telemetryClient.trackEvent("error-publish-observationmessage-daily-quota");
+        log.debug("Azure IoT Hub daily message budget is spent until UTC midnight; rejecting observationMessage. Rejected total={}",
+                numberOfMessagesRejected.sum());
+        spoolIfEnabled(observationMessage);
+    }
+
+    /**
+     * Keep rejected and unacked observations on disk instead of dropping them. Observations are
+     * written to a bounded, memory-mapped {@link ObservationSpool} in their serialized REC form and
+     * replayed at no more than {@code replayPerSecond} once the circuit is closed and the link is
+     * connected. Records left by a previous run are replayed as well. While the client is not connected,
+     * {@link #publish(ObservationMessage)} spools instead of throwing.
+     *
+     * <p>Delivery from the spool is at-least-once: a record leaves the spool when it is handed to the IoT
+     * Hub client, and a send that is not acknowledged is spooled again, so an observation may arrive
+     * twice. A record that cannot be handed over {@value #MAX_SPOOL_REPLAY_ATTEMPTS} times in a row while
+     * connected is discarded and counted in {@link #getNumberOfMessagesDiscardedFromSpool()}, so it does
+     * not hold back the records behind it.
+     *
+     * @param directory       where the spool segment files are kept
+     * @param segmentBytes    size of each segment file
+     * @param maxSegments     maximum number of segment files; bounds the disk use
+     * @param replayPerSecond maximum number of spooled observations resent per second
+     */
+    public synchronized void enableSpool(Path directory, int segmentBytes, int maxSegments, int replayPerSecond) {
+        if (spoolDirectory != null) {
+            throw new IllegalStateException("Spool is already enabled in " + spoolDirectory);
+        }
+        if (replayPerSecond < 1) {
+            throw new IllegalArgumentException("replayPerSecond must be at least 1, was " + replayPerSecond);
+        }
+        spoolSegmentBytes = segmentBytes;
+        spoolMaxSegments = maxSegments;
+        spoolReplayPerSecond = replayPerSecond;
+        if (!connectionClosed) {
+            openSpool(directory);
+        }
+        spoolDirectory = directory;
+        log.info("Observation spool enabled in {}: segmentBytes={}, maxSegments={}, replayPerSecond={}, pending={}",
+                directory, segmentBytes, maxSegments, replayPerSecond, getNumberOfMessagesInSpool());
+    }
+
+    private synchronized void openSpool(Path directory) {
+        try {
+            spool = new ObservationSpool(directory, spoolSegmentBytes, spoolMaxSegments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open observation spool in " + directory, e);
+        }
+        spoolReplayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "iothub-spool-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        spoolReplayScheduler.scheduleWithFixedDelay(this::replaySpool, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /*
+    Failures where the observation never reached IoT Hub but a later resend can succeed. FATAL means
+    the message itself is bad, so spooling it would only replay the failure.
+     */
+    private static boolean isWorthSpooling(MqttSendFailureType failureType) {
+        return failureType.isRetryable()
+                || failureType == MqttSendFailureType.QUOTA_EXCEEDED
+                || failureType == MqttSendFailureType.UNDELIVERABLE;
+    }
+
+    /*
+    Returns true when the observation was written to the spool.
+     */
+    private boolean spoolIfEnabled(ObservationMessage observationMessage) {
+        ObservationSpool currentSpool = spool;
+        if (currentSpool == null || observationMessage == null) {
+            return false;
+        }
+        try {
+            if (currentSpool.append(serializeObservation(observationMessage))) {
+                addMessagesSpooled();
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("Failed to spool observationMessage: {}", observationMessage, e);
+        }
+        return false;
+    }
+
+    /*
+    Runs on the replay scheduler once a second. Only replays while sending is fully operational, so
+    the spool never competes with a probe send or feeds a reconnect loop.
+     */
+    void replaySpool() {
+        try {
+            ObservationSpool currentSpool = spool;
+            if (currentSpool == null || currentSpool.getNumberOfRecordsPending() == 0) {
+                return;
+            }
+            for (int i = 0; i < spoolReplayPerSecond; i++) {
+                if (isSendingStopped() || !isConnectionEstablished() || sendThrottle.isThrottled()
+                        || quotaDelayMillis() > 0) {
+                    return;
+                }
+                if (!circuitBreaker.allowSend()) {
+                    return;
+                }
+                // Remove once handed over; an unacknowledged send is spooled again by the send callback.
+                byte[] record = currentSpool.peek();
+                if (record == null) {
+                    return;
+                }
+                ObservationMessage observationMessage;
+                try {
+                    observationMessage = objectMapper.getObjectMapper()
+                            .readerFor(RecObservationMessage.class)
+                            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                            .readValue(record);
+                } catch (IOException e) {
+                    log.warn("Discarding spooled observation that cannot be read: {}",
+                            new String(record, StandardCharsets.UTF_8), e);
+                    discardSpoolHead(currentSpool);
+                    continue;
+                }
+                try {
+                    sendObservation(observationMessage, false);
+                } catch (RuntimeException e) {
+                    if (isSendingStopped() || !isConnectionEstablished()) {
+                        // The connection went away; keep the record for the next round without counting it.
+                        throw e;
+                    }
+                    if (++spoolReplayFailures < MAX_SPOOL_REPLAY_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.warn("Discarding spooled observation after {} failed resends: {}",
+                            spoolReplayFailures, observationMessage, e);
+                    discardSpoolHead(currentSpool);
+                    continue;
+                }
+                spoolReplayFailures = 0;
+                currentSpool.remove();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to replay spooled observations to Azure IoT Hub", e);
+        }
+    }
+
+    private void discardSpoolHead(ObservationSpool currentSpool) {
+        spoolReplayFailures = 0;
+        if (currentSpool.remove()) {
+            numberOfMessagesDiscardedFromSpool.increment();
+        }
+    }
+
+    void addMessagesSpooled() {
+        numberOfMessagesSpooled.increment();
+    }
+
+    /**
+     * @return how many rejected or unacked observations were written to the on-disk spool.
+     */
+    public long getNumberOfMessagesSpooled() {
+        return numberOfMessagesSpooled.sum();
+    }
+
+    /**
+     * @return how many spooled observations were discarded because they could not be read or resent.
+     */
+    public long getNumberOfMessagesDiscardedFromSpool() {
+        return numberOfMessagesDiscardedFromSpool.sum();
+    }
+
+    /**
+     * @return the number of observations waiting in the on-disk spool, {@code 0} when it is disabled.
+     */
+    public long getNumberOfMessagesInSpool() {
+        ObservationSpool currentSpool = spool;
+        return currentSpool == null ? 0 : currentSpool.getNumberOfRecordsPending();
     }
 
     /**
@@ -537,7 +1350,7 @@ public class AzureObservationDistributionClient implements ObservationDistributi
                 azureDeviceClient.getConnectionStatus(),
                 azureDeviceClient.getConnectionStatusReason(),
                 azureDeviceClient.getConnectionRetryingForMillis());
-        log.error("Rejecting publish — {} Rejected total={}", exception.getMessage(), numberOfMessagesRejected);
+        log.error("Rejecting publish — {} Rejected total={}", exception.getMessage(), numberOfMessagesRejected.sum());
         return exception;
     }
 
@@ -558,12 +1371,8 @@ public class AzureObservationDistributionClient implements ObservationDistributi
         }
     }
 
-    synchronized void addMessagesRejected() {
-        if (numberOfMessagesRejected < Long.MAX_VALUE) {
-            numberOfMessagesRejected++;
-        } else {
-            numberOfMessagesRejected = 1;
-        }
+    void addMessagesRejected() {
+        numberOfMessagesRejected.increment();
     }
 
     /**
@@ -571,7 +1380,7 @@ public class AzureObservationDistributionClient implements ObservationDistributi
      * A non-zero, rising value means sending is stopped and observations are being lost.
      */
     public long getNumberOfMessagesRejected() {
-        return numberOfMessagesRejected;
+        return numberOfMessagesRejected.sum();
     }
 
     /**
@@ -605,10 +1414,18 @@ public class AzureObservationDistributionClient implements ObservationDistributi
 
     @Override
     public long getNumberOfMessagesInQueue() {
-        return messagesAwaitingSentAck.size();
+        long batched = 0;
+        for (List<ObservationMessage> observations : batchesAwaitingSentAck.values()) {
+            batched += observations.size();
+        }
+        TelemetryBatcher currentBatcher = batcher;
+        if (currentBatcher != null) {
+            batched += currentBatcher.getPendingCount();
+        }
+        return messagesAwaitingSentAck.size() + batched + sendQueue.size();
     }
 
-    protected synchronized void updateWhenLastObservationDistributed() {
+    protected void updateWhenLastObservationDistributed() {
         whenLastMessageDistributedAt = Instant.ofEpochMilli(System.currentTimeMillis());
     }
 
@@ -0,0 +1,450 @@
+package no.cantara.realestate.azure;
+
+import no.cantara.realestate.MqttUnavailableException;
+import no.cantara.realestate.RealEstateException;
+import no.cantara.realestate.azure.iot.AmqpMultiplexedDevices;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.azure.iot.DailyQuotaScheduler;
+import no.cantara.realestate.azure.iot.DeviceHashRing;
+import no.cantara.realestate.azure.iot.IotHubTransportSettings;
+import no.cantara.realestate.azure.iot.MqttSendFailureType;
+import no.cantara.realestate.azure.iot.MqttSendQueue;
+import no.cantara.realestate.azure.metrics.DailyQuotaMetrics;
+import no.cantara.realestate.distribution.ObservationDistributionClient;
+import no.cantara.realestate.observations.ObservationMessage;
+import no.cantara.realestate.plugins.distribution.DistributionService;
+import org.slf4j.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Distributes observations over several Azure IoT Hub device identities.
+ *
+ * <p>IoT Hub throttles and meters per device, so one {@link AzureObservationDistributionClient} is the
+ * throughput ceiling for a large site. The pool holds one client per configured device connection
+ * string and routes each observation by a consistent hash of its sensorId ({@link DeviceHashRing}):
+ * a sensor always uses the same device, so its readings keep their order. Each device keeps its own
+ * connection monitor, throttle (#440) and circuit breaker (#441) — a throttled or stopped device
+ * only affects the sensors routed to it.
+ *
+ * <p>The {@link ObservationDistributionClient} counters are the sum over all devices; per-device
+ * figures are available from {@link #getDeviceClients()}.
+ */
+public class AzureObservationDistributionPool implements ObservationDistributionClient, DistributionService {
+    private static final Logger log = getLogger(AzureObservationDistributionPool.class);
+
+    /** Comma-separated device connection strings, one per device in the pool. */
+    public static final String CONNECTIONSTRINGS_KEY = "distribution.azure.pool.connectionStrings";
+    public static final String VIRTUAL_NODES_KEY = "distribution.azure.pool.virtualNodes";
+    /** With an AMQP transport protocol, carry all devices of one IoT Hub over a single connection. */
+    public static final String MULTIPLEXING_KEY = "distribution.azure.pool.multiplexing";
+
+    private final List<AzureObservationDistributionClient> deviceClients;
+    private final DeviceHashRing hashRing;
+    private final List<AmqpMultiplexedDevices> multiplexedConnections = new ArrayList<>();
+    private DailyQuotaMetrics quotaMetrics = null;
+
+    public AzureObservationDistributionPool() {
+        no.cantara.config.ApplicationProperties config = no.cantara.config.ApplicationProperties.getInstance();
+        List<String> connectionStrings = parseConnectionStrings(config.get(CONNECTIONSTRINGS_KEY, ""));
+        if (connectionStrings.isEmpty()) {
+            throw new RealEstateException("ConnectionStrings are missing. Please provide " + CONNECTIONSTRINGS_KEY + "= in local_override.properties.");
+        }
+        IotHubTransportSettings transportSettings = AzureObservationDistributionClient.transportSettings(config);
+        if (Boolean.parseBoolean(config.get(MULTIPLEXING_KEY, "false"))) {
+            if (!transportSettings.isAmqp()) {
+                throw new RealEstateException(MULTIPLEXING_KEY + "=true requires " + AzureObservationDistributionClient.TRANSPORT_PROTOCOL_KEY
+                        + " AMQPS or AMQPS_WS, not " + transportSettings.getProtocol());
+            }
+            deviceClients = createMultiplexedDeviceClients(connectionStrings, transportSettings);
+        } else {
+            deviceClients = createDeviceClients(connectionStrings, transportSettings);
+        }
+        hashRing = new DeviceHashRing(deviceClients.size(),
+                Integer.parseInt(config.get(VIRTUAL_NODES_KEY, String.valueOf(DeviceHashRing.DEFAULT_VIRTUAL_NODES))));
+        DailyQuotaScheduler quotaScheduler = AzureObservationDistributionClient.dailyQuotaScheduler(config);
+        if (quotaScheduler != null) {
+            useDailyQuota(quotaScheduler);
+        }
+        String spoolDirectory = config.get(AzureObservationDistributionClient.SPOOL_DIRECTORY_KEY, "");
+        for (int device = 0; device < deviceClients.size(); device++) {
+            AzureObservationDistributionClient deviceClient = deviceClients.get(device);
+            deviceClient.applySendSettings(config);
+            if (!spoolDirectory.isEmpty()) {
+                // One spool per device, so replay goes back through the device that owns the sensor.
+                deviceClient.enableSpool(Paths.get(spoolDirectory).resolve(deviceDirectoryName(device)), config);
+            }
+        }
+        log.info("Distributing observations over {} Azure IoT Hub devices", deviceClients.size());
+    }
+
+    /**
+     * @param connectionStrings one device connection string per device in the pool
+     */
+    public AzureObservationDistributionPool(List<String> connectionStrings) {
+        this(connectionStrings, new IotHubTransportSettings());
+    }
+
+    /**
+     * @param connectionStrings one device connection string per device in the pool
+     * @param transportSettings the protocol and pacing every device uses
+     */
+    public AzureObservationDistributionPool(List<String> connectionStrings, IotHubTransportSettings transportSettings) {
+        this(createDeviceClients(connectionStrings, transportSettings), DeviceHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    /*
+    Intended for testing
+     */
+    protected AzureObservationDistributionPool(List<AzureObservationDistributionClient> deviceClients, int virtualNodes) {
+        if (deviceClients == null || deviceClients.isEmpty()) {
+            throw new IllegalArgumentException("At least one device client is required");
+        }
+        this.deviceClients = Collections.unmodifiableList(new ArrayList<>(deviceClients));
+        this.hashRing = new DeviceHashRing(this.deviceClients.size(), virtualNodes);
+    }
+
+    private static List<AzureObservationDistributionClient> createDeviceClients(List<String> connectionStrings,
+                                                                                IotHubTransportSettings transportSettings) {
+        List<AzureObservationDistributionClient> clients = new ArrayList<>();
+        for (String connectionString : connectionStrings) {
+            clients.add(new AzureObservationDistributionClient(new AzureDeviceClient(connectionString, transportSettings)));
+        }
+        return Collections.unmodifiableList(clients);
+    }
+
+    /*
+    One shared AMQP connection per IoT Hub host; device order follows the configuration so routing
+    does not depend on multiplexing.
+     */
+    private List<AzureObservationDistributionClient> createMultiplexedDeviceClients(List<String> connectionStrings,
+                                                                                    IotHubTransportSettings transportSettings) {
+        Map<String, AmqpMultiplexedDevices> connectionsByHost = new HashMap<>();
+        List<AzureObservationDistributionClient> clients = new ArrayList<>();
+        for (String connectionString : connectionStrings) {
+            String hostName = AmqpMultiplexedDevices.hostNameOf(connectionString);
+            if (hostName == null) {
+                throw new RealEstateException("Device connection string in " + CONNECTIONSTRINGS_KEY + " has no HostName");
+            }
+            AmqpMultiplexedDevices connection = connectionsByHost.computeIfAbsent(hostName.toLowerCase(),
+                    host -> new AmqpMultiplexedDevices(hostName, transportSettings));
+            clients.add(new AzureObservationDistributionClient(connection.addDevice(connectionString)));
+        }
+        multiplexedConnections.addAll(connectionsByHost.values());
+        log.info("Multiplexing {} devices over {} {} connections", clients.size(), connectionsByHost.size(),
+                transportSettings.getProtocol());
+        return Collections.unmodifiableList(clients);
+    }
+
+    static List<String> parseConnectionStrings(String value) {
+        List<String> connectionStrings = new ArrayList<>();
+        if (value == null) {
+            return connectionStrings;
+        }
+        for (String connectionString : value.split(",")) {
+            if (!connectionString.isBlank()) {
+                connectionStrings.add(connectionString.trim());
+            }
+        }
+        return connectionStrings;
+    }
+
+    static String deviceDirectoryName(int device) {
+        return "device-" + device;
+    }
+
+    public String getName() {
+        return "AzureObservationDistributionPool";
+    }
+
+    @Override
+    public void initialize(Properties properties) {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.initialize(properties);
+        }
+    }
+
+    /**
+     * Publish through the device that owns the observation's sensorId.
+     *
+     * @see AzureObservationDistributionClient#publish(ObservationMessage)
+     */
+    @Override
+    public void publish(ObservationMessage observationMessage) throws RealEstateException, MqttUnavailableException {
+        if (observationMessage == null) {
+            log.trace("Missing observations message, not able to publish");
+            return;
+        }
+        deviceClientFor(observationMessage.getSensorId()).publish(observationMessage);
+    }
+
+    /**
+     * @see AzureObservationDistributionClient#publishAsync(ObservationMessage)
+     */
+    public CompletableFuture<Void> publishAsync(ObservationMessage observationMessage) {
+        if (observationMessage == null) {
+            log.trace("Missing observations message, not able to publish");
+            return CompletableFuture.completedFuture(null);
+        }
+        return deviceClientFor(observationMessage.getSensorId()).publishAsync(observationMessage);
+    }
+
+    /**
+     * @return the device client that observations from {@code sensorId} are routed to.
+     */
+    public AzureObservationDistributionClient deviceClientFor(String sensorId) {
+        return deviceClients.get(hashRing.deviceFor(sensorId));
+    }
+
+    /**
+     * @return the device clients in configuration order, for per-device stats and health.
+     */
+    public List<AzureObservationDistributionClient> getDeviceClients() {
+        return deviceClients;
+    }
+
+    public int getNumberOfDevices() {
+        return deviceClients.size();
+    }
+
+    /**
+     * @return the shared AMQP connections when multiplexing, otherwise an empty list.
+     */
+    public List<AmqpMultiplexedDevices> getMultiplexedConnections() {
+        return Collections.unmodifiableList(multiplexedConnections);
+    }
+
+    public void enableBatching(int maxCount, int maxBytes, long lingerMillis) {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.enableBatching(maxCount, maxBytes, lingerMillis);
+        }
+    }
+
+    public void configureSendQueue(int capacity, MqttSendQueue.OverflowPolicy overflowPolicy) {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.configureSendQueue(capacity, overflowPolicy);
+        }
+    }
+
+    /**
+     * Enable a spool per device, in a {@code device-<n>} subdirectory of {@code directory}.
+     */
+    public void enableSpool(Path directory, int segmentBytes, int maxSegments, int replayPerSecond) {
+        for (int device = 0; device < deviceClients.size(); device++) {
+            deviceClients.get(device).enableSpool(directory.resolve(deviceDirectoryName(device)),
+                    segmentBytes, maxSegments, replayPerSecond);
+        }
+    }
+
+    /**
+     * Pace every device against one shared daily budget — IoT Hub meters the quota per hub, so all
+     * devices in the pool must be on the same hub.
+     *
+     * @see AzureObservationDistributionClient#enableDailyQuota(long, int)
+     */
+    public void enableDailyQuota(long dailyMessages, int messagesPerSecond) {
+        useDailyQuota(new DailyQuotaScheduler(dailyMessages, messagesPerSecond));
+    }
+
+    private void useDailyQuota(DailyQuotaScheduler scheduler) {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.useDailyQuota(scheduler);
+        }
+        registerQuotaMetrics();
+    }
+
+    /*
+    The devices share one scheduler, so the pool exports its gauges once, until closeConnection().
+     */
+    private synchronized void registerQuotaMetrics() {
+        DailyQuotaScheduler scheduler = deviceClients.get(0).getDailyQuotaScheduler();
+        if (scheduler != null && quotaMetrics == null) {
+            quotaMetrics = DailyQuotaMetrics.register(scheduler);
+        }
+    }
+
+    public void flush() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.flush();
+        }
+    }
+
+    public void openConnection() {
+        registerQuotaMetrics();
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.openConnection();
+        }
+    }
+
+    /**
+     * @return {@code true} only when every device is connected.
+     */
+    public boolean isConnectionEstablished() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            if (!deviceClient.isConnectionEstablished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void closeConnection() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            deviceClient.closeConnection();
+        }
+        synchronized (this) {
+            if (quotaMetrics != null) {
+                quotaMetrics.close();
+                quotaMetrics = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isInitialized() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            if (!deviceClient.isInitialized()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unhealthy as soon as one device is: the sensors routed to that device are not being delivered.
+     */
+    @Override
+    public boolean isHealthy() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            if (!deviceClient.isHealthy()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if at least one device is rejecting new sends.
+     */
+    public boolean isSendingStopped() {
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            if (deviceClient.isSendingStopped()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getNumberOfMessagesPublished() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesPublished();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getNumberOfMessagesFailed() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesFailed();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getNumberOfMessagesObserved() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesObserved();
+        }
+        return sum;
+    }
+
+    public long getNumberOfMessagesRejected() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesRejected();
+        }
+        return sum;
+    }
+
+    public long getNumberOfMessagesSpooled() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesSpooled();
+        }
+        return sum;
+    }
+
+    public long getNumberOfMessagesDiscardedFromSpool() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesDiscardedFromSpool();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getNumberOfMessagesInQueue() {
+        long sum = 0;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            sum += deviceClient.getNumberOfMessagesInQueue();
+        }
+        return sum;
+    }
+
+    /**
+     * @return the failure counts per category, summed over all devices.
+     */
+    public Map<MqttSendFailureType, Long> getFailureCountsByType() {
+        Map<MqttSendFailureType, Long> failureCounts = new EnumMap<>(MqttSendFailureType.class);
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            for (Map.Entry<MqttSendFailureType, Long> entry : deviceClient.getFailureCountsByType().entrySet()) {
+                failureCounts.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+        }
+        return failureCounts;
+    }
+
+    /**
+     * @return a snapshot of the recently observed messages of every device, device by device.
+     */
+    @Override
+    public List<ObservationMessage> getObservedMessages() {
+        List<ObservationMessage> observedMessages = new ArrayList<>();
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            List<ObservationMessage> deviceObservedMessages = deviceClient.getObservedMessages();
+            // The send callbacks add to the list under its own monitor.
+            synchronized (deviceObservedMessages) {
+                observedMessages.addAll(deviceObservedMessages);
+            }
+        }
+        return observedMessages;
+    }
+
+    @Override
+    public Instant getWhenLastMessageDistributed() {
+        Instant lastDistributed = null;
+        for (AzureObservationDistributionClient deviceClient : deviceClients) {
+            Instant deviceLastDistributed = deviceClient.getWhenLastMessageDistributed();
+            if (deviceLastDistributed != null && (lastDistributed == null || deviceLastDistributed.isAfter(lastDistributed))) {
+                lastDistributed = deviceLastDistributed;
+            }
+        }
+        return lastDistributed;
+    }
+}
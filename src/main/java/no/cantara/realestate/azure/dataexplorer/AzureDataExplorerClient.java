@@ -4,14 +4,18 @@ import com.microsoft.azure.kusto.data.*;
 import com.microsoft.azure.kusto.data.auth.ConnectionStringBuilder;
 import com.microsoft.azure.kusto.data.exceptions.DataClientException;
 import com.microsoft.azure.kusto.data.exceptions.DataServiceException;
-import com.microsoft.azure.kusto.data.exceptions.ThrottleException;
 import no.cantara.config.ApplicationProperties;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -21,10 +25,16 @@ public class AzureDataExplorerClient {
     public static final String DEFAULT_DATABASE = "default";
     private final Client kustoClient;
     private final String database;
+    private final KustoRetryExecutor retryExecutor;
 
     public AzureDataExplorerClient(Client kustoClient, String database) {
+        this(kustoClient, database, new KustoRetryExecutor());
+    }
+
+    public AzureDataExplorerClient(Client kustoClient, String database, KustoRetryExecutor retryExecutor) {
         this.kustoClient = kustoClient;
         this.database = database;
+        this.retryExecutor = retryExecutor;
     }
 
     public AzureDataExplorerClient(ApplicationProperties config) throws Exception {
@@ -38,6 +48,7 @@ public class AzureDataExplorerClient {
         Client kustoClient = ClientFactory.createClient(kcsb);
         this.kustoClient = kustoClient;
         this.database = database;
+        this.retryExecutor = new KustoRetryExecutor();
     }
 
     public AzureDataExplorerClient(String clusterUri, String applicationId, String applicationKey, String tenantId, String database) throws Exception {
@@ -46,81 +57,87 @@ public class AzureDataExplorerClient {
         Client kustoClient = ClientFactory.createClient(kcsb);
         this.kustoClient = kustoClient;
         this.database = database;
+        this.retryExecutor = new KustoRetryExecutor();
     }
 
 
     protected KustoResultSetTable runQuery(String query) {
-        KustoResultSetTable primaryResults = null;
-        try {
-            KustoOperationResult response = kustoClient.executeQuery(database, query);
-            primaryResults = response.getPrimaryResults();
-        } catch (ThrottleException e) {
-            log.warn("Throttled. Waiting 10 seconds before retrying", e);
-            try {
-                Thread.sleep(1000);
-                log.info("Try to re-run query: {}", query);
-                runQuery(query);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
+        KustoOperationResult response = execute("query: " + query, () -> kustoClient.executeQuery(database, query));
+        return response.getPrimaryResults();
+    }
+
+    protected KustoResultSetTable runMgmtQuery(String query) {
+        KustoOperationResult response = execute("management command: " + query, () -> kustoClient.executeMgmt(database, query));
+        KustoResultSetTable primaryResults = response.getPrimaryResults();
+        while (primaryResults.next()) {
+            KustoResultColumn[] columns = primaryResults.getColumns();
+            for (KustoResultColumn column : columns) {
+                log.debug(column.getColumnName() + ": " + primaryResults.getString(column.getColumnName()) + ", ");
             }
-        } catch (DataServiceException e) {
-            throw new RuntimeException(e);
-        } catch (DataClientException e) {
-            throw new RuntimeException(e);
         }
         return primaryResults;
     }
 
-    protected KustoResultSetTable runMgmtQuery(String query) {
-        KustoResultSetTable primaryResults = null;
+    public KustoRetryExecutor getRetryExecutor() {
+        return retryExecutor;
+    }
+
+    private <T> T execute(String description, KustoRetryExecutor.KustoCall<T> call) {
         try {
-            KustoOperationResult response = kustoClient.executeMgmt(database, query);
-            primaryResults = response.getPrimaryResults();
-            while (primaryResults.next()) {
-                KustoResultColumn[] columns = primaryResults.getColumns();
-                for (KustoResultColumn column : columns) {
-                    log.debug(column.getColumnName() + ": " + primaryResults.getString(column.getColumnName()) + ", ");
-                }
-            }
-        } catch (ThrottleException e) {
-            log.warn("Throttled. Waiting 10 seconds before retrying", e);
-            try {
-                Thread.sleep(10000);
-                log.info("Try to re-run query: {}", query);
-                runMgmtQuery(query);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
-            }
+            return retryExecutor.execute(description, call);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } catch (DataServiceException e) {
             throw new RuntimeException(e);
         } catch (DataClientException e) {
             throw new RuntimeException(e);
         }
-        return primaryResults;
     }
 
     /**
      * Executes a query and returns results as a list of maps.
-     * Each map represents a row with column names as keys.
+     * Each map represents a row with column names as keys. Holds the whole result in memory; use
+     * {@link #streamRows(KustoResultSetTable)} or {@link KustoColumnarResult} for large results.
      *
      * @param primaryResults
      * @return list of rows, where each row is a map of column name to value
      */
     public List<Map<String, Object>> mapToList(KustoResultSetTable primaryResults) {
-        List<Map<String, Object>> mappedList = new ArrayList<>();
-        try {
-            KustoResultColumn[] columns = primaryResults.getColumns();
-            while (primaryResults.next()) {
-                Map<String, Object> row = new LinkedHashMap<>();
-                for (KustoResultColumn column : columns) {
-                    row.put(column.getColumnName(), primaryResults.getObject(column.getColumnName()));
-                }
-                mappedList.add(row);
-            }
+        try (Stream<KustoRow> rows = streamRows(primaryResults)) {
+            return rows.map(KustoRow::toMap).collect(Collectors.toCollection(ArrayList::new));
         } catch (Exception e) {
             throw new RuntimeException("Error mapping results to list", e);
         }
-        return mappedList;
+    }
+
+    /**
+     * Stream the remaining rows of a result set, reading each row as the stream is consumed. Column indexes
+     * are resolved once for the whole result set.
+     */
+    public Stream<KustoRow> streamRows(KustoResultSetTable primaryResults) {
+        KustoResultColumn[] resultColumns = primaryResults.getColumns();
+        List<String> names = new ArrayList<>(resultColumns.length);
+        for (KustoResultColumn column : resultColumns) {
+            names.add(column.getColumnName());
+        }
+        KustoRow.Columns columns = new KustoRow.Columns(names);
+        Spliterator<KustoRow> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super KustoRow> action) {
+                if (!primaryResults.next()) {
+                    return false;
+                }
+                Object[] values = new Object[columns.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = primaryResults.getObject(i);
+                }
+                action.accept(new KustoRow(columns, values));
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
     }
 
 
@@ -0,0 +1,253 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.microsoft.azure.kusto.data.auth.ConnectionStringBuilder;
+import com.microsoft.azure.kusto.ingest.IngestClient;
+import com.microsoft.azure.kusto.ingest.IngestClientFactory;
+import com.microsoft.azure.kusto.ingest.IngestionMapping;
+import com.microsoft.azure.kusto.ingest.IngestionProperties;
+import com.microsoft.azure.kusto.ingest.exceptions.IngestionClientException;
+import com.microsoft.azure.kusto.ingest.exceptions.IngestionServiceException;
+import com.microsoft.azure.kusto.ingest.source.CompressionType;
+import com.microsoft.azure.kusto.ingest.source.StreamSourceInfo;
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.azure.CantaraRealestateAzureException;
+import no.cantara.realestate.azure.rec.RecTelemetrySerializer;
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.realestate.observations.ObservationMessage;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Ingests observations straight into Azure Data Explorer, bypassing IoT Hub. Meant for bulk backfills of
+ * historical trends, which would otherwise spend the hub's daily message quota.
+ *
+ * <p>Observations are serialized with {@link RecTelemetrySerializer}, the same REC JSON the IoT Hub data
+ * connection delivers, so the table's {@code JsonTelemetryMapping} applies unchanged. They are written as
+ * newline-delimited JSON into gzip-compressed batches of up to {@code maxBatchBytes} uncompressed. A batch no
+ * larger than {@code maxStreamingBytes} uses streaming ingestion and is queryable within seconds; larger
+ * batches, and batches the cluster refuses to stream (e.g. with the streaming ingestion policy disabled), use
+ * queued ingestion, which is cheaper for the cluster but lands after the batching policy's delay.
+ */
+public class AzureDataExplorerIngestClient implements AutoCloseable {
+    private static final Logger log = getLogger(AzureDataExplorerIngestClient.class);
+
+    public static final String DEFAULT_TABLE = "RealestateTelemetry";
+    public static final String DEFAULT_INGESTION_MAPPING = "JsonTelemetryMapping";
+    // Streaming ingestion accepts at most 4 MB per request.
+    public static final int DEFAULT_MAX_STREAMING_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024 * 1024;
+
+    private final IngestClient streamingClient;
+    private final IngestClient queuedClient;
+    private final IngestionProperties ingestionProperties;
+    private final RecTelemetrySerializer telemetrySerializer;
+    private final int maxStreamingBytes;
+    private final int maxBatchBytes;
+
+    private final LongAdder observationsIngested = new LongAdder();
+    private final LongAdder observationsSkipped = new LongAdder();
+    private final LongAdder batchesStreamed = new LongAdder();
+    private final LongAdder batchesQueued = new LongAdder();
+
+    public AzureDataExplorerIngestClient(ApplicationProperties config) throws CantaraRealestateAzureException {
+        this(config.get("azure.dataexplorer.clusterUri"),
+                config.get("azure.dataexplorer.ingestUri", null),
+                config.get("azure.dataexplorer.appId"),
+                config.get("azure.dataexplorer.appSecret"),
+                config.get("azure.dataexplorer.tenantId"),
+                config.get("azure.dataexplorer.database", AzureDataExplorerClient.DEFAULT_DATABASE),
+                config.get("azure.dataexplorer.table", DEFAULT_TABLE));
+    }
+
+    /**
+     * @param ingestUri the cluster's data management endpoint, or {@code null} to derive it from {@code clusterUri}
+     *                  by prefixing the host with {@code ingest-}
+     */
+    public AzureDataExplorerIngestClient(String clusterUri, String ingestUri, String applicationId, String applicationKey,
+                                         String tenantId, String database, String table) throws CantaraRealestateAzureException {
+        this(createStreamingClient(clusterUri, applicationId, applicationKey, tenantId),
+                createQueuedClient(ingestUri == null ? ingestUri(clusterUri) : ingestUri, applicationId, applicationKey, tenantId),
+                database, table, DEFAULT_INGESTION_MAPPING, DEFAULT_MAX_STREAMING_BYTES, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    public AzureDataExplorerIngestClient(IngestClient streamingClient, IngestClient queuedClient, String database, String table,
+                                         String ingestionMapping, int maxStreamingBytes, int maxBatchBytes) {
+        if (maxStreamingBytes > maxBatchBytes) {
+            throw new IllegalArgumentException("maxStreamingBytes (" + maxStreamingBytes + ") must not exceed maxBatchBytes (" + maxBatchBytes + ")");
+        }
+        this.streamingClient = streamingClient;
+        this.queuedClient = queuedClient;
+        this.maxStreamingBytes = maxStreamingBytes;
+        this.maxBatchBytes = maxBatchBytes;
+        ingestionProperties = new IngestionProperties(database, table);
+        ingestionProperties.setDataFormat(IngestionProperties.DataFormat.MULTIJSON);
+        ingestionProperties.setIngestionMapping(ingestionMapping, IngestionMapping.IngestionMappingKind.JSON);
+        telemetrySerializer = new RecTelemetrySerializer(RealEstateObjectMapper.getInstance().getObjectMapper());
+    }
+
+    /**
+     * Ingest the observations, in as many batches as their size requires. Observations that cannot be
+     * serialized are skipped and counted in {@link #getObservationsSkipped()}.
+     *
+     * @return the number of observations submitted
+     * @throws CantaraRealestateAzureException if a batch could not be submitted; earlier batches stay submitted
+     */
+    public long ingest(Stream<ObservationMessage> observations) throws CantaraRealestateAzureException {
+        long submitted = 0;
+        Batch batch = new Batch();
+        Iterator<ObservationMessage> iterator = observations.iterator();
+        while (iterator.hasNext()) {
+            ObservationMessage observationMessage = iterator.next();
+            byte[] json;
+            try {
+                json = telemetrySerializer.serialize(observationMessage);
+            } catch (JsonProcessingException e) {
+                log.debug("Skipping observation that could not be serialized: {}", observationMessage, e);
+                observationsSkipped.increment();
+                continue;
+            }
+            if (batch.count > 0 && batch.uncompressedBytes + json.length + 1 > maxBatchBytes) {
+                submitted += submit(batch);
+                batch = new Batch();
+            }
+            batch.add(json);
+        }
+        if (batch.count > 0) {
+            submitted += submit(batch);
+        }
+        return submitted;
+    }
+
+    public long getObservationsIngested() {
+        return observationsIngested.sum();
+    }
+
+    public long getObservationsSkipped() {
+        return observationsSkipped.sum();
+    }
+
+    public long getBatchesStreamed() {
+        return batchesStreamed.sum();
+    }
+
+    public long getBatchesQueued() {
+        return batchesQueued.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            streamingClient.close();
+        } finally {
+            queuedClient.close();
+        }
+    }
+
+    private int submit(Batch batch) throws CantaraRealestateAzureException {
+        byte[] compressed = batch.finish();
+        boolean streamed = false;
+        if (batch.uncompressedBytes <= maxStreamingBytes) {
+            try {
+                streamingClient.ingestFromStream(sourceOf(compressed), ingestionProperties);
+                streamed = true;
+            } catch (IngestionClientException | IngestionServiceException e) {
+                log.info("Streaming ingestion of {} observations failed; falling back to queued ingestion. Reason: {}",
+                        batch.count, e.getMessage());
+            }
+        }
+        if (!streamed) {
+            try {
+                queuedClient.ingestFromStream(sourceOf(compressed), ingestionProperties);
+            } catch (IngestionClientException | IngestionServiceException e) {
+                throw new CantaraRealestateAzureException("Failed to ingest " + batch.count + " observations into "
+                        + ingestionProperties.getDatabaseName() + "." + ingestionProperties.getTableName(), e);
+            }
+        }
+        (streamed ? batchesStreamed : batchesQueued).increment();
+        observationsIngested.add(batch.count);
+        log.debug("{} {} observations ({} bytes, {} compressed)", streamed ? "Streamed" : "Queued",
+                batch.count, batch.uncompressedBytes, compressed.length);
+        return batch.count;
+    }
+
+    private static StreamSourceInfo sourceOf(byte[] compressed) {
+        StreamSourceInfo sourceInfo = new StreamSourceInfo(new ByteArrayInputStream(compressed));
+        sourceInfo.setCompressionType(CompressionType.gz);
+        return sourceInfo;
+    }
+
+    static String ingestUri(String clusterUri) {
+        URI uri = URI.create(clusterUri);
+        return uri.getScheme() + "://ingest-" + uri.getAuthority();
+    }
+
+    private static IngestClient createStreamingClient(String clusterUri, String applicationId, String applicationKey,
+                                                      String tenantId) throws CantaraRealestateAzureException {
+        try {
+            return IngestClientFactory.createStreamingIngestClient(
+                    ConnectionStringBuilder.createWithAadApplicationCredentials(clusterUri, applicationId, applicationKey, tenantId));
+        } catch (Exception e) {
+            throw new CantaraRealestateAzureException("Failed to create streaming ingest client for " + clusterUri, e);
+        }
+    }
+
+    private static IngestClient createQueuedClient(String ingestUri, String applicationId, String applicationKey,
+                                                   String tenantId) throws CantaraRealestateAzureException {
+        try {
+            return IngestClientFactory.createClient(
+                    ConnectionStringBuilder.createWithAadApplicationCredentials(ingestUri, applicationId, applicationKey, tenantId));
+        } catch (Exception e) {
+            throw new CantaraRealestateAzureException("Failed to create queued ingest client for " + ingestUri, e);
+        }
+    }
+
+    /*
+    Newline-delimited JSON, gzip-compressed as it is added.
+     */
+    private static final class Batch {
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final GZIPOutputStream gzip;
+        private int count = 0;
+        private long uncompressedBytes = 0;
+
+        Batch() {
+            try {
+                gzip = new GZIPOutputStream(compressed, 64 * 1024);
+            } catch (IOException e) {
+                // Writing to a byte array never does I/O.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void add(byte[] json) {
+            try {
+                gzip.write(json);
+                gzip.write('\n');
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            count++;
+            uncompressedBytes += json.length + 1;
+        }
+
+        byte[] finish() {
+            try {
+                gzip.finish();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return compressed.toByteArray();
+        }
+    }
+}
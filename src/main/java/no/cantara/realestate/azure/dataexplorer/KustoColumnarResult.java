@@ -0,0 +1,142 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.microsoft.azure.kusto.data.KustoResultColumn;
+import com.microsoft.azure.kusto.data.KustoResultSetTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A Kusto result held column by column, for large numeric results such as trend series.
+ *
+ * <p>Columns of Kusto type {@code int}, {@code long}, {@code real} and {@code decimal} are stored as a
+ * {@code double[]}, without boxing each cell; a null cell is stored as {@code NaN} and flagged in
+ * {@link #isNull(String, int)}. Other columns are stored as {@code Object[]}.
+ */
+public class KustoColumnarResult {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final KustoRow.Columns columns;
+    private final double[][] numeric;
+    private final Object[][] objects;
+    private final BitSet[] nulls;
+    private final int rowCount;
+
+    private KustoColumnarResult(KustoRow.Columns columns, double[][] numeric, Object[][] objects, BitSet[] nulls, int rowCount) {
+        this.columns = columns;
+        this.numeric = numeric;
+        this.objects = objects;
+        this.nulls = nulls;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Read the remaining rows of the result set.
+     */
+    public static KustoColumnarResult from(KustoResultSetTable resultSet) {
+        KustoResultColumn[] resultColumns = resultSet.getColumns();
+        int columnCount = resultColumns.length;
+        List<String> names = new ArrayList<>(columnCount);
+        double[][] numeric = new double[columnCount][];
+        Object[][] objects = new Object[columnCount][];
+        BitSet[] nulls = new BitSet[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            names.add(resultColumns[c].getColumnName());
+            nulls[c] = new BitSet();
+            if (isNumericType(resultColumns[c].getColumnType())) {
+                numeric[c] = new double[INITIAL_CAPACITY];
+            } else {
+                objects[c] = new Object[INITIAL_CAPACITY];
+            }
+        }
+        int rows = 0;
+        int capacity = INITIAL_CAPACITY;
+        while (resultSet.next()) {
+            if (rows == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < columnCount; c++) {
+                    if (numeric[c] != null) {
+                        numeric[c] = Arrays.copyOf(numeric[c], capacity);
+                    } else {
+                        objects[c] = Arrays.copyOf(objects[c], capacity);
+                    }
+                }
+            }
+            for (int c = 0; c < columnCount; c++) {
+                Object value = resultSet.getObject(c);
+                if (value == null) {
+                    nulls[c].set(rows);
+                }
+                if (numeric[c] != null) {
+                    numeric[c][rows] = value == null ? Double.NaN : ((Number) value).doubleValue();
+                } else {
+                    objects[c][rows] = value;
+                }
+            }
+            rows++;
+        }
+        return new KustoColumnarResult(new KustoRow.Columns(names), numeric, objects, nulls, rows);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public List<String> getColumnNames() {
+        return columns.names();
+    }
+
+    public boolean isNumeric(String columnName) {
+        return numeric[columns.indexOf(columnName)] != null;
+    }
+
+    /**
+     * @return the column's values, one per row
+     * @throws IllegalArgumentException if the column is not numeric
+     */
+    public double[] getDoubleColumn(String columnName) {
+        int index = columns.indexOf(columnName);
+        if (numeric[index] == null) {
+            throw new IllegalArgumentException("Column " + columnName + " is not numeric");
+        }
+        return Arrays.copyOf(numeric[index], rowCount);
+    }
+
+    /**
+     * @return the column's values, one per row; numeric columns are boxed
+     */
+    public Object[] getColumn(String columnName) {
+        int index = columns.indexOf(columnName);
+        if (numeric[index] == null) {
+            return Arrays.copyOf(objects[index], rowCount);
+        }
+        Object[] values = new Object[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            values[row] = nulls[index].get(row) ? null : numeric[index][row];
+        }
+        return values;
+    }
+
+    public boolean isNull(String columnName, int row) {
+        return nulls[columns.indexOf(columnName)].get(row);
+    }
+
+    static boolean isNumericType(String kustoType) {
+        if (kustoType == null) {
+            return false;
+        }
+        switch (kustoType.toLowerCase()) {
+            case "int":
+            case "long":
+            case "real":
+            case "double":
+            case "decimal":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
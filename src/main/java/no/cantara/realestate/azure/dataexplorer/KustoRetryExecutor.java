@@ -0,0 +1,135 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpHeaderName;
+import com.microsoft.azure.kusto.data.exceptions.DataClientException;
+import com.microsoft.azure.kusto.data.exceptions.DataServiceException;
+import com.microsoft.azure.kusto.data.exceptions.ThrottleException;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Runs Kusto calls, retrying those the cluster throttles.
+ *
+ * <p>A throttled call is retried up to {@code maxAttempts} attempts in all. The wait before attempt n is
+ * drawn at random from the upper half of {@code initialBackoff * 2^(n-2)}, capped at {@code maxBackoff}, so
+ * clients throttled together do not retry together. When the service sends a {@code Retry-After} header,
+ * the wait is at least that long. Other errors are not retried.
+ *
+ * <p>{@link #getThrottledAttempts()} and {@link #getRetriesExhausted()} count what happened; register them
+ * with {@link no.cantara.realestate.azure.metrics.KustoRetryMetrics}. Thread-safe.
+ */
+public class KustoRetryExecutor {
+    private static final Logger log = getLogger(KustoRetryExecutor.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Sleeper sleeper;
+
+    private final LongAdder throttledAttempts = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+
+    public KustoRetryExecutor() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    public KustoRetryExecutor(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        this(maxAttempts, initialBackoff, maxBackoff, Thread::sleep);
+    }
+
+    // Visible for testing — inject a sleeper that does not wait.
+    KustoRetryExecutor(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Sleeper sleeper) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * @param description what the call does, for logging
+     * @return the call's result
+     * @throws ThrottleException    if the call was still throttled after {@code maxAttempts} attempts
+     * @throws InterruptedException if interrupted while waiting to retry
+     */
+    public <T> T execute(String description, KustoCall<T> call) throws DataServiceException, DataClientException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (ThrottleException e) {
+                throttledAttempts.increment();
+                if (attempt >= maxAttempts) {
+                    retriesExhausted.increment();
+                    log.warn("Throttled {} times, giving up on: {}", attempt, description);
+                    throw e;
+                }
+                long waitMillis = backoffMillis(attempt, retryAfterMillis(e));
+                log.info("Throttled on attempt {} of {}. Waiting {} ms before retrying: {}", attempt, maxAttempts, waitMillis, description);
+                sleeper.sleep(waitMillis);
+            }
+        }
+    }
+
+    public long getThrottledAttempts() {
+        return throttledAttempts.sum();
+    }
+
+    public long getRetriesExhausted() {
+        return retriesExhausted.sum();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /*
+    Wait after the given failed attempt: the upper half of the exponential back-off, but no less than Retry-After.
+     */
+    long backoffMillis(int failedAttempt, long retryAfterMillis) {
+        long exponential = initialBackoffMillis << Math.min(failedAttempt - 1, 30);
+        long ceiling = Math.min(maxBackoffMillis, exponential < 0 ? maxBackoffMillis : exponential);
+        long jittered = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    /*
+    The Retry-After header of the HTTP response behind the throttle, in millis, or 0 if there is none.
+     */
+    static long retryAfterMillis(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpResponseException && ((HttpResponseException) cause).getResponse() != null) {
+                String retryAfter = ((HttpResponseException) cause).getResponse().getHeaderValue(HttpHeaderName.RETRY_AFTER);
+                if (retryAfter != null) {
+                    try {
+                        return Long.parseLong(retryAfter.trim()) * 1000L;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    public interface KustoCall<T> {
+        T call() throws DataServiceException, DataClientException;
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+}
@@ -0,0 +1,113 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One row of a Kusto result, as returned by {@link AzureDataExplorerClient#streamRows}.
+ *
+ * <p>The values are held in an array in column order. Column names are resolved to indexes once per result
+ * set, and every row of that result set shares the lookup, so reading a cell by name is a single map lookup
+ * rather than a search of the result set's columns.
+ */
+public class KustoRow {
+
+    private final Columns columns;
+    private final Object[] values;
+
+    KustoRow(Columns columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public List<String> getColumnNames() {
+        return columns.names;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the result has no such column
+     */
+    public int columnIndex(String columnName) {
+        return columns.indexOf(columnName);
+    }
+
+    public Object get(int columnIndex) {
+        return values[columnIndex];
+    }
+
+    public Object get(String columnName) {
+        return values[columnIndex(columnName)];
+    }
+
+    public String getString(String columnName) {
+        Object value = get(columnName);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @return the value as a double, or {@code Double.NaN} if it is null
+     */
+    public double getDouble(int columnIndex) {
+        Object value = values[columnIndex];
+        return value == null ? Double.NaN : ((Number) value).doubleValue();
+    }
+
+    public double getDouble(String columnName) {
+        return getDouble(columnIndex(columnName));
+    }
+
+    public boolean isNull(int columnIndex) {
+        return values[columnIndex] == null;
+    }
+
+    /**
+     * @return a copy of the row keyed by column name, in column order
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            row.put(columns.names.get(i), values[i]);
+        }
+        return row;
+    }
+
+    @Override
+    public String toString() {
+        return "KustoRow" + Arrays.toString(values);
+    }
+
+    /*
+    Column names and their indexes, shared by every row of one result set.
+     */
+    static final class Columns {
+        private final List<String> names;
+        private final Map<String, Integer> indexes;
+
+        Columns(List<String> names) {
+            this.names = Collections.unmodifiableList(names);
+            this.indexes = new LinkedHashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                indexes.put(names.get(i), i);
+            }
+        }
+
+        List<String> names() {
+            return names;
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        int indexOf(String columnName) {
+            Integer index = indexes.get(columnName);
+            if (index == null) {
+                throw new IllegalArgumentException("No column " + columnName + " in " + names);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package no.cantara.realestate.azure.iot;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClient;
+import com.microsoft.azure.sdk.iot.device.MultiplexingClient;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Several IoT Hub device identities carried over one AMQP connection.
+ *
+ * <p>Each {@link DeviceClient} normally holds its own TLS socket and worker threads. A device pool on a
+ * large site multiplies that by the number of devices. The SDK's {@link MultiplexingClient} lets all
+ * devices of one IoT Hub share a single AMQPS (or AMQPS_WS) connection; each device still has its own
+ * identity, quota and throttling on the IoT Hub side, and its own {@link AzureDeviceClient} with
+ * connection monitor on ours.
+ *
+ * <p>Usage: {@link #addDevice(String)} once per device connection string, then {@link #open()}. Opening
+ * or closing any of the returned {@link AzureDeviceClient}s opens or closes the shared connection, so a
+ * force-close after an unstable link (#1805) disconnects, and on reopen reconnects, every device on it.
+ * Thread-safe.
+ */
+public class AmqpMultiplexedDevices {
+    private static final Logger log = getLogger(AmqpMultiplexedDevices.class);
+
+    private final String hostName;
+    private final IotHubTransportSettings transportSettings;
+    private final MultiplexingClient multiplexingClient;
+    private final List<DeviceClient> deviceClients = new ArrayList<>();
+    private final List<AzureDeviceClient> members = new ArrayList<>();
+    private boolean registered = false;
+    private boolean open = false;
+
+    /**
+     * @param hostName          the IoT Hub host name shared by all devices, e.g. {@code my-hub.azure-devices.net}
+     * @param transportSettings must use {@code AMQPS} or {@code AMQPS_WS}
+     */
+    public AmqpMultiplexedDevices(String hostName, IotHubTransportSettings transportSettings) {
+        this(hostName, transportSettings, new MultiplexingClient(hostName, transportSettings.getProtocol(),
+                transportSettings.toMultiplexingClientOptions()));
+    }
+
+    /*
+    Intended for testing
+     */
+    AmqpMultiplexedDevices(String hostName, IotHubTransportSettings transportSettings, MultiplexingClient multiplexingClient) {
+        if (!transportSettings.isAmqp()) {
+            throw new IllegalArgumentException("Multiplexing requires AMQPS or AMQPS_WS, not " + transportSettings.getProtocol());
+        }
+        this.hostName = hostName;
+        this.transportSettings = transportSettings;
+        this.multiplexingClient = multiplexingClient;
+    }
+
+    /**
+     * Add a device to the shared connection. Must be called before the first {@link #open()}.
+     *
+     * @param connectionString the device connection string; its host name must match this hub
+     * @return the client to publish through for this device
+     */
+    public synchronized AzureDeviceClient addDevice(String connectionString) {
+        if (registered) {
+            throw new IllegalStateException("Cannot add devices after the multiplexed connection to " + hostName + " has been opened");
+        }
+        String deviceHostName = hostNameOf(connectionString);
+        if (!hostName.equalsIgnoreCase(deviceHostName)) {
+            throw new IllegalArgumentException("Device belongs to " + deviceHostName + ", not " + hostName);
+        }
+        DeviceClient deviceClient = new DeviceClient(connectionString, transportSettings.getProtocol());
+        deviceClients.add(deviceClient);
+        AzureDeviceClient member = new AzureDeviceClient(deviceClient, this);
+        members.add(member);
+        return member;
+    }
+
+    /**
+     * Open the shared connection, registering the added devices the first time. Does nothing if it is
+     * already open. The devices report themselves connected through their connection-status callbacks.
+     */
+    public synchronized void open() {
+        if (open) {
+            return;
+        }
+        try {
+            if (!registered) {
+                // The multiplexing client keeps its registrations across close() and open().
+                multiplexingClient.registerDeviceClients(deviceClients);
+                registered = true;
+            }
+            multiplexingClient.open(false);
+            open = true;
+            log.info("Opened multiplexed {} connection to {} for {} devices",
+                    transportSettings.getProtocol(), hostName, deviceClients.size());
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RuntimeException("Failed to open multiplexed connection to " + hostName, e);
+        }
+    }
+
+    /**
+     * Close the shared connection, and with it every device on it. Does nothing if it is not open.
+     */
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        try {
+            multiplexingClient.close();
+        } catch (Exception e) {
+            log.warn("Failed to close multiplexed connection to {} cleanly", hostName, e);
+        } finally {
+            open = false;
+            for (AzureDeviceClient member : members) {
+                member.markConnectionClosed();
+            }
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public synchronized List<DeviceClient> getDeviceClients() {
+        return Collections.unmodifiableList(new ArrayList<>(deviceClients));
+    }
+
+    /**
+     * @return the {@code HostName} part of an IoT Hub device connection string, or {@code null} if absent.
+     */
+    public static String hostNameOf(String connectionString) {
+        if (connectionString == null) {
+            return null;
+        }
+        for (String part : connectionString.split(";")) {
+            int separator = part.indexOf('=');
+            if (separator > 0 && part.substring(0, separator).trim().equalsIgnoreCase("HostName")) {
+                return part.substring(separator + 1).trim();
+            }
+        }
+        return null;
+    }
+}
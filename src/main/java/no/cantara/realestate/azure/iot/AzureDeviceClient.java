@@ -33,6 +33,8 @@ public class AzureDeviceClient {
 
     private final DeviceClient deviceClient;
     private final Tracer tracer;
+    // Set when this device shares an AMQP connection with others; opening and closing go through it.
+    private final AmqpMultiplexedDevices multiplexedDevices;
 
     // Tracks the real MQTT link state from the SDK's connection-status callback and decides when a
     // silent reconnect loop must be broken by force-closing the client (azure-iot-sdk-java#1805).
@@ -45,15 +47,24 @@ public class AzureDeviceClient {
     private String iotHubHostname = "";
 
     public AzureDeviceClient(String connectionString) {
-        ClientOptions clientOptions = ClientOptions.builder().keepAliveInterval(30).build();
-        deviceClient = new DeviceClient(connectionString, IotHubClientProtocol.MQTT_WS, clientOptions);
-        if (deviceClient != null && deviceClient.getConfig() != null) {
-            iotHubHostname = deviceClient.getConfig().getIotHubHostname();
-        }
-        this.connectionMonitor = new IotHubConnectionMonitor();
-        applyBoundedRetryPolicy();
-        registerConnectionStatusCallback();
-        tracer = GlobalOpenTelemetry.getTracer(INSTRUMENTATION_SCOPE_NAME);
+        this(connectionString, new IotHubTransportSettings());
+    }
+
+    /**
+     * @param connectionString  the device connection string
+     * @param transportSettings protocol, keep-alive and SDK send pacing
+     */
+    public AzureDeviceClient(String connectionString, IotHubTransportSettings transportSettings) {
+        this(new DeviceClient(connectionString, transportSettings.getProtocol(), transportSettings.toClientOptions()),
+                new IotHubConnectionMonitor(), null);
+        log.info("Created IoT Hub device client for {} with {}", iotHubHostname, transportSettings);
+    }
+
+    /*
+    One device on a shared AMQP connection, see AmqpMultiplexedDevices.
+     */
+    AzureDeviceClient(DeviceClient deviceClient, AmqpMultiplexedDevices multiplexedDevices) {
+        this(deviceClient, new IotHubConnectionMonitor(), multiplexedDevices);
     }
 
     /*
@@ -67,7 +78,13 @@ public class AzureDeviceClient {
         Intended for testing — inject a connection monitor with a deterministic clock / short budget.
          */
     AzureDeviceClient(DeviceClient deviceClient, IotHubConnectionMonitor connectionMonitor) {
+        this(deviceClient, connectionMonitor, null);
+    }
+
+    private AzureDeviceClient(DeviceClient deviceClient, IotHubConnectionMonitor connectionMonitor,
+                              AmqpMultiplexedDevices multiplexedDevices) {
         this.deviceClient = deviceClient;
+        this.multiplexedDevices = multiplexedDevices;
         if (deviceClient != null && deviceClient.getConfig() != null) {
             iotHubHostname = deviceClient.getConfig().getIotHubHostname();
         }
@@ -211,6 +228,11 @@ public class AzureDeviceClient {
     }
 
     public void openConnection() {
+        if (multiplexedDevices != null) {
+            // Connection-status callbacks report CONNECTED for each device once the shared link is up.
+            multiplexedDevices.open();
+            return;
+        }
         try {
             deviceClient.open(retryConnection);
             connectionEstablished = true;
@@ -222,12 +244,24 @@ public class AzureDeviceClient {
     }
 
     public void closeConnection() {
+        if (multiplexedDevices != null) {
+            // Closes the shared connection, which marks every device on it as closed.
+            multiplexedDevices.close();
+            return;
+        }
         if (deviceClient != null) {
             deviceClient.close();
             connectionEstablished = false;
         }
     }
 
+    /*
+    Called by AmqpMultiplexedDevices when the shared connection closes, whichever device closed it.
+     */
+    void markConnectionClosed() {
+        connectionEstablished = false;
+    }
+
 
 
 
@@ -0,0 +1,201 @@
+package no.cantara.realestate.azure.iot;
+
+import java.time.Instant;
+import java.util.function.LongSupplier;
+
+/**
+ * Proactive pacing against the IoT Hub daily message quota.
+ *
+ * <p>{@link MqttSendThrottle} (#440) and {@link MqttSendCircuitBreaker} (#441) react after IoT Hub has
+ * answered {@code THROTTLED} or {@code QUOTA_EXCEEDED}; by then the quota may already be gone for the
+ * rest of the UTC day. This scheduler is configured with the hub tier's daily budget and per-second
+ * limit instead, and paces sending with a token bucket so the budget lasts the whole day:
+ * <ul>
+ *     <li>Usage is counted in IoT Hub billing units: every started {@value #BILLING_UNIT_BYTES} bytes of
+ *     a message counts as one message against the quota.</li>
+ *     <li>The bucket refills at the remaining daily budget spread evenly over the seconds left until
+ *     UTC midnight, never faster than {@code maxUnitsPerSecond}. It holds at most one second's worth
+ *     of units, so idle periods allow a short burst but never a run on the quota.</li>
+ *     <li>A send may overdraw the bucket (a large batch costs several units at once); the next send
+ *     waits until the debt is repaid.</li>
+ *     <li>The budget resets at UTC midnight, as IoT Hub's does.</li>
+ * </ul>
+ *
+ * <p>Callers ask {@link #millisUntilNextSend()} before sending and report each message with
+ * {@link #recordSent(int)}. Thread-safe.
+ */
+public class DailyQuotaScheduler {
+
+    /** IoT Hub meters device-to-cloud messages in blocks of 4 KB. */
+    public static final int BILLING_UNIT_BYTES = 4 * 1024;
+    /** Device-to-cloud send limit of one S1 unit. */
+    public static final int DEFAULT_MAX_UNITS_PER_SECOND = 100;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final long dailyBudgetUnits;
+    private final int maxUnitsPerSecond;
+    private final LongSupplier clockMillis;
+
+    private long currentDay;
+    private long unitsUsedToday = 0;
+    private double tokens;
+    private long lastRefillMillis;
+
+    /**
+     * @param dailyBudgetUnits  the hub's daily message quota, in 4 KB units
+     * @param maxUnitsPerSecond the hub's per-second send limit
+     */
+    public DailyQuotaScheduler(long dailyBudgetUnits, int maxUnitsPerSecond) {
+        this(dailyBudgetUnits, maxUnitsPerSecond, System::currentTimeMillis);
+    }
+
+    // Visible for testing — inject a deterministic clock.
+    DailyQuotaScheduler(long dailyBudgetUnits, int maxUnitsPerSecond, LongSupplier clockMillis) {
+        if (dailyBudgetUnits < 1) {
+            throw new IllegalArgumentException("dailyBudgetUnits must be at least 1, was " + dailyBudgetUnits);
+        }
+        if (maxUnitsPerSecond < 1) {
+            throw new IllegalArgumentException("maxUnitsPerSecond must be at least 1, was " + maxUnitsPerSecond);
+        }
+        this.dailyBudgetUnits = dailyBudgetUnits;
+        this.maxUnitsPerSecond = maxUnitsPerSecond;
+        this.clockMillis = clockMillis;
+        long now = clockMillis.getAsLong();
+        this.currentDay = Math.floorDiv(now, MILLIS_PER_DAY);
+        this.lastRefillMillis = now;
+        this.tokens = maxUnitsPerSecond;
+    }
+
+    /**
+     * @return the number of billing units a message of {@code payloadBytes} costs; at least one.
+     */
+    public static int billingUnits(int payloadBytes) {
+        return Math.max(1, (payloadBytes + BILLING_UNIT_BYTES - 1) / BILLING_UNIT_BYTES);
+    }
+
+    /**
+     * @return milliseconds to wait before the next send, {@code 0} when sending may proceed now. When
+     * the daily budget is spent this is the time until it resets at UTC midnight.
+     */
+    public synchronized long millisUntilNextSend() {
+        long now = clockMillis.getAsLong();
+        refill(now);
+        if (remainingUnits() <= 0) {
+            return millisUntilMidnight(now);
+        }
+        if (tokens > 0) {
+            return 0L;
+        }
+        double unitsPerMilli = refillUnitsPerSecond(now) / 1000.0;
+        if (unitsPerMilli <= 0) {
+            return millisUntilMidnight(now);
+        }
+        long waitMillis = (long) Math.ceil((-tokens + Math.ulp(1.0)) / unitsPerMilli);
+        return Math.max(1L, Math.min(waitMillis, millisUntilMidnight(now)));
+    }
+
+    /**
+     * Charge one sent message against the bucket and the daily budget.
+     *
+     * @param payloadBytes the size of the message body
+     */
+    public synchronized void recordSent(int payloadBytes) {
+        long now = clockMillis.getAsLong();
+        refill(now);
+        int units = billingUnits(payloadBytes);
+        tokens -= units;
+        unitsUsedToday += units;
+    }
+
+    /**
+     * @return {@code true} when today's budget is spent; sending resumes at UTC midnight.
+     */
+    public synchronized boolean isDailyBudgetExhausted() {
+        rollDay(clockMillis.getAsLong());
+        return remainingUnits() <= 0;
+    }
+
+    /**
+     * @return the billing units left of today's budget.
+     */
+    public synchronized long getRemainingDailyBudget() {
+        rollDay(clockMillis.getAsLong());
+        return Math.max(0L, remainingUnits());
+    }
+
+    public synchronized long getUnitsUsedToday() {
+        rollDay(clockMillis.getAsLong());
+        return unitsUsedToday;
+    }
+
+    public long getDailyBudget() {
+        return dailyBudgetUnits;
+    }
+
+    public int getMaxUnitsPerSecond() {
+        return maxUnitsPerSecond;
+    }
+
+    /**
+     * @return when today's budget runs out if usage continues at today's average rate, or
+     * {@code null} if it lasts until the UTC midnight reset.
+     */
+    public synchronized Instant getProjectedExhaustion() {
+        long now = clockMillis.getAsLong();
+        rollDay(now);
+        long remaining = remainingUnits();
+        if (remaining <= 0) {
+            return Instant.ofEpochMilli(now);
+        }
+        long elapsedTodayMillis = now - currentDay * MILLIS_PER_DAY;
+        if (unitsUsedToday == 0 || elapsedTodayMillis <= 0) {
+            return null;
+        }
+        double unitsPerMilli = (double) unitsUsedToday / elapsedTodayMillis;
+        long exhaustedAtMillis = now + (long) Math.ceil(remaining / unitsPerMilli);
+        if (exhaustedAtMillis >= (currentDay + 1) * MILLIS_PER_DAY) {
+            return null;
+        }
+        return Instant.ofEpochMilli(exhaustedAtMillis);
+    }
+
+    private void refill(long now) {
+        rollDay(now);
+        long elapsedMillis = now - lastRefillMillis;
+        if (elapsedMillis > 0) {
+            tokens = Math.min(maxUnitsPerSecond, tokens + refillUnitsPerSecond(now) * elapsedMillis / 1000.0);
+            lastRefillMillis = now;
+        }
+    }
+
+    /*
+    The remaining budget spread evenly over what is left of the UTC day, capped by the per-second limit.
+     */
+    private double refillUnitsPerSecond(long now) {
+        long remaining = remainingUnits();
+        if (remaining <= 0) {
+            return 0;
+        }
+        double secondsLeft = Math.max(1.0, millisUntilMidnight(now) / 1000.0);
+        return Math.min(maxUnitsPerSecond, remaining / secondsLeft);
+    }
+
+    private void rollDay(long now) {
+        long day = Math.floorDiv(now, MILLIS_PER_DAY);
+        if (day != currentDay) {
+            currentDay = day;
+            unitsUsedToday = 0;
+            tokens = Math.max(tokens, 0);
+            lastRefillMillis = Math.max(lastRefillMillis, day * MILLIS_PER_DAY);
+        }
+    }
+
+    private long remainingUnits() {
+        return dailyBudgetUnits - unitsUsedToday;
+    }
+
+    private long millisUntilMidnight(long now) {
+        return (Math.floorDiv(now, MILLIS_PER_DAY) + 1) * MILLIS_PER_DAY - now;
+    }
+}
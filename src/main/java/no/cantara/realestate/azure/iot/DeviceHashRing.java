@@ -0,0 +1,93 @@
+package no.cantara.realestate.azure.iot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Consistent-hash ring that maps a routing key (the sensorId) to one of N IoT Hub devices.
+ *
+ * <p>IoT Hub throttles per device identity, so large sites spread their observations over several
+ * devices. The same sensor must always go to the same device, otherwise two readings from one sensor
+ * can overtake each other on separate connections. Each device is placed on the ring at
+ * {@code virtualNodes} points so the load stays even, and adding or removing a device only moves
+ * the sensors that hashed next to it.
+ *
+ * <p>Immutable and thread-safe; {@link #deviceFor(String)} is a binary search over sorted arrays.
+ */
+public final class DeviceHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int numberOfDevices;
+    private final long[] points;
+    private final int[] devices;
+
+    public DeviceHashRing(int numberOfDevices) {
+        this(numberOfDevices, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public DeviceHashRing(int numberOfDevices, int virtualNodes) {
+        if (numberOfDevices < 1) {
+            throw new IllegalArgumentException("numberOfDevices must be at least 1, was " + numberOfDevices);
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1, was " + virtualNodes);
+        }
+        this.numberOfDevices = numberOfDevices;
+        int size = numberOfDevices * virtualNodes;
+        long[][] ring = new long[size][];
+        for (int device = 0; device < numberOfDevices; device++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring[device * virtualNodes + node] = new long[]{hash("device-" + device + "#" + node), device};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[size];
+        devices = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = ring[i][0];
+            devices[i] = (int) ring[i][1];
+        }
+    }
+
+    /**
+     * @param routingKey the sensorId; {@code null} is routed like the empty string
+     * @return the index of the device that owns {@code routingKey}, {@code 0 <= index < numberOfDevices}
+     */
+    public int deviceFor(String routingKey) {
+        if (numberOfDevices == 1) {
+            return 0;
+        }
+        long keyHash = hash(routingKey == null ? "" : routingKey);
+        int index = Arrays.binarySearch(points, keyHash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return devices[index == points.length ? 0 : index];
+    }
+
+    public int getNumberOfDevices() {
+        return numberOfDevices;
+    }
+
+    /*
+    64-bit FNV-1a over the UTF-8 bytes with a final avalanche, so short, similar sensorIds spread
+    over the whole ring — String.hashCode() keeps keys like "rec1", "rec2" next to each other.
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+}
@@ -0,0 +1,105 @@
+package no.cantara.realestate.azure.iot;
+
+import com.microsoft.azure.sdk.iot.device.ClientOptions;
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+import com.microsoft.azure.sdk.iot.device.MultiplexingClientOptions;
+
+/**
+ * How {@link AzureDeviceClient} talks to IoT Hub: the transport protocol, the keep-alive and the SDK's
+ * own send-queue pacing.
+ *
+ * <p>The defaults keep the historical behaviour — MQTT over WebSockets (port 443) with a 30 second
+ * keep-alive. Sites where port 8883 is open save the WebSocket framing with plain {@code MQTT}. With
+ * {@code AMQPS} or {@code AMQPS_WS} several device identities can share one TLS connection, see
+ * {@link AmqpMultiplexedDevices}.
+ *
+ * <p>{@code sendIntervalMillis} and {@code messagesSentPerSendInterval} set how often the SDK's worker
+ * thread drains its outgoing queue and how many messages it sends per turn; the defaults are the SDK's.
+ */
+public final class IotHubTransportSettings {
+
+    public static final IotHubClientProtocol DEFAULT_PROTOCOL = IotHubClientProtocol.MQTT_WS;
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 30;
+    public static final int DEFAULT_SEND_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_MESSAGES_SENT_PER_SEND_INTERVAL = 10;
+
+    private final IotHubClientProtocol protocol;
+    private final int keepAliveSeconds;
+    private final int sendIntervalMillis;
+    private final int messagesSentPerSendInterval;
+
+    public IotHubTransportSettings() {
+        this(DEFAULT_PROTOCOL, DEFAULT_KEEP_ALIVE_SECONDS, DEFAULT_SEND_INTERVAL_MILLIS, DEFAULT_MESSAGES_SENT_PER_SEND_INTERVAL);
+    }
+
+    public IotHubTransportSettings(IotHubClientProtocol protocol, int keepAliveSeconds, int sendIntervalMillis,
+                                   int messagesSentPerSendInterval) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("protocol is required");
+        }
+        if (protocol == IotHubClientProtocol.HTTPS) {
+            throw new IllegalArgumentException("HTTPS is not supported for telemetry, use MQTT, MQTT_WS, AMQPS or AMQPS_WS");
+        }
+        if (keepAliveSeconds < 1) {
+            throw new IllegalArgumentException("keepAliveSeconds must be at least 1, was " + keepAliveSeconds);
+        }
+        if (sendIntervalMillis < 1) {
+            throw new IllegalArgumentException("sendIntervalMillis must be at least 1, was " + sendIntervalMillis);
+        }
+        if (messagesSentPerSendInterval < 1) {
+            throw new IllegalArgumentException("messagesSentPerSendInterval must be at least 1, was " + messagesSentPerSendInterval);
+        }
+        this.protocol = protocol;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.sendIntervalMillis = sendIntervalMillis;
+        this.messagesSentPerSendInterval = messagesSentPerSendInterval;
+    }
+
+    public IotHubClientProtocol getProtocol() {
+        return protocol;
+    }
+
+    public int getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public int getSendIntervalMillis() {
+        return sendIntervalMillis;
+    }
+
+    public int getMessagesSentPerSendInterval() {
+        return messagesSentPerSendInterval;
+    }
+
+    /**
+     * @return {@code true} for the AMQP protocols, the only ones IoT Hub can multiplex devices over.
+     */
+    public boolean isAmqp() {
+        return protocol == IotHubClientProtocol.AMQPS || protocol == IotHubClientProtocol.AMQPS_WS;
+    }
+
+    ClientOptions toClientOptions() {
+        return ClientOptions.builder()
+                .keepAliveInterval(keepAliveSeconds)
+                .sendInterval(sendIntervalMillis)
+                .messagesSentPerSendInterval(messagesSentPerSendInterval)
+                .build();
+    }
+
+    MultiplexingClientOptions toMultiplexingClientOptions() {
+        return MultiplexingClientOptions.builder()
+                .keepAliveInterval(keepAliveSeconds)
+                .sendInterval(sendIntervalMillis)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "IotHubTransportSettings{" +
+                "protocol=" + protocol +
+                ", keepAliveSeconds=" + keepAliveSeconds +
+                ", sendIntervalMillis=" + sendIntervalMillis +
+                ", messagesSentPerSendInterval=" + messagesSentPerSendInterval +
+                '}';
+    }
+}
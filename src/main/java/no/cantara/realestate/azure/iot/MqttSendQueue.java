@@ -0,0 +1,132 @@
+package no.cantara.realestate.azure.iot;
+
+import no.cantara.realestate.ExceptionStatusType;
+import no.cantara.realestate.RealEstateException;
+import no.cantara.realestate.observations.ObservationMessage;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounded in-memory queue that parks observations published asynchronously until IoT Hub can take
+ * them.
+ *
+ * <p>This is the non-blocking alternative to braking the distributor thread with
+ * {@code Thread.sleep()} while {@link MqttSendThrottle} reports overload: the caller hands the message
+ * over and gets a {@link CompletableFuture} back immediately, and a single drain thread sends at the
+ * rate the throttle allows. The queue never grows beyond its capacity — when it is full the
+ * {@link OverflowPolicy} decides which message is dropped, and the dropped message's future completes
+ * exceptionally so the loss is visible to the caller and counted, never silent.
+ *
+ * <p>Thread-safe: observations are offered from any publisher thread while the drain thread polls.
+ * Futures are completed outside the lock so caller callbacks never run while it is held.
+ */
+public class MqttSendQueue {
+
+    public enum OverflowPolicy {
+        /** Keep what is queued and refuse the new message. */
+        REJECT_NEW,
+        /** Drop the oldest queued message to make room — favours fresh readings over stale ones. */
+        DROP_OLDEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ArrayDeque<PendingSend> queue = new ArrayDeque<>();
+    private long numberOfMessagesDropped = 0;
+
+    public MqttSendQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    public MqttSendQueue(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy == null ? DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+    }
+
+    /**
+     * Park an observation for sending.
+     *
+     * @return a future that completes when the observation has been handed to the IoT Hub client, or
+     * exceptionally when it is dropped or rejected
+     */
+    public CompletableFuture<Void> offer(ObservationMessage observationMessage) {
+        PendingSend pending = new PendingSend(observationMessage);
+        PendingSend dropped = null;
+        synchronized (this) {
+            if (queue.size() >= capacity) {
+                numberOfMessagesDropped++;
+                if (overflowPolicy == OverflowPolicy.REJECT_NEW) {
+                    dropped = pending;
+                } else {
+                    dropped = queue.pollFirst();
+                    queue.addLast(pending);
+                }
+            } else {
+                queue.addLast(pending);
+            }
+        }
+        if (dropped != null) {
+            dropped.getFuture().completeExceptionally(new RealEstateException(
+                    "Azure IoT Hub send queue is full (capacity=" + capacity + ", policy=" + overflowPolicy
+                            + "), observation dropped", ExceptionStatusType.RETRY_MAY_FIX_ISSUE));
+        }
+        return pending.getFuture();
+    }
+
+    /**
+     * @return the oldest parked observation, or {@code null} if the queue is empty.
+     */
+    public synchronized PendingSend poll() {
+        return queue.pollFirst();
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return how many observations were dropped because the queue was full.
+     */
+    public synchronized long getNumberOfMessagesDropped() {
+        return numberOfMessagesDropped;
+    }
+
+    /**
+     * An observation waiting in the queue together with the future handed back to the publisher.
+     */
+    public static class PendingSend {
+        private final ObservationMessage observationMessage;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingSend(ObservationMessage observationMessage) {
+            this.observationMessage = observationMessage;
+        }
+
+        public ObservationMessage getObservationMessage() {
+            return observationMessage;
+        }
+
+        public CompletableFuture<Void> getFuture() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package no.cantara.realestate.azure.iot;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Durable, bounded, append-only spool for observations that could not be sent to Azure IoT Hub.
+ *
+ * <p>While the send circuit is open (#441) or the link is unstable (#1805) observations used to be
+ * counted and dropped — during a quota-exhausted window that loses hours of data. Buffering them on
+ * the heap instead risks running out of memory. The spool is the bounded-disk alternative: each
+ * record (an observation in its serialized REC form) is appended to a memory-mapped segment file, and
+ * records are read back in order once sending has recovered.
+ *
+ * <p>Layout: the directory holds numbered segment files of {@code segmentBytes} each. A segment starts
+ * with an 8 byte header — the write position and the read position — followed by records of a 4 byte
+ * length and the payload. Both positions are updated in the mapped header, so a restarted process
+ * continues where the previous one stopped. Disk use is bounded by {@code maxSegments}: when a new
+ * segment is needed and the limit is reached, the oldest segment is discarded and its unread records
+ * are counted as dropped. On recovery a segment is truncated at its first torn or corrupt record.
+ *
+ * <p>Delivery from the spool is at-most-once per {@link #poll()}: a polled record is gone from the
+ * spool, and the caller appends it again if the resend is refused. A reader that must not lose a
+ * record it fails to resend uses {@link #peek()} and {@link #remove()} instead. Thread-safe, with a
+ * single reader.
+ */
+public class ObservationSpool implements AutoCloseable {
+    private static final Logger log = getLogger(ObservationSpool.class);
+
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    static final String SEGMENT_PREFIX = "observations-";
+    static final String SEGMENT_SUFFIX = ".spool";
+    private static final int WRITE_POSITION_OFFSET = 0;
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 4;
+
+    // sun.misc.Unsafe#invokeCleaner, to unmap a segment at once instead of when its buffer is garbage
+    // collected; until then the mapping holds the disk space of a deleted segment file. Null when the
+    // running JDK does not offer it.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Cannot unmap observation spool segments explicitly, leaving it to the garbage collector", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    private final Deque<Long> segmentIds = new ArrayDeque<>();
+    private MappedByteBuffer headSegment = null;
+    private long headSegmentId = -1;
+    private MappedByteBuffer tailSegment = null;
+    private long tailSegmentId = -1;
+
+    private long numberOfRecordsPending = 0;
+    private long numberOfRecordsDropped = 0;
+    private boolean closed = false;
+
+    public ObservationSpool(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Open the spool in {@code directory}, creating it if needed and recovering any records left by a
+     * previous run.
+     *
+     * @param directory    where the segment files live
+     * @param segmentBytes the size of each segment file
+     * @param maxSegments  the maximum number of segment files kept on disk
+     */
+    public ObservationSpool(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("segmentBytes is too small: " + segmentBytes);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be at least 1, was " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Append one record.
+     *
+     * @param record the serialized observation
+     * @return {@code false} if the record is larger than a segment and can never be spooled
+     */
+    public synchronized boolean append(byte[] record) {
+        ensureOpen();
+        if (record.length > segmentBytes - HEADER_BYTES - RECORD_HEADER_BYTES) {
+            log.warn("Observation of {} bytes does not fit in a spool segment of {} bytes, dropping it",
+                    record.length, segmentBytes);
+            numberOfRecordsDropped++;
+            return false;
+        }
+        try {
+            if (tailSegment == null
+                    || tailSegment.getInt(WRITE_POSITION_OFFSET) + RECORD_HEADER_BYTES + record.length > segmentBytes) {
+                rollSegment();
+            }
+            int writePosition = tailSegment.getInt(WRITE_POSITION_OFFSET);
+            tailSegment.putInt(writePosition, record.length);
+            tailSegment.put(writePosition + RECORD_HEADER_BYTES, record);
+            tailSegment.putInt(WRITE_POSITION_OFFSET, writePosition + RECORD_HEADER_BYTES + record.length);
+            numberOfRecordsPending++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to observation spool in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the oldest unread record, or {@code null} if the spool is empty.
+     */
+    public synchronized byte[] poll() {
+        byte[] record = peek();
+        if (record != null) {
+            remove();
+        }
+        return record;
+    }
+
+    /**
+     * @return the oldest unread record without removing it, or {@code null} if the spool is empty.
+     */
+    public synchronized byte[] peek() {
+        ensureOpen();
+        int readPosition = nextReadPosition();
+        if (readPosition < 0) {
+            return null;
+        }
+        byte[] record = new byte[headSegment.getInt(readPosition)];
+        headSegment.get(readPosition + RECORD_HEADER_BYTES, record);
+        return record;
+    }
+
+    /**
+     * Remove the oldest unread record, the one {@link #peek()} returns.
+     *
+     * @return {@code false} if the spool is empty
+     */
+    public synchronized boolean remove() {
+        ensureOpen();
+        int readPosition = nextReadPosition();
+        if (readPosition < 0) {
+            return false;
+        }
+        headSegment.putInt(READ_POSITION_OFFSET, readPosition + RECORD_HEADER_BYTES + headSegment.getInt(readPosition));
+        numberOfRecordsPending--;
+        return true;
+    }
+
+    /*
+    The read position of the oldest unread record, discarding fully read segments on the way, or -1 when
+    the spool is empty.
+     */
+    private int nextReadPosition() {
+        while (headSegment != null) {
+            int readPosition = headSegment.getInt(READ_POSITION_OFFSET);
+            if (readPosition < headSegment.getInt(WRITE_POSITION_OFFSET)) {
+                return readPosition;
+            }
+            if (headSegmentId == tailSegmentId) {
+                return -1;
+            }
+            discardHeadSegment();
+        }
+        return -1;
+    }
+
+    /** @return the number of records waiting to be read. */
+    public synchronized long getNumberOfRecordsPending() {
+        return numberOfRecordsPending;
+    }
+
+    /** @return how many records were lost because the disk bound was reached or they were too large. */
+    public synchronized long getNumberOfRecordsDropped() {
+        return numberOfRecordsDropped;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Flush the mapped segments to disk. The operating system writes them back on its own; calling
+     * this only narrows the window in which a machine crash can lose records.
+     */
+    public synchronized void force() {
+        if (headSegment != null) {
+            headSegment.force();
+        }
+        if (tailSegment != null && tailSegment != headSegment) {
+            tailSegment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        force();
+        if (tailSegment != headSegment) {
+            unmap(tailSegment);
+        }
+        unmap(headSegment);
+        headSegment = null;
+        tailSegment = null;
+        closed = true;
+    }
+
+    private void recover() throws IOException {
+        List<Long> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    existing.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in observation spool", file);
+                }
+            }
+        }
+        Collections.sort(existing);
+        for (Long segmentId : existing) {
+            MappedByteBuffer segment = map(segmentId);
+            if (!isValid(segment)) {
+                log.warn("Observation spool segment {} has a corrupt header, discarding it", segmentFile(segmentId));
+                unmap(segment);
+                Files.deleteIfExists(segmentFile(segmentId));
+                continue;
+            }
+            truncateAtFirstBadRecord(segment, segmentId);
+            numberOfRecordsPending += countUnread(segment);
+            segmentIds.addLast(segmentId);
+            // Keep the first and the last segment mapped; the ones in between are mapped again when read.
+            if (headSegment == null) {
+                headSegment = segment;
+                headSegmentId = segmentId;
+            } else if (tailSegment != headSegment) {
+                unmap(tailSegment);
+            }
+            tailSegment = segment;
+            tailSegmentId = segmentId;
+        }
+        if (!segmentIds.isEmpty()) {
+            log.info("Recovered observation spool in {}: {} segments, {} records pending",
+                    directory, segmentIds.size(), numberOfRecordsPending);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (tailSegment != null) {
+            tailSegment.force();
+        }
+        if (segmentIds.size() >= maxSegments) {
+            log.warn("Observation spool in {} reached {} segments, discarding the oldest", directory, maxSegments);
+            numberOfRecordsDropped += countUnread(headSegment);
+            discardHeadSegment();
+        }
+        if (tailSegment != null && tailSegment != headSegment) {
+            unmap(tailSegment);
+        }
+        long newSegmentId = tailSegmentId + 1;
+        MappedByteBuffer segment = map(newSegmentId);
+        segment.putInt(WRITE_POSITION_OFFSET, HEADER_BYTES);
+        segment.putInt(READ_POSITION_OFFSET, HEADER_BYTES);
+        segmentIds.addLast(newSegmentId);
+        tailSegment = segment;
+        tailSegmentId = newSegmentId;
+        if (headSegment == null) {
+            headSegment = segment;
+            headSegmentId = newSegmentId;
+        }
+    }
+
+    private void discardHeadSegment() {
+        Long discardedId = segmentIds.pollFirst();
+        numberOfRecordsPending -= countUnread(headSegment);
+        unmap(headSegment);
+        try {
+            Files.deleteIfExists(segmentFile(discardedId));
+        } catch (IOException e) {
+            log.warn("Failed to delete observation spool segment {}", segmentFile(discardedId), e);
+        }
+        if (segmentIds.isEmpty()) {
+            headSegment = null;
+            headSegmentId = -1;
+            tailSegment = null;
+        } else {
+            headSegmentId = segmentIds.peekFirst();
+            try {
+                headSegment = headSegmentId == tailSegmentId ? tailSegment : map(headSegmentId);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map observation spool segment " + segmentFile(headSegmentId), e);
+            }
+        }
+    }
+
+    private long countUnread(MappedByteBuffer segment) {
+        long count = 0;
+        int position = segment.getInt(READ_POSITION_OFFSET);
+        int writePosition = segment.getInt(WRITE_POSITION_OFFSET);
+        while (position < writePosition) {
+            position = nextRecordPosition(segment, position, writePosition);
+            if (position < 0) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /*
+    Cut a segment off at its first unread record that is torn or corrupt, as left by a crash mid-append.
+     */
+    private void truncateAtFirstBadRecord(MappedByteBuffer segment, long segmentId) {
+        int position = segment.getInt(READ_POSITION_OFFSET);
+        int writePosition = segment.getInt(WRITE_POSITION_OFFSET);
+        while (position < writePosition) {
+            int next = nextRecordPosition(segment, position, writePosition);
+            if (next < 0) {
+                log.warn("Truncating {} bytes after a corrupt record in observation spool segment {}",
+                        writePosition - position, segmentFile(segmentId));
+                segment.putInt(WRITE_POSITION_OFFSET, position);
+                return;
+            }
+            position = next;
+        }
+    }
+
+    /*
+    The position after the record at the given position, or -1 if its length is negative or runs past the
+    write position.
+     */
+    private static int nextRecordPosition(MappedByteBuffer segment, int position, int writePosition) {
+        if (writePosition - position < RECORD_HEADER_BYTES) {
+            return -1;
+        }
+        int length = segment.getInt(position);
+        if (length < 0 || length > writePosition - position - RECORD_HEADER_BYTES) {
+            return -1;
+        }
+        return position + RECORD_HEADER_BYTES + length;
+    }
+
+    private boolean isValid(MappedByteBuffer segment) {
+        int writePosition = segment.getInt(WRITE_POSITION_OFFSET);
+        int readPosition = segment.getInt(READ_POSITION_OFFSET);
+        return writePosition >= HEADER_BYTES && writePosition <= segmentBytes
+                && readPosition >= HEADER_BYTES && readPosition <= writePosition;
+    }
+
+    private MappedByteBuffer map(long segmentId) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /*
+    The buffer must not be touched afterwards; every caller drops its last reference to it.
+     */
+    private static void unmap(MappedByteBuffer segment) {
+        if (segment == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, segment);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Failed to unmap observation spool segment", e);
+        }
+    }
+
+    private Path segmentFile(long segmentId) {
+        return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Observation spool in " + directory + " is closed");
+        }
+    }
+}
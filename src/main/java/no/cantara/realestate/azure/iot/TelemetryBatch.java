@@ -0,0 +1,41 @@
+package no.cantara.realestate.azure.iot;
+
+import no.cantara.realestate.observations.ObservationMessage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of observations sent as one Azure IoT Hub message. The payload is a UTF-8 JSON array holding
+ * one REC observation object per entry, in the order the observations were published.
+ */
+public class TelemetryBatch {
+
+    private final List<ObservationMessage> observations;
+    private final byte[] payload;
+
+    TelemetryBatch(List<ObservationMessage> observations, byte[] payload) {
+        this.observations = Collections.unmodifiableList(observations);
+        this.payload = payload;
+    }
+
+    public List<ObservationMessage> getObservations() {
+        return observations;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int size() {
+        return observations.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TelemetryBatch{" +
+                "observations=" + observations.size() +
+                ", payloadBytes=" + payload.length +
+                '}';
+    }
+}
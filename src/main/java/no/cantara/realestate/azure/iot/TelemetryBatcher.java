@@ -0,0 +1,163 @@
+package no.cantara.realestate.azure.iot;
+
+import no.cantara.realestate.observations.ObservationMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces serialized observations into a single Azure IoT Hub message.
+ *
+ * <p>Without batching every sensor reading costs one IoT Hub message against the daily quota and one
+ * MQTT round-trip. The batcher collects the JSON of each observation and hands back a
+ * {@link TelemetryBatch} — one JSON array payload — as soon as one of three limits is reached:
+ * <ul>
+ *     <li>{@code maxCount} observations are pending;</li>
+ *     <li>adding the next observation would push the payload above {@code maxBytes} (never more than
+ *     {@link #DEFAULT_MAX_BATCH_BYTES}, which leaves headroom below the 256 KB IoT Hub limit for the
+ *     message properties); or</li>
+ *     <li>the oldest pending observation has waited {@code lingerMillis} — polled through
+ *     {@link #pollExpired()}, so a quiet sensor is never held back for long.</li>
+ * </ul>
+ *
+ * <p>The class only decides <em>when</em> a batch is complete; sending it is left to the caller. It is
+ * deliberately a small, clock-injectable unit (mirroring {@link MqttSendThrottle}) so the timing rules
+ * can be unit-tested. Thread-safe: observations are added from the distributor thread while the linger
+ * timer polls from a scheduler thread.
+ */
+public class TelemetryBatcher {
+
+    /** Maximum size of a device-to-cloud message accepted by Azure IoT Hub. */
+    public static final int IOT_HUB_MAX_MESSAGE_BYTES = 256 * 1024;
+    /** Room left for system and application properties, which count toward the IoT Hub size limit. */
+    public static final int MESSAGE_PROPERTIES_HEADROOM_BYTES = 4 * 1024;
+    /** Upper bound on the JSON array payload of one batch. */
+    public static final int DEFAULT_MAX_BATCH_BYTES = IOT_HUB_MAX_MESSAGE_BYTES - MESSAGE_PROPERTIES_HEADROOM_BYTES;
+    public static final int DEFAULT_MAX_BATCH_COUNT = 500;
+    public static final long DEFAULT_LINGER_MILLIS = 1_000L;
+
+    // Bytes added by the surrounding '[' and ']'.
+    private static final int ARRAY_OVERHEAD_BYTES = 2;
+
+    private final int maxCount;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final LongSupplier clockMillis;
+
+    private List<ObservationMessage> pendingObservations = new ArrayList<>();
+    private List<byte[]> pendingPayloads = new ArrayList<>();
+    private int pendingBytes = ARRAY_OVERHEAD_BYTES;
+    private long firstPendingAtMillis = 0L;
+
+    public TelemetryBatcher() {
+        this(DEFAULT_MAX_BATCH_COUNT, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MILLIS, System::currentTimeMillis);
+    }
+
+    public TelemetryBatcher(int maxCount, int maxBytes, long lingerMillis) {
+        this(maxCount, maxBytes, lingerMillis, System::currentTimeMillis);
+    }
+
+    // Visible for testing — inject a deterministic clock.
+    TelemetryBatcher(int maxCount, int maxBytes, long lingerMillis, LongSupplier clockMillis) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("maxCount must be at least 1, was " + maxCount);
+        }
+        if (maxBytes <= ARRAY_OVERHEAD_BYTES || maxBytes > DEFAULT_MAX_BATCH_BYTES) {
+            throw new IllegalArgumentException("maxBytes must be between " + (ARRAY_OVERHEAD_BYTES + 1) + " and "
+                    + DEFAULT_MAX_BATCH_BYTES + ", was " + maxBytes);
+        }
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis must not be negative, was " + lingerMillis);
+        }
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * Add one serialized observation.
+     *
+     * @param observationMessage the source observation, kept for ack tracking
+     * @param observationJson    the UTF-8 JSON object the observation is sent as
+     * @return the batches that are complete and must be sent now — usually empty, at most two (the
+     * pending batch the new observation did not fit into, and a batch holding only an oversized
+     * observation)
+     */
+    public synchronized List<TelemetryBatch> add(ObservationMessage observationMessage, byte[] observationJson) {
+        List<TelemetryBatch> ready = new ArrayList<>(1);
+        if (!pendingPayloads.isEmpty() && pendingBytes + 1 + observationJson.length > maxBytes) {
+            ready.add(takePending());
+        }
+        int separatorBytes = pendingPayloads.isEmpty() ? 0 : 1;
+        if (pendingPayloads.isEmpty()) {
+            firstPendingAtMillis = clockMillis.getAsLong();
+        }
+        pendingObservations.add(observationMessage);
+        pendingPayloads.add(observationJson);
+        pendingBytes += separatorBytes + observationJson.length;
+        // An observation that cannot fit on its own is still sent alone; IoT Hub will refuse it as
+        // REQUEST_ENTITY_TOO_LARGE, which is classified FATAL and accounted for like any other drop.
+        if (pendingPayloads.size() >= maxCount || pendingBytes >= maxBytes) {
+            ready.add(takePending());
+        }
+        return ready.isEmpty() ? Collections.emptyList() : ready;
+    }
+
+    /**
+     * @return the pending batch if its oldest observation has waited at least {@code lingerMillis},
+     * otherwise {@code null}.
+     */
+    public synchronized TelemetryBatch pollExpired() {
+        if (pendingPayloads.isEmpty()) {
+            return null;
+        }
+        if (clockMillis.getAsLong() - firstPendingAtMillis < lingerMillis) {
+            return null;
+        }
+        return takePending();
+    }
+
+    /**
+     * @return whatever is pending regardless of age, or {@code null} if nothing is. Used on flush and
+     * shutdown.
+     */
+    public synchronized TelemetryBatch drain() {
+        if (pendingPayloads.isEmpty()) {
+            return null;
+        }
+        return takePending();
+    }
+
+    /** @return the number of observations waiting to be batched. */
+    public synchronized int getPendingCount() {
+        return pendingPayloads.size();
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    private TelemetryBatch takePending() {
+        byte[] payload = new byte[pendingBytes];
+        int position = 0;
+        payload[position++] = '[';
+        for (int i = 0; i < pendingPayloads.size(); i++) {
+            if (i > 0) {
+                payload[position++] = ',';
+            }
+            byte[] observationJson = pendingPayloads.get(i);
+            System.arraycopy(observationJson, 0, payload, position, observationJson.length);
+            position += observationJson.length;
+        }
+        payload[position] = ']';
+        TelemetryBatch batch = new TelemetryBatch(pendingObservations, payload);
+        pendingObservations = new ArrayList<>();
+        pendingPayloads = new ArrayList<>();
+        pendingBytes = ARRAY_OVERHEAD_BYTES;
+        firstPendingAtMillis = 0L;
+        return batch;
+    }
+}
@@ -0,0 +1,61 @@
+package no.cantara.realestate.azure.metrics;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import no.cantara.realestate.azure.iot.DailyQuotaScheduler;
+
+import java.time.Instant;
+
+import static no.cantara.realestate.azure.metrics.MetricsConfig.INSTRUMENTATION_SCOPE_NAME;
+
+/**
+ * OpenTelemetry gauges for a {@link DailyQuotaScheduler}: how much of today's IoT Hub message budget
+ * is left, how much is used, and how long until it runs out at today's rate.
+ */
+public class DailyQuotaMetrics implements AutoCloseable {
+
+    public static final String REMAINING_GAUGE = "iothub.quota.remaining";
+    public static final String USED_GAUGE = "iothub.quota.used";
+    public static final String TIME_TO_EXHAUSTION_GAUGE = "iothub.quota.time_to_exhaustion";
+
+    private final ObservableLongGauge remaining;
+    private final ObservableLongGauge used;
+    private final ObservableLongGauge timeToExhaustion;
+
+    private DailyQuotaMetrics(Meter meter, DailyQuotaScheduler scheduler) {
+        remaining = meter.gaugeBuilder(REMAINING_GAUGE)
+                .setDescription("IoT Hub daily message budget left today, in 4 KB billing units")
+                .setUnit("{message}")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(scheduler.getRemainingDailyBudget()));
+        used = meter.gaugeBuilder(USED_GAUGE)
+                .setDescription("IoT Hub daily message budget used today, in 4 KB billing units")
+                .setUnit("{message}")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(scheduler.getUnitsUsedToday()));
+        // Only reported while the budget is projected to run out before the UTC midnight reset.
+        timeToExhaustion = meter.gaugeBuilder(TIME_TO_EXHAUSTION_GAUGE)
+                .setDescription("Seconds until the IoT Hub daily message budget runs out at today's rate")
+                .setUnit("s")
+                .ofLongs()
+                .buildWithCallback(measurement -> {
+                    Instant projectedExhaustion = scheduler.getProjectedExhaustion();
+                    if (projectedExhaustion != null) {
+                        measurement.record(Math.max(0L,
+                                projectedExhaustion.getEpochSecond() - Instant.now().getEpochSecond()));
+                    }
+                });
+    }
+
+    public static DailyQuotaMetrics register(DailyQuotaScheduler scheduler) {
+        return new DailyQuotaMetrics(GlobalOpenTelemetry.getMeter(INSTRUMENTATION_SCOPE_NAME), scheduler);
+    }
+
+    @Override
+    public void close() {
+        remaining.close();
+        used.close();
+        timeToExhaustion.close();
+    }
+}
@@ -0,0 +1,42 @@
+package no.cantara.realestate.azure.metrics;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import no.cantara.realestate.azure.dataexplorer.KustoRetryExecutor;
+
+import static no.cantara.realestate.azure.metrics.MetricsConfig.INSTRUMENTATION_SCOPE_NAME;
+
+/**
+ * OpenTelemetry counters for a {@link KustoRetryExecutor}: how often Azure Data Explorer throttled a call,
+ * and how often a call was given up after its last attempt.
+ */
+public class KustoRetryMetrics implements AutoCloseable {
+
+    public static final String THROTTLED_COUNTER = "adx.query.throttled";
+    public static final String RETRIES_EXHAUSTED_COUNTER = "adx.query.retries_exhausted";
+
+    private final ObservableLongCounter throttled;
+    private final ObservableLongCounter retriesExhausted;
+
+    private KustoRetryMetrics(Meter meter, KustoRetryExecutor retryExecutor) {
+        throttled = meter.counterBuilder(THROTTLED_COUNTER)
+                .setDescription("Azure Data Explorer calls that were throttled, counting every attempt")
+                .setUnit("{attempt}")
+                .buildWithCallback(measurement -> measurement.record(retryExecutor.getThrottledAttempts()));
+        retriesExhausted = meter.counterBuilder(RETRIES_EXHAUSTED_COUNTER)
+                .setDescription("Azure Data Explorer calls given up after being throttled on every attempt")
+                .setUnit("{call}")
+                .buildWithCallback(measurement -> measurement.record(retryExecutor.getRetriesExhausted()));
+    }
+
+    public static KustoRetryMetrics register(KustoRetryExecutor retryExecutor) {
+        return new KustoRetryMetrics(GlobalOpenTelemetry.getMeter(INSTRUMENTATION_SCOPE_NAME), retryExecutor);
+    }
+
+    @Override
+    public void close() {
+        throttled.close();
+        retriesExhausted.close();
+    }
+}
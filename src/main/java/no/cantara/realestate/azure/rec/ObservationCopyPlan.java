@@ -0,0 +1,99 @@
+package no.cantara.realestate.azure.rec;
+
+import org.slf4j.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Precomputed property copy from an {@code ObservationMessage} class into a
+ * {@link RecObservationMessage}.
+ *
+ * <p>Every public {@code getX()} on the source class that has a matching {@code setX(...)} with the same
+ * type on {@link RecObservationMessage} is paired once, and both ends are resolved to
+ * {@link MethodHandle}s. Copying a message is then a walk over the pairs — no reflective method
+ * lookups and no {@code NoSuchMethodException}s per publish. Plans are cached per source class by
+ * {@link RecObservationMessage}.
+ */
+final class ObservationCopyPlan {
+    private static final Logger log = getLogger(ObservationCopyPlan.class);
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final String[] propertyNames;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+
+    private ObservationCopyPlan(List<String> propertyNames, List<MethodHandle> getters, List<MethodHandle> setters) {
+        this.propertyNames = propertyNames.toArray(new String[0]);
+        this.getters = getters.toArray(new MethodHandle[0]);
+        this.setters = setters.toArray(new MethodHandle[0]);
+    }
+
+    static ObservationCopyPlan forSourceClass(Class<?> sourceClass) {
+        Map<String, Method> settersBySignature = new HashMap<>();
+        for (Method setMethod : RecObservationMessage.class.getMethods()) {
+            if (setMethod.getName().startsWith("set") && setMethod.getParameterCount() == 1
+                    && !Modifier.isStatic(setMethod.getModifiers())) {
+                settersBySignature.put(signature(setMethod.getName(), setMethod.getParameterTypes()[0]), setMethod);
+            }
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<String> propertyNames = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        List<MethodHandle> setters = new ArrayList<>();
+        for (Method getMethod : sourceClass.getMethods()) {
+            String getterName = getMethod.getName();
+            if (!getterName.startsWith("get") || getMethod.getParameterCount() != 0
+                    || Modifier.isStatic(getMethod.getModifiers())) {
+                continue;
+            }
+            String setterName = "set" + getterName.substring(3);
+            Method setMethod = settersBySignature.get(signature(setterName, getMethod.getReturnType()));
+            if (setMethod == null) {
+                continue;
+            }
+            try {
+                getters.add(lookup.unreflect(getMethod).asType(GETTER_TYPE));
+                setters.add(lookup.unreflect(setMethod).asType(SETTER_TYPE));
+                propertyNames.add(getterName.substring(3));
+            } catch (IllegalAccessException e) {
+                log.debug("Skipping inaccessible property {} on {}", getterName.substring(3), sourceClass.getName(), e);
+            }
+        }
+        return new ObservationCopyPlan(propertyNames, getters, setters);
+    }
+
+    private static String signature(String methodName, Class<?> type) {
+        return methodName + "(" + type.getName() + ")";
+    }
+
+    void copy(Object source, RecObservationMessage target) {
+        for (int i = 0; i < getters.length; i++) {
+            try {
+                Object value = (Object) getters[i].invokeExact(source);
+                setters[i].invokeExact((Object) target, value);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // Same leniency as a missing setter: a property that cannot be copied is left unset.
+                log.trace("Failed to copy property {} from {}", propertyNames[i], source.getClass().getName(), e);
+            }
+        }
+    }
+
+    int size() {
+        return getters.length;
+    }
+}
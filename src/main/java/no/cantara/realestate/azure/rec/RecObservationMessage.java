@@ -2,10 +2,15 @@ package no.cantara.realestate.azure.rec;
 
 import no.cantara.realestate.observations.ObservationMessage;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-
 public class RecObservationMessage extends ObservationMessage {
+    // One copy plan per source class, built on first use. See ObservationCopyPlan.
+    private static final ClassValue<ObservationCopyPlan> COPY_PLANS = new ClassValue<>() {
+        @Override
+        protected ObservationCopyPlan computeValue(Class<?> sourceClass) {
+            return ObservationCopyPlan.forSourceClass(sourceClass);
+        }
+    };
+
     private final String TEMPERATURE = "temperatur";
     private final String CO2 = "co2";
     private final String PRESCENCE = "tilstedevarelse";
@@ -14,19 +19,11 @@ public class RecObservationMessage extends ObservationMessage {
     public RecObservationMessage() {
     }
 
+    /**
+     * Copy every property of {@code observationMessage} that has a matching setter here.
+     */
     public RecObservationMessage(ObservationMessage observationMessage) {
-        for (Method getMethod : observationMessage.getClass().getMethods()) {
-            if (getMethod.getName().startsWith("get")) {
-                try {
-                    Method setMethod = this.getClass().getMethod(getMethod.getName().replace("get", "set"), getMethod.getReturnType());
-                    setMethod.invoke(this, getMethod.invoke(observationMessage, (Object[]) null));
-
-                } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException |
-                         InvocationTargetException ex) {
-                    //not found set
-                }
-            }
-        }
+        COPY_PLANS.get(observationMessage.getClass()).copy(observationMessage, this);
         addQuantityKind(observationMessage.getSensorType());
     }
 
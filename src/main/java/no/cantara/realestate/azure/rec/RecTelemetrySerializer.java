@@ -0,0 +1,72 @@
+package no.cantara.realestate.azure.rec;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import no.cantara.realestate.observations.ObservationMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Serializes observations to the UTF-8 REC JSON sent as Azure IoT Hub telemetry.
+ *
+ * <p>Jackson writes straight into a per-thread, reused byte buffer through a {@link JsonGenerator}, so
+ * there is no intermediate {@code String} to build and encode again. The only copy is the returned
+ * array, which the IoT Hub {@code Message} keeps as its body. Buffers that grew past
+ * {@link #MAX_RETAINED_BUFFER_BYTES} for an unusually large observation are not kept for reuse.
+ *
+ * <p>Thread-safe.
+ */
+public class RecTelemetrySerializer {
+
+    static final int INITIAL_BUFFER_BYTES = 1024;
+    static final int MAX_RETAINED_BUFFER_BYTES = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter recWriter;
+    private final ThreadLocal<ReusableByteArrayOutputStream> buffers =
+            ThreadLocal.withInitial(() -> new ReusableByteArrayOutputStream(INITIAL_BUFFER_BYTES));
+
+    public RecTelemetrySerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.recWriter = objectMapper.writerFor(RecObservationMessage.class);
+    }
+
+    /**
+     * @return the observation, converted to {@link RecObservationMessage}, as UTF-8 JSON
+     */
+    public byte[] serialize(ObservationMessage observationMessage) throws JsonProcessingException {
+        RecObservationMessage recObservationMessage = new RecObservationMessage(observationMessage);
+        ReusableByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+        try {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8)) {
+                recWriter.writeValue(generator, recObservationMessage);
+            }
+            return buffer.toByteArray();
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Writing to a byte array never does I/O; anything else Jackson reports is a mapping problem.
+            throw JsonMappingException.fromUnexpectedIOE(e);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_BYTES) {
+                buffers.remove();
+            }
+        }
+    }
+
+    static final class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+        ReusableByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
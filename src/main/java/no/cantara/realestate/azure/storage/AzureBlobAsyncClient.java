@@ -0,0 +1,119 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.core.util.BinaryData;
+import com.azure.storage.blob.BlobContainerAsyncClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
+import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import org.slf4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Non-blocking companion to {@link AzureBlobClient} for archiving many small blobs.
+ *
+ * <p>The synchronous client waits for each upload before starting the next, so throughput is one blob per
+ * round-trip. This client keeps up to {@code maxInFlight} uploads outstanding on the shared HTTP connection
+ * pool of one {@link BlobContainerAsyncClient}:
+ * <ul>
+ *     <li>{@link #writeBlob(String, byte[], String)} returns at once with a {@link CompletableFuture}; while
+ *     {@code maxInFlight} uploads are already outstanding, the upload waits in a queue instead of blocking a
+ *     thread.</li>
+ *     <li>{@link #writeBlobs(Map)} pipelines a whole map of blobs. Its uploads count against the same
+ *     {@code maxInFlight}.</li>
+ * </ul>
+ */
+public class AzureBlobAsyncClient {
+    private static final Logger log = getLogger(AzureBlobAsyncClient.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    private final BlobContainerAsyncClient blobContainerAsyncClient;
+    private final String containerName;
+    private final int maxInFlight;
+    private final InFlightPermits inFlight;
+
+    public AzureBlobAsyncClient(String connectionString, String containerName) {
+        this(new BlobContainerClientBuilder()
+                .connectionString(connectionString)
+                .containerName(containerName)
+                .buildAsyncClient(), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AzureBlobAsyncClient(BlobContainerAsyncClient blobContainerAsyncClient, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, was " + maxInFlight);
+        }
+        this.blobContainerAsyncClient = blobContainerAsyncClient;
+        this.containerName = blobContainerAsyncClient.getBlobContainerName();
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new InFlightPermits(maxInFlight);
+    }
+
+    /**
+     * Upload one blob, overwriting any existing blob of the same name.
+     *
+     * @return completes when the blob is committed, or exceptionally with the storage error
+     */
+    public CompletableFuture<Void> writeBlob(String blobName, byte[] content, String contentType) {
+        return writeBlobWithTags(blobName, content, contentType, null);
+    }
+
+    /**
+     * Upload one blob with index tags in a single request.
+     *
+     * @see #writeBlob(String, byte[], String)
+     */
+    public CompletableFuture<Void> writeBlobWithTags(String blobName, byte[] content, String contentType, Map<String, String> tags) {
+        return inFlight.withPermit(() -> upload(blobName, content, contentType, tags)).toFuture();
+    }
+
+    /**
+     * Upload JSON blobs, sharing the {@code maxInFlight} uploads with {@link #writeBlob(String, byte[], String)}.
+     * A failed upload does not stop the others.
+     *
+     * @param blobs blob name to content
+     * @return completes when every upload has finished, with {@code true} per blob name that was committed
+     */
+    public CompletableFuture<Map<String, Boolean>> writeBlobs(Map<String, byte[]> blobs) {
+        return Flux.fromIterable(blobs.entrySet())
+                .flatMap(blob -> inFlight.withPermit(() -> upload(blob.getKey(), blob.getValue(), "application/json", null))
+                                .thenReturn(Boolean.TRUE)
+                                .onErrorResume(e -> {
+                                    log.info("Failed to write blob: {} to containerName {}", blob.getKey(), containerName, e);
+                                    return Mono.just(Boolean.FALSE);
+                                })
+                                .map(written -> Map.entry(blob.getKey(), written)),
+                        maxInFlight)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, LinkedHashMap::new)
+                .toFuture();
+    }
+
+    /**
+     * @return the blob content, or completes exceptionally if the blob cannot be read
+     */
+    public CompletableFuture<byte[]> readBlobBytes(String blobName) {
+        return blobContainerAsyncClient.getBlobAsyncClient(blobName)
+                .downloadContent()
+                .map(BinaryData::toBytes)
+                .toFuture();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private Mono<Void> upload(String blobName, byte[] content, String contentType, Map<String, String> tags) {
+        BlobParallelUploadOptions options = new BlobParallelUploadOptions(BinaryData.fromBytes(content))
+                .setHeaders(new BlobHttpHeaders().setContentType(contentType))
+                .setTags(tags);
+        return Mono.defer(() -> blobContainerAsyncClient.getBlobAsyncClient(blobName).uploadWithResponse(options))
+                .then();
+    }
+}
@@ -1,33 +1,91 @@
 package no.cantara.realestate.azure.storage;
 
+import com.azure.core.http.rest.Response;
 import com.azure.core.util.BinaryData;
 import com.azure.core.util.Context;
-import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobContainerClientBuilder;
 import com.azure.storage.blob.models.AccessTier;
 import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobItemProperties;
+import com.azure.storage.blob.models.BlobListDetails;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobDownloadContentResponse;
+import com.azure.storage.blob.models.BlobProperties;
 import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.BlockBlobItem;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import com.azure.storage.blob.models.ParallelTransferOptions;
 import com.azure.storage.blob.models.TaggedBlobItem;
+import com.azure.storage.blob.options.BlobDownloadToFileOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.options.BlobUploadFromFileOptions;
+import com.azure.storage.blob.options.BlockBlobOutputStreamOptions;
 import com.azure.storage.blob.options.BlockBlobSimpleUploadOptions;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import com.azure.storage.blob.specialized.BlobOutputStream;
 import com.azure.storage.blob.specialized.BlockBlobClient;
 import no.cantara.realestate.azure.CantaraRealestateAzureException;
+import no.cantara.realestate.azure.storage.BlobMetadataIndex.BlobMetadata;
 import org.slf4j.Logger;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class AzureBlobClient {
     private static final Logger log = getLogger(AzureBlobClient.class);
 
+    /** Size of each staged block in streaming uploads. */
+    public static final long DEFAULT_BLOCK_SIZE_BYTES = 8L * 1024 * 1024;
+    /** Blocks staged in parallel per streaming upload. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    /** How long a successful container existence check is trusted before writeBlob checks again. */
+    public static final Duration DEFAULT_CONTAINER_CHECK_TTL = Duration.ofMinutes(5);
+    /** Blobs per listing request; 5000 is the Blob Storage maximum. */
+    public static final int LIST_PAGE_SIZE = 5000;
+
     private final BlobContainerClient blobContainerClient;
     private final String containerName;
+    private volatile ParallelTransferOptions parallelTransferOptions =
+            parallelTransferOptions(DEFAULT_BLOCK_SIZE_BYTES, DEFAULT_MAX_CONCURRENCY);
+    private final LongSupplier clockMillis;
+    private final long containerCheckTtlMillis = DEFAULT_CONTAINER_CHECK_TTL.toMillis();
+    // Millis of the last successful exists() check, or Long.MIN_VALUE when unknown.
+    private volatile long containerVerifiedAtMillis = Long.MIN_VALUE;
+    private volatile BlobMetadataIndex metadataIndex = null;
+    private ScheduledExecutorService reconcileScheduler = null;
+
+    /**
+     * Produces blob content by writing it to a channel, see
+     * {@link AzureBlobClient#writeBlob(String, BlobContentWriter, String, Map, boolean)}.
+     */
+    @FunctionalInterface
+    public interface BlobContentWriter {
+        void writeTo(WritableByteChannel channel) throws IOException;
+    }
 
     public AzureBlobClient(String connectionString, String containerName) throws CantaraRealestateAzureException {
         blobContainerClient = new BlobContainerClientBuilder()
@@ -35,8 +93,11 @@ public class AzureBlobClient {
                 .containerName(containerName)
                 .buildClient();
         this.containerName = containerName;
+        this.clockMillis = System::currentTimeMillis;
         try {
-            blobContainerClient.exists();
+            if (blobContainerClient.exists()) {
+                containerVerifiedAtMillis = clockMillis.getAsLong();
+            }
             log.debug("Blob container {} exists", containerName);
         } catch (BlobStorageException e) {
             log.error("Blob container {} does not exist", containerName, e);
@@ -45,11 +106,163 @@ public class AzureBlobClient {
 
     }
 
+    public AzureBlobClient(BlobContainerClient blobContainerClient) {
+        this(blobContainerClient, System::currentTimeMillis);
+    }
+
+    // Visible for testing — inject a deterministic clock.
+    AzureBlobClient(BlobContainerClient blobContainerClient, LongSupplier clockMillis) {
+        this.blobContainerClient = blobContainerClient;
+        this.containerName = blobContainerClient.getBlobContainerName();
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * Tune the streaming uploads. At most about {@code blockSizeBytes * maxConcurrency} bytes of a blob are
+     * buffered in memory at any time, whatever the size of the blob.
+     *
+     * @param blockSizeBytes size of each staged block, up to 4000 MiB
+     * @param maxConcurrency number of blocks staged in parallel
+     */
+    public void setParallelTransfer(long blockSizeBytes, int maxConcurrency) {
+        if (blockSizeBytes < 1) {
+            throw new IllegalArgumentException("blockSizeBytes must be at least 1, was " + blockSizeBytes);
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1, was " + maxConcurrency);
+        }
+        parallelTransferOptions = parallelTransferOptions(blockSizeBytes, maxConcurrency);
+    }
+
+    public ParallelTransferOptions getParallelTransferOptions() {
+        return parallelTransferOptions;
+    }
+
+    /**
+     * Stream a blob of any size from {@code content}. Content up to one block is uploaded in a single request;
+     * larger content is staged as blocks in parallel and committed at the end.
+     *
+     * @param tags      blob index tags, or {@code null} for none
+     * @param overwrite if {@code false}, fail when the blob already exists
+     * @return {@code true} when the blob was committed
+     */
+    public boolean writeBlob(String blobName, InputStream content, String contentType, Map<String, String> tags, boolean overwrite) {
+        try {
+            BlobParallelUploadOptions options = new BlobParallelUploadOptions(content)
+                    .setParallelTransferOptions(parallelTransferOptions)
+                    .setHeaders(new BlobHttpHeaders().setContentType(contentType))
+                    .setTags(tags)
+                    .setRequestConditions(requestConditions(overwrite));
+            Response<BlockBlobItem> response = blobContainerClient.getBlobClient(blobName).uploadWithResponse(options, null, Context.NONE);
+            recordWrite(blobName, tags, -1, response);
+            return true;
+        } catch (Exception e) {
+            log.info("Failed to stream blob: {} to containerName {}", blobName, containerName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Upload a file as a blob. The file is read in blocks, staged in parallel, never loaded in full.
+     *
+     * @see #writeBlob(String, InputStream, String, Map, boolean)
+     */
+    public boolean writeBlob(String blobName, Path file, String contentType, Map<String, String> tags, boolean overwrite) {
+        try {
+            BlobUploadFromFileOptions options = new BlobUploadFromFileOptions(file.toString())
+                    .setParallelTransferOptions(parallelTransferOptions)
+                    .setHeaders(new BlobHttpHeaders().setContentType(contentType))
+                    .setTags(tags)
+                    .setRequestConditions(requestConditions(overwrite));
+            Response<BlockBlobItem> response = blobContainerClient.getBlobClient(blobName).uploadFromFileWithResponse(options, null, Context.NONE);
+            recordWrite(blobName, tags, Files.size(file), response);
+            return true;
+        } catch (Exception e) {
+            log.info("Failed to upload file: {} as blob: {} to containerName {}", file, blobName, containerName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Let {@code writer} produce the blob content, e.g. a trend export serialized as it is read. Full blocks are
+     * staged in parallel while the writer continues. The blob is committed only when the writer returns
+     * normally; if it throws, the staged blocks are left uncommitted and expire in Azure Storage.
+     *
+     * @see #writeBlob(String, InputStream, String, Map, boolean)
+     */
+    public boolean writeBlob(String blobName, BlobContentWriter writer, String contentType, Map<String, String> tags, boolean overwrite) {
+        return writeBlob(blobName, writer, new BlobHttpHeaders().setContentType(contentType), tags, overwrite);
+    }
+
+    /**
+     * Compress {@code content} while streaming it to a blob, and record the encoding in its {@code Content-Encoding}
+     * header. {@link #readBlob(String)}, {@link #readBlobBytes(String)} and {@link #getBlobContentAsString(String)}
+     * decompress it again. Observation JSON typically shrinks 10-20 times.
+     *
+     * @param encoding {@link BlobContentEncoding#GZIP}, or {@link BlobContentEncoding#ZSTD} when zstd-jni is present
+     * @see #writeBlob(String, InputStream, String, Map, boolean)
+     */
+    public boolean writeCompressedBlob(String blobName, InputStream content, String contentType, BlobContentEncoding encoding,
+                                       Map<String, String> tags, boolean overwrite) {
+        BlobHttpHeaders headers = new BlobHttpHeaders()
+                .setContentType(contentType)
+                .setContentEncoding(encoding.getHeaderValue());
+        return writeBlob(blobName, channel -> {
+            // Closing the compressor finishes the compressed stream; the blob is committed by writeBlob.
+            try (OutputStream compressed = encoding.compress(new NonClosingOutputStream(Channels.newOutputStream(channel)))) {
+                content.transferTo(compressed);
+            }
+        }, headers, tags, overwrite);
+    }
+
+    /**
+     * @see #writeCompressedBlob(String, InputStream, String, BlobContentEncoding, Map, boolean)
+     */
+    public boolean writeCompressedJsonBlob(String blobName, String jsonContent, BlobContentEncoding encoding,
+                                           Map<String, String> tags, boolean overwrite) {
+        return writeCompressedBlob(blobName, new ByteArrayInputStream(jsonContent.getBytes(StandardCharsets.UTF_8)),
+                "application/json", encoding, tags, overwrite);
+    }
+
+    private boolean writeBlob(String blobName, BlobContentWriter writer, BlobHttpHeaders headers, Map<String, String> tags, boolean overwrite) {
+        try {
+            BlockBlobOutputStreamOptions options = new BlockBlobOutputStreamOptions()
+                    .setParallelTransferOptions(parallelTransferOptions)
+                    .setHeaders(headers)
+                    .setTags(tags)
+                    .setRequestConditions(requestConditions(overwrite));
+            BlobOutputStream blobOutputStream = blobContainerClient.getBlobClient(blobName).getBlockBlobClient()
+                    .getBlobOutputStream(options);
+            writer.writeTo(Channels.newChannel(blobOutputStream));
+            // Closing commits the block list.
+            blobOutputStream.close();
+            recordWrite(blobName, tags, -1, null);
+            return true;
+        } catch (Exception e) {
+            log.info("Failed to write blob: {} to containerName {}", blobName, containerName, e);
+            return false;
+        }
+    }
+
+    static ParallelTransferOptions parallelTransferOptions(long blockSizeBytes, int maxConcurrency) {
+        return new ParallelTransferOptions()
+                .setBlockSizeLong(blockSizeBytes)
+                .setMaxSingleUploadSizeLong(blockSizeBytes)
+                .setMaxConcurrency(maxConcurrency);
+    }
+
+    /*
+    Without overwrite the upload must fail if any version of the blob exists.
+     */
+    private static BlobRequestConditions requestConditions(boolean overwrite) {
+        return overwrite ? null : new BlobRequestConditions().setIfNoneMatch("*");
+    }
+
     public boolean writeBlob(String blobName, String jsonContent) throws CantaraRealestateAzureException {
         try {
             byte[] contentBytes = jsonContent.getBytes(StandardCharsets.UTF_8);
             InputStream dataStream = new ByteArrayInputStream(contentBytes);
-            if (blobContainerClient.exists()) {
+            if (containerExists()) {
 
                 BlockBlobClient blobClient = blobContainerClient.getBlobClient(blobName).getBlockBlobClient();
 
@@ -62,7 +275,8 @@ public class AzureBlobClient {
                         .setHeaders(headers)
                         .setTier(AccessTier.HOT);
 
-                blobClient.uploadWithResponse(options, Duration.ofSeconds(10), Context.NONE);
+                Response<BlockBlobItem> response = blobClient.uploadWithResponse(options, Duration.ofSeconds(10), Context.NONE);
+                recordWrite(blobName, null, contentBytes.length, response);
 
                 dataStream.close();
                 return true;
@@ -71,6 +285,7 @@ public class AzureBlobClient {
                 throw new CantaraRealestateAzureException("Blob container" + containerName + " does not exist");
             }
         } catch (BlobStorageException e) {
+            invalidateContainerCheckIfNotFound(e);
             log.info("Blob container {} does not exist", containerName, e);
             throw new CantaraRealestateAzureException("Blob container does not exist", e);
         } catch (Exception e) {
@@ -79,20 +294,34 @@ public class AzureBlobClient {
         }
     }
 
-    public boolean writeBlobWithTags(String blobName, String jsonContent, Map<String, String> tags, Boolean overwrite) {
-        try {
-            byte[] contentBytes = jsonContent.getBytes(StandardCharsets.UTF_8);
-            InputStream dataStream = new ByteArrayInputStream(contentBytes);
-
-            BlobClient blobClient = blobContainerClient.getBlobClient(blobName);
-            blobClient.upload(dataStream, contentBytes.length, overwrite);
+    /*
+    The container is verified in the constructor; re-check only when the last check is older than the TTL,
+    or after a write has failed with 404.
+     */
+    boolean containerExists() {
+        long now = clockMillis.getAsLong();
+        long verifiedAt = containerVerifiedAtMillis;
+        if (verifiedAt != Long.MIN_VALUE && now - verifiedAt < containerCheckTtlMillis) {
+            return true;
+        }
+        boolean exists = blobContainerClient.exists();
+        containerVerifiedAtMillis = exists ? now : Long.MIN_VALUE;
+        return exists;
+    }
 
-            BlobHttpHeaders headers = new BlobHttpHeaders();
-            headers.setContentType("application/json");
-            blobClient.setHttpHeaders(headers);
-            blobClient.setTags(tags);
+    private void invalidateContainerCheckIfNotFound(BlobStorageException e) {
+        if (e.getStatusCode() == 404) {
+            containerVerifiedAtMillis = Long.MIN_VALUE;
+        }
+    }
 
-            dataStream.close();
+    /**
+     * Write a JSON blob with its content type and index tags in one Put Blob request.
+     */
+    public boolean writeBlobWithTags(String blobName, String jsonContent, Map<String, String> tags, Boolean overwrite) {
+        try {
+            uploadInOneRequest(blobName, BinaryData.fromString(jsonContent),
+                    new BlobHttpHeaders().setContentType("application/json"), tags, overwrite);
             return true;
         } catch (Exception e) {
             String logContent = jsonContent;
@@ -104,29 +333,126 @@ public class AzureBlobClient {
     }
     public boolean writeZipBlobWithTags(String blobName, byte[] zipContent, Map<String, String> tags, Boolean overwrite) {
         try {
-            InputStream dataStream = new ByteArrayInputStream(zipContent);
-
-            BlobClient blobClient = blobContainerClient.getBlobClient(blobName);
-            blobClient.upload(dataStream, zipContent.length, overwrite);
-
-            BlobHttpHeaders headers = new BlobHttpHeaders();
-            headers.setContentType("application/zip");
-            headers.setContentEncoding("base64");
-            blobClient.setHttpHeaders(headers);
-            blobClient.setTags(tags);
-
-            dataStream.close();
+            uploadInOneRequest(blobName, BinaryData.fromBytes(zipContent),
+                    new BlobHttpHeaders().setContentType("application/zip").setContentEncoding("base64"), tags, overwrite);
             return true;
         } catch (Exception e) {
             log.info("Failed to write zip blob: {} to containerName {}", blobName, containerName, e);
             return false;
         }
     }
+
+    /*
+    Headers and tags travel with the upload, instead of separate Set Blob Properties and Set Blob Tags calls.
+    Payloads up to the single-upload limit (256 MiB by default) go as one Put Blob request.
+     */
+    private void uploadInOneRequest(String blobName, BinaryData content, BlobHttpHeaders headers,
+                                    Map<String, String> tags, Boolean overwrite) {
+        BlobParallelUploadOptions options = new BlobParallelUploadOptions(content)
+                .setHeaders(headers)
+                .setTags(tags)
+                .setRequestConditions(requestConditions(Boolean.TRUE.equals(overwrite)));
+        Response<BlockBlobItem> response;
+        try {
+            response = blobContainerClient.getBlobClient(blobName).uploadWithResponse(options, null, Context.NONE);
+        } catch (BlobStorageException e) {
+            invalidateContainerCheckIfNotFound(e);
+            throw e;
+        }
+        Long length = content.getLength();
+        recordWrite(blobName, tags, length == null ? -1 : length, response);
+    }
+
+    /**
+     * Answer tag and date lookups from a local index instead of scanning the container. Writes made through this
+     * client are added to the index as they happen; run {@link #reconcileMetadataIndex()} (or
+     * {@link #startMetadataIndexReconciliation(Duration)}) to pick up writes and deletes made elsewhere.
+     */
+    public void useMetadataIndex(BlobMetadataIndex index) {
+        metadataIndex = index;
+    }
+
+    public BlobMetadataIndex getMetadataIndex() {
+        return metadataIndex;
+    }
+
+    /**
+     * Bring the metadata index in line with the container, from a paged listing that includes the blob tags.
+     *
+     * @return the number of blobs added, changed or removed in the index
+     */
+    public int reconcileMetadataIndex() {
+        BlobMetadataIndex index = metadataIndex;
+        if (index == null) {
+            throw new IllegalStateException("No metadata index in use for container " + containerName);
+        }
+        ListBlobsOptions options = new ListBlobsOptions()
+                .setDetails(new BlobListDetails().setRetrieveTags(true))
+                .setMaxResultsPerPage(LIST_PAGE_SIZE);
+        try (Stream<BlobItem> listing = blobContainerClient.listBlobs(options, null).stream()) {
+            int changes = index.reconcile(listing.map(AzureBlobClient::toMetadata));
+            log.debug("Reconciled blob metadata index for container {}: {} changes, {} blobs", containerName, changes, index.size());
+            return changes;
+        }
+    }
+
+    /**
+     * Run {@link #reconcileMetadataIndex()} every {@code interval} on a background thread, starting now.
+     */
+    public synchronized void startMetadataIndexReconciliation(Duration interval) {
+        if (reconcileScheduler != null) {
+            throw new IllegalStateException("Metadata index reconciliation is already running");
+        }
+        reconcileScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blob-index-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconcileScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcileMetadataIndex();
+            } catch (Exception e) {
+                log.info("Failed to reconcile blob metadata index for container {}", containerName, e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopMetadataIndexReconciliation() {
+        if (reconcileScheduler != null) {
+            reconcileScheduler.shutdownNow();
+            reconcileScheduler = null;
+        }
+    }
+
+    static BlobMetadata toMetadata(BlobItem blobItem) {
+        BlobItemProperties properties = blobItem.getProperties();
+        Long contentLength = properties.getContentLength();
+        return new BlobMetadata(blobItem.getName(), blobItem.getTags(), contentLength == null ? -1 : contentLength,
+                properties.getLastModified().toInstant());
+    }
+
+    /*
+    The blob is written whatever happens here; a failing index is caught up by the next reconcile.
+     */
+    private void recordWrite(String blobName, Map<String, String> tags, long sizeBytes, Response<BlockBlobItem> response) {
+        BlobMetadataIndex index = metadataIndex;
+        if (index == null) {
+            return;
+        }
+        Instant lastModified = Instant.ofEpochMilli(clockMillis.getAsLong());
+        if (response != null && response.getValue() != null && response.getValue().getLastModified() != null) {
+            lastModified = response.getValue().getLastModified().toInstant();
+        }
+        try {
+            index.put(new BlobMetadata(blobName, tags, sizeBytes, lastModified));
+        } catch (RuntimeException e) {
+            log.warn("Failed to record blob {} in the metadata index", blobName, e);
+        }
+    }
     //Read blob from container
     public String readBlob(String blobName) {
         try {
-            BlobClient blobClient = blobContainerClient.getBlobClient(blobName);
-            return blobClient.downloadContent().toString();
+            return new String(downloadDecoded(blobName), StandardCharsets.UTF_8);
         } catch (Exception e) {
             log.info("Failed to read blob: {} from containerName {}", blobName, containerName, e);
             return null;
@@ -135,15 +461,116 @@ public class AzureBlobClient {
 
     public byte[] readBlobBytes(String blobName) {
         try {
-            BlobClient blobClient = blobContainerClient.getBlobClient(blobName);
-            return blobClient.downloadContent().toBytes();
+            return downloadDecoded(blobName);
         } catch (Exception e) {
             log.info("Failed to read blob: {} from containerName {}", blobName, containerName, e);
             return null;
         }
     }
 
+    /**
+     * Open the blob for reading. Content is fetched lazily, one block ({@link #getParallelTransferOptions()}) per
+     * request as the stream is read, so a multi-GB blob is processed in constant memory. Content written with
+     * a gzip or zstd Content-Encoding is decompressed on the fly.
+     *
+     * @throws CantaraRealestateAzureException if the blob does not exist or cannot be opened
+     */
+    public InputStream openInputStream(String blobName) throws CantaraRealestateAzureException {
+        try {
+            BlobInputStreamOptions options = new BlobInputStreamOptions()
+                    .setBlockSize((int) Math.min(parallelTransferOptions.getBlockSizeLong(), Integer.MAX_VALUE));
+            BlobInputStream blobInputStream = blobContainerClient.getBlobClient(blobName).openInputStream(options);
+            try {
+                BlobContentEncoding encoding = BlobContentEncoding.fromHeader(blobInputStream.getProperties().getContentEncoding());
+                return encoding.decompress(blobInputStream);
+            } catch (Exception e) {
+                blobInputStream.close();
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new CantaraRealestateAzureException("Failed to open blob " + blobName + " in container " + containerName, e);
+        }
+    }
+
+    /**
+     * Stream the blob, decompressed, into {@code out} without holding it in memory. {@code out} is not closed.
+     */
+    public boolean downloadTo(String blobName, OutputStream out) {
+        try (InputStream in = openInputStream(blobName)) {
+            in.transferTo(out);
+            return true;
+        } catch (Exception e) {
+            log.info("Failed to download blob: {} from containerName {}", blobName, containerName, e);
+            return false;
+        }
+    }
+
+    /**
+     * @see #downloadTo(String, OutputStream)
+     */
+    public boolean downloadTo(String blobName, WritableByteChannel channel) {
+        return downloadTo(blobName, new NonClosingOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Download the blob to a file with parallel ranged requests, {@link #getParallelTransferOptions()} at a time.
+     * Compressed content is decompressed into the file once downloaded.
+     *
+     * @param overwrite if {@code false}, fail when {@code file} already exists
+     */
+    public boolean downloadTo(String blobName, Path file, boolean overwrite) {
+        try {
+            ParallelTransferOptions transfer = parallelTransferOptions;
+            Set<OpenOption> openOptions = overwrite
+                    ? Set.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ)
+                    : Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            BlobDownloadToFileOptions options = new BlobDownloadToFileOptions(file.toString())
+                    .setParallelTransferOptions(new com.azure.storage.common.ParallelTransferOptions()
+                            .setBlockSizeLong(transfer.getBlockSizeLong())
+                            .setMaxConcurrency(transfer.getMaxConcurrency()))
+                    .setOpenOptions(openOptions);
+            Response<BlobProperties> response = blobContainerClient.getBlobClient(blobName)
+                    .downloadToFileWithResponse(options, null, Context.NONE);
+            BlobContentEncoding encoding = BlobContentEncoding.fromHeader(response.getValue().getContentEncoding());
+            if (encoding != BlobContentEncoding.IDENTITY) {
+                decompressInPlace(file, encoding);
+            }
+            return true;
+        } catch (Exception e) {
+            log.info("Failed to download blob: {} from containerName {} to {}", blobName, containerName, file, e);
+            return false;
+        }
+    }
+
+    private static void decompressInPlace(Path file, BlobContentEncoding encoding) throws IOException {
+        Path decompressed = file.resolveSibling(file.getFileName() + ".decompressing");
+        try (InputStream in = encoding.decompress(Files.newInputStream(file))) {
+            Files.copy(in, decompressed, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(decompressed, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+    Download the content, decompressed if it was written with a gzip or zstd Content-Encoding.
+     */
+    private byte[] downloadDecoded(String blobName) throws IOException {
+        BlobDownloadContentResponse response = blobContainerClient.getBlobClient(blobName)
+                .downloadContentWithResponse(null, null, null, Context.NONE);
+        BinaryData content = response.getValue();
+        BlobContentEncoding encoding = BlobContentEncoding.fromHeader(response.getDeserializedHeaders().getContentEncoding());
+        if (content == null || encoding == BlobContentEncoding.IDENTITY) {
+            return content == null ? null : content.toBytes();
+        }
+        try (InputStream decompressed = encoding.decompress(content.toStream())) {
+            return decompressed.readAllBytes();
+        }
+    }
+
     public List<String> findBlobsByTags(String tagKey, String tagValue) {
+        BlobMetadataIndex index = metadataIndex;
+        if (index != null) {
+            return index.findByTag(tagKey, tagValue);
+        }
         List<String> blobNames = new ArrayList<>();
         try {
             String query = String.format("\"%s\" = '%s'", tagKey, tagValue);
@@ -158,6 +585,10 @@ public class AzureBlobClient {
     }
 
     public Set<String> findAllTagNames() {
+        BlobMetadataIndex index = metadataIndex;
+        if (index != null) {
+            return index.tagNames();
+        }
         Set<String> uniqueTagNames = new HashSet<>();
         try {
             Iterable<TaggedBlobItem> blobs = blobContainerClient.findBlobsByTags("1=1"); // Query to get all blobs
@@ -174,7 +605,7 @@ public class AzureBlobClient {
     public Set<String> findAllBlobNames() {
         Set<String> blobNames = new HashSet<>();
         try {
-            blobContainerClient.listBlobs().forEach(blobItem -> blobNames.add(blobItem.getName()));
+            streamBlobNames(null).forEach(blobNames::add);
         } catch (Exception e) {
             log.info("Failed to find all blob names", e);
         }
@@ -182,34 +613,97 @@ public class AzureBlobClient {
     }
 
     public Set<String> findBlobsUpdatedByDate(Instant fromDate, Instant toDate) {
+        return findBlobsUpdatedByDate(null, fromDate, toDate);
+    }
+
+    /**
+     * Like {@link #findBlobsUpdatedByDate(Instant, Instant)}, but only lists blobs whose name starts with
+     * {@code prefix}.
+     */
+    public Set<String> findBlobsUpdatedByDate(String prefix, Instant fromDate, Instant toDate) {
+        BlobMetadataIndex index = metadataIndex;
+        if (index != null) {
+            Set<String> indexed = index.findUpdatedBetween(fromDate, toDate);
+            if (prefix != null) {
+                indexed.removeIf(name -> !name.startsWith(prefix));
+            }
+            return indexed;
+        }
         Set<String> blobNames = new HashSet<>();
         try {
-            blobContainerClient.listBlobs().forEach(blobItem -> {
-                Instant lastModified = blobItem.getProperties().getLastModified().toInstant();
-                if ((lastModified.isAfter(fromDate) || lastModified.equals(fromDate)) &&
-                        (lastModified.isBefore(toDate) || lastModified.equals(toDate))) {
-                    blobNames.add(blobItem.getName());
-                }
-            });
+            streamBlobs(prefix)
+                    .filter(blobItem -> {
+                        Instant lastModified = blobItem.getProperties().getLastModified().toInstant();
+                        return !lastModified.isBefore(fromDate) && !lastModified.isAfter(toDate);
+                    })
+                    .forEach(blobItem -> blobNames.add(blobItem.getName()));
         } catch (Exception e) {
             log.info("Failed to find blobs updated between {} and {}", fromDate, toDate, e);
         }
         return blobNames;
     }
 
+    /**
+     * List blobs lazily, one page of up to {@value #LIST_PAGE_SIZE} blobs at a time. The next page is requested
+     * with the continuation token only when the stream reaches it, so memory stays at one page however large
+     * the container. Listing errors surface as runtime exceptions while the stream is consumed.
+     *
+     * @param prefix only blobs whose name starts with this, or {@code null} for the whole container
+     */
+    public Stream<BlobItem> streamBlobs(String prefix) {
+        ListBlobsOptions options = new ListBlobsOptions()
+                .setPrefix(prefix)
+                .setMaxResultsPerPage(LIST_PAGE_SIZE);
+        return blobContainerClient.listBlobs(options, null).stream();
+    }
+
+    /**
+     * @see #streamBlobs(String)
+     */
+    public Stream<String> streamBlobNames(String prefix) {
+        return streamBlobs(prefix).map(BlobItem::getName);
+    }
+
+    /**
+     * Names of the blobs written with {@link BlobDatePartitions#partitionedBlobName(Instant, String)} in the
+     * hours from {@code from} to {@code to}. Only the partitions of the range are listed.
+     */
+    public Stream<String> streamPartitionedBlobNames(Instant from, Instant to) {
+        return BlobDatePartitions.prefixesBetween(from, to).stream()
+                .flatMap(this::streamBlobNames);
+    }
+
     public String getBlobContentAsString(String blobName) {
         String content = null;
         try {
-            BlobClient blobClient = blobContainerClient.getBlobClient(blobName);
-            BinaryData data = blobClient.downloadContent();
+            byte[] data = downloadDecoded(blobName);
             log.debug("Found blob with name: {}", blobName);
             if (data != null) {
                 log.debug("Blob {} has content", blobName);
-                content = data.toString();
+                content = new String(data, StandardCharsets.UTF_8);
             }
         } catch (Exception e) {
             log.info("Failed to get blob by name: {}", blobName, e);
         }
         return content;
     }
+
+    /*
+    Lets a compressor be closed to finish its stream without closing the blob stream underneath.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
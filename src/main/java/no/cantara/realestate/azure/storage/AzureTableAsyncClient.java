@@ -0,0 +1,205 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.core.http.HttpHeaderName;
+import com.azure.core.http.HttpResponse;
+import com.azure.data.tables.TableAsyncClient;
+import com.azure.data.tables.TableClientBuilder;
+import com.azure.data.tables.models.TableEntity;
+import com.azure.data.tables.models.TableServiceException;
+import org.slf4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Non-blocking companion to {@link AzureTableClient} for bulk bookkeeping, such as updating LastUpdatedAt for
+ * thousands of trends.
+ *
+ * <p>Up to {@code maxInFlight} requests are outstanding at once; further requests wait in a queue without
+ * blocking the caller. When Table Storage answers 429 (too many
+ * requests) or 503 (server busy), the request is retried with exponential back-off and jitter, and every new
+ * request pauses too: the shared pause doubles on each throttle (or follows {@code Retry-After}) and halves on
+ * each success, so the client settles at the rate the storage account accepts.
+ */
+public class AzureTableAsyncClient {
+    private static final Logger log = getLogger(AzureTableAsyncClient.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    public static final int DEFAULT_MAX_RETRIES = 6;
+    static final Duration MIN_BACKOFF = Duration.ofMillis(100);
+    static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final TableAsyncClient tableAsyncClient;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final InFlightPermits inFlight;
+    // Epoch millis before which new requests wait, and the pause applied on the next throttle.
+    private final AtomicLong pausedUntilMillis = new AtomicLong(0);
+    private final AtomicLong pauseMillis = new AtomicLong(0);
+    private final LongAdder throttled = new LongAdder();
+
+    public AzureTableAsyncClient(String connectionString, String tableName) {
+        this(new TableClientBuilder()
+                .connectionString(connectionString)
+                .tableName(tableName)
+                .buildAsyncClient(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_RETRIES);
+    }
+
+    public AzureTableAsyncClient(TableAsyncClient tableAsyncClient, int maxInFlight, int maxRetries) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, was " + maxInFlight);
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative, was " + maxRetries);
+        }
+        this.tableAsyncClient = tableAsyncClient;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.inFlight = new InFlightPermits(maxInFlight);
+    }
+
+    /**
+     * Insert the row, or merge the properties into the existing row.
+     */
+    public CompletableFuture<Void> upsertRow(String partitionKey, String rowKey, Map<String, Object> properties) {
+        TableEntity tableEntity = AzureTableClient.toTableEntity(partitionKey, rowKey, properties);
+        return withPermit(() -> withBackoff(() -> tableAsyncClient.upsertEntity(tableEntity)));
+    }
+
+    /**
+     * Merge the properties into an existing row; completes exceptionally if the row does not exist.
+     *
+     * @see AzureTableClient#updateRow(String, String, Map)
+     */
+    public CompletableFuture<Void> updateRow(String partitionKey, String rowKey, Map<String, Object> properties) {
+        TableEntity tableEntity = AzureTableClient.toTableEntity(partitionKey, rowKey, properties);
+        return withPermit(() -> withBackoff(() -> tableAsyncClient.updateEntity(tableEntity)));
+    }
+
+    /**
+     * @return the row's properties, or empty if there is no such row
+     */
+    public CompletableFuture<Optional<Map<String, Object>>> findRow(String partitionKey, String rowKey) {
+        return withPermit(() -> withBackoff(() -> tableAsyncClient.getEntity(partitionKey, rowKey))
+                .map(tableEntity -> Optional.of(tableEntity.getProperties()))
+                .onErrorResume(AzureTableAsyncClient::isNotFound, e -> Mono.just(Optional.empty())));
+    }
+
+    /**
+     * Upsert every entity, sharing the {@code maxInFlight} requests with the single-row methods. A failed row
+     * does not stop the others.
+     *
+     * @param entities rows built with {@link AzureTableClient#toTableEntity(String, String, Map)}
+     */
+    public CompletableFuture<TableBatchResult> upsertRows(Collection<TableEntity> entities) {
+        Map<TableEntity, Exception> failures = new IdentityHashMap<>();
+        return Flux.fromIterable(entities)
+                .flatMap(entity -> inFlight.withPermit(() -> withBackoff(() -> tableAsyncClient.upsertEntity(entity)))
+                                .onErrorResume(e -> {
+                                    synchronized (failures) {
+                                        failures.put(entity, e instanceof Exception ? (Exception) e : new RuntimeException(e));
+                                    }
+                                    return Mono.empty();
+                                }),
+                        maxInFlight)
+                .then(Mono.fromSupplier(() -> {
+                    synchronized (failures) {
+                        return new TableBatchResult(entities.size() - failures.size(), failures);
+                    }
+                }))
+                .toFuture();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private <T> CompletableFuture<T> withPermit(Supplier<Mono<T>> request) {
+        return inFlight.withPermit(request).toFuture();
+    }
+
+    /*
+    Wait out any shared pause, then send; retry throttled requests with exponential back-off.
+     */
+    <T> Mono<T> withBackoff(Supplier<Mono<T>> request) {
+        return Mono.defer(() -> {
+                    long waitMillis = pausedUntilMillis.get() - System.currentTimeMillis();
+                    Mono<T> send = Mono.defer(request);
+                    return waitMillis > 0 ? Mono.delay(Duration.ofMillis(waitMillis)).then(send) : send;
+                })
+                .doOnSuccess(value -> relaxPause())
+                .doOnError(AzureTableAsyncClient::isThrottled, this::registerThrottle)
+                .retryWhen(Retry.backoff(maxRetries, MIN_BACKOFF)
+                        .maxBackoff(MAX_BACKOFF)
+                        .jitter(0.5)
+                        .filter(AzureTableAsyncClient::isThrottled)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private void registerThrottle(Throwable error) {
+        throttled.increment();
+        long pause = pauseMillis.updateAndGet(current ->
+                Math.min(MAX_BACKOFF.toMillis(), Math.max(MIN_BACKOFF.toMillis(), current * 2)));
+        Long retryAfterMillis = retryAfterMillis(error);
+        if (retryAfterMillis != null) {
+            pause = Math.min(MAX_BACKOFF.toMillis(), Math.max(pause, retryAfterMillis));
+        }
+        long until = System.currentTimeMillis() + pause;
+        pausedUntilMillis.accumulateAndGet(until, Math::max);
+        log.debug("Table Storage is throttling requests; pausing new requests for {} ms", pause);
+    }
+
+    private void relaxPause() {
+        pauseMillis.updateAndGet(current -> current <= MIN_BACKOFF.toMillis() ? 0 : current / 2);
+    }
+
+    static boolean isThrottled(Throwable error) {
+        int status = statusCode(error);
+        return status == 429 || status == 503;
+    }
+
+    private static boolean isNotFound(Throwable error) {
+        return statusCode(error) == 404;
+    }
+
+    private static int statusCode(Throwable error) {
+        if (error instanceof TableServiceException) {
+            HttpResponse response = ((TableServiceException) error).getResponse();
+            if (response != null) {
+                return response.getStatusCode();
+            }
+        }
+        return -1;
+    }
+
+    private static Long retryAfterMillis(Throwable error) {
+        if (!(error instanceof TableServiceException) || ((TableServiceException) error).getResponse() == null) {
+            return null;
+        }
+        String retryAfter = ((TableServiceException) error).getResponse().getHeaderValue(HttpHeaderName.RETRY_AFTER);
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000L;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
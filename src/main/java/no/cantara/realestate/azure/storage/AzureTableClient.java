@@ -4,21 +4,42 @@ import com.azure.data.tables.TableClient;
 import com.azure.data.tables.TableClientBuilder;
 import com.azure.data.tables.models.ListEntitiesOptions;
 import com.azure.data.tables.models.TableEntity;
+import com.azure.data.tables.models.TableServiceException;
+import com.azure.data.tables.models.TableTransactionAction;
+import com.azure.data.tables.models.TableTransactionActionType;
+import com.azure.data.tables.models.TableTransactionFailedException;
 import no.cantara.realestate.RealEstateException;
 import org.slf4j.Logger;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
-public class AzureTableClient {
+public class AzureTableClient implements AutoCloseable {
     private static final Logger log = getLogger(AzureTableClient.class);
 
+    /** Entity group transactions hold at most 100 operations, all in one partition. */
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+    private static final long BATCH_THREAD_KEEP_ALIVE_SECONDS = 60;
+
     private final TableClient tableClient;
+    // Shared by all batch writes, so maxConcurrentBatches bounds the client as a whole. Idle threads time out.
+    private final ThreadPoolExecutor batchExecutor = newBatchExecutor(DEFAULT_MAX_CONCURRENT_BATCHES);
 
     public AzureTableClient(TableClient tableClient) {
         this.tableClient = tableClient;
@@ -36,57 +57,115 @@ public class AzureTableClient {
         return tableClient;
     }
 
+    public synchronized void setMaxConcurrentBatches(int maxConcurrentBatches) {
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1, was " + maxConcurrentBatches);
+        }
+        // The core size may never exceed the maximum, so grow the maximum first and shrink it last.
+        if (maxConcurrentBatches > batchExecutor.getMaximumPoolSize()) {
+            batchExecutor.setMaximumPoolSize(maxConcurrentBatches);
+            batchExecutor.setCorePoolSize(maxConcurrentBatches);
+        } else {
+            batchExecutor.setCorePoolSize(maxConcurrentBatches);
+            batchExecutor.setMaximumPoolSize(maxConcurrentBatches);
+        }
+    }
+
+    /**
+     * Stop the threads used by {@link #upsertRows(Collection)} and {@link #createEntities(Collection)}; batch
+     * writes in progress complete. The {@link TableClient} holds no resources of its own.
+     */
+    @Override
+    public void close() {
+        batchExecutor.shutdown();
+    }
+
+    private static ThreadPoolExecutor newBatchExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                BATCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "table-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public List<Map<String,Object>> findRows(String partitionKey) {
+        return findRows(partitionKey, null, null).toList();
+    }
+
+    /**
+     * Rows of a partition, read lazily: the next page of entities is fetched only when the stream reaches it, so
+     * a large partition does not have to fit in memory.
+     *
+     * @param partitionKey the partition to read
+     * @param filter       an additional OData filter evaluated by Table Storage, e.g. {@code "LastUpdatedAt lt '2024-03-01'"},
+     *                     or {@code null}
+     * @param select       the properties to return ({@code $select}), or {@code null} for all
+     */
+    public Stream<Map<String,Object>> findRows(String partitionKey, String filter, List<String> select) {
+        String partitionFilter = String.format("PartitionKey eq '%s'", partitionKey.replace("'", "''"));
         ListEntitiesOptions options = new ListEntitiesOptions()
-                .setFilter(String.format("PartitionKey eq '%s'", partitionKey));
-        //Cast from Map<String, Object>     to Map<String, String>
+                .setFilter(filter == null || filter.isBlank() ? partitionFilter : partitionFilter + " and (" + filter + ")")
+                .setSelect(select);
         return tableClient.listEntities(options, null, null).stream()
-                .map(tableEntity -> tableEntity.getProperties())
-                .toList();
+                .map(TableEntity::getProperties);
     }
 
     public List<Map<String,String>> listRows(String partitionKey) {
-        List<Map<String,String>> stringRows = new ArrayList<>();
-        List<Map<String, Object>> rows = findRows(partitionKey);
-        for (Map<String, Object> row : rows) {
-            Map<String,String> stringRow = new HashMap<>();
-            for (String key : row.keySet()) {
-                Object value = row.get(key);
-                if (value instanceof String) {
-                    stringRow.put(key, (String) value);
-                } else {
-                    try {
-                        stringRow.put(key, value.toString());
-                    } catch (Exception e) {
-                        log.error("Could not convert value {} to String", value);
-                        stringRow.put(key, "--FailedInConversionFromAzureTable--");
-                    }
+        return findRows(partitionKey, null, null)
+                .map(AzureTableClient::toStringRow)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private static Map<String,String> toStringRow(Map<String, Object> row) {
+        Map<String,String> stringRow = new HashMap<>(row.size() * 2);
+        for (Map.Entry<String, Object> property : row.entrySet()) {
+            Object value = property.getValue();
+            if (value instanceof String) {
+                stringRow.put(property.getKey(), (String) value);
+            } else {
+                try {
+                    stringRow.put(property.getKey(), value.toString());
+                } catch (Exception e) {
+                    log.error("Could not convert value {} to String", value);
+                    stringRow.put(property.getKey(), "--FailedInConversionFromAzureTable--");
                 }
             }
-            stringRows.add(stringRow);
         }
-        return stringRows;
+        return stringRow;
     }
 
     public boolean hasRow(String partitionKey, String rowKey) {
         boolean hasRow = false;
         try {
-            hasRow = tableClient.getEntity(partitionKey, rowKey) != null;
+            hasRow = findRow(partitionKey, rowKey).isPresent();
         } catch (Exception e) {
             log.debug("Could not find row with partitionKey {} and rowKey {}. This might be as expected. Root error:", partitionKey, rowKey, e);
         }
         return hasRow;
     }
 
+    /**
+     * @return the row's properties, or empty if there is no such row
+     * @throws com.azure.data.tables.models.TableServiceException for errors other than not found
+     */
+    public Optional<Map<String, Object>> findRow(String partitionKey, String rowKey) {
+        try {
+            TableEntity tableEntity = tableClient.getEntity(partitionKey, rowKey);
+            return tableEntity == null ? Optional.empty() : Optional.of(tableEntity.getProperties());
+        } catch (TableServiceException e) {
+            if (e.getResponse() != null && e.getResponse().getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
     public void createEntity(String partitionKey, String rowKey, Map<String, Object> properties) throws RealEstateException {
         try {
-            TableEntity tableEntity = new TableEntity(partitionKey, rowKey);
-            properties.forEach((key, value) -> {
-                if (value instanceof Instant) {
-                    value = ((Instant) value).truncatedTo(java.time.temporal.ChronoUnit.SECONDS).toString();
-                }
-                tableEntity.addProperty(key, value);
-            });
+            TableEntity tableEntity = toTableEntity(partitionKey, rowKey, properties);
             tableClient.createEntity(tableEntity);
         } catch (Exception e) {
             RealEstateException realEstateException = new RealEstateException("Could not create entity with partitionKey " + partitionKey + " and rowKey " + rowKey + ", properties " + properties, e);
@@ -104,13 +183,7 @@ public class AzureTableClient {
      */
     public void updateRow(String partitionKey, String rowKey, Map<String, Object> properties) throws RealEstateException {
         try {
-            TableEntity tableEntity = new TableEntity(partitionKey, rowKey);
-            properties.forEach((key, value) -> {
-                if (value instanceof Instant) {
-                    value = ((Instant) value).truncatedTo(java.time.temporal.ChronoUnit.SECONDS).toString();
-                }
-                tableEntity.addProperty(key, value);
-            });
+            TableEntity tableEntity = toTableEntity(partitionKey, rowKey, properties);
             tableClient.updateEntity(tableEntity);
         } catch (Exception e) {
             RealEstateException realEstateException = new RealEstateException("Could not update row with partitionKey " + partitionKey + " and rowKey " + rowKey + ", properties " + properties, e);
@@ -118,4 +191,96 @@ public class AzureTableClient {
             throw e;
         }
     }
+
+    /**
+     * Insert or merge many rows with entity group transactions: rows are grouped by PartitionKey into batches of
+     * up to {@value #MAX_BATCH_SIZE}, and up to {@code maxConcurrentBatches} batches are in flight at once.
+     * Thousands of rows take tens of requests instead of thousands.
+     *
+     * <p>A transaction is all-or-nothing. When Table Storage rejects one entity, that entity is reported as
+     * failed and the rest of its batch is submitted again without it.
+     *
+     * @param entities rows built with {@link #toTableEntity(String, String, Map)}
+     */
+    public TableBatchResult upsertRows(Collection<TableEntity> entities) {
+        return submitInBatches(entities, TableTransactionActionType.UPSERT_MERGE);
+    }
+
+    /**
+     * Insert many new rows; like {@link #upsertRows(Collection)}, but a row that already exists is reported as
+     * failed.
+     */
+    public TableBatchResult createEntities(Collection<TableEntity> entities) {
+        return submitInBatches(entities, TableTransactionActionType.CREATE);
+    }
+
+    /**
+     * Build a row the way {@link #createEntity} and {@link #updateRow} do: {@link Instant} values are stored
+     * as ISO-8601 strings truncated to seconds.
+     */
+    public static TableEntity toTableEntity(String partitionKey, String rowKey, Map<String, Object> properties) {
+        TableEntity tableEntity = new TableEntity(partitionKey, rowKey);
+        properties.forEach((key, value) -> {
+            if (value instanceof Instant) {
+                value = ((Instant) value).truncatedTo(java.time.temporal.ChronoUnit.SECONDS).toString();
+            }
+            tableEntity.addProperty(key, value);
+        });
+        return tableEntity;
+    }
+
+    TableBatchResult submitInBatches(Collection<TableEntity> entities, TableTransactionActionType actionType) {
+        List<List<TableEntity>> batches = new ArrayList<>();
+        Map<String, List<TableEntity>> byPartition = new LinkedHashMap<>();
+        for (TableEntity entity : entities) {
+            byPartition.computeIfAbsent(entity.getPartitionKey(), partitionKey -> new ArrayList<>()).add(entity);
+        }
+        for (List<TableEntity> partition : byPartition.values()) {
+            for (int from = 0; from < partition.size(); from += MAX_BATCH_SIZE) {
+                batches.add(partition.subList(from, Math.min(from + MAX_BATCH_SIZE, partition.size())));
+            }
+        }
+        Map<TableEntity, Exception> failures = new ConcurrentHashMap<>();
+        if (batches.size() == 1) {
+            submitBatch(batches.get(0), actionType, failures);
+        } else if (!batches.isEmpty()) {
+            CompletableFuture.allOf(batches.stream()
+                            .map(batch -> CompletableFuture.runAsync(() -> submitBatch(batch, actionType, failures), batchExecutor))
+                            .toArray(CompletableFuture[]::new))
+                    .join();
+        }
+        log.debug("Submitted {} entities in {} batches, {} failed", entities.size(), batches.size(), failures.size());
+        return new TableBatchResult(entities.size() - failures.size(), failures);
+    }
+
+    /*
+    Submit one partition batch. On a rejected entity, report it and resubmit the rest; any other error fails
+    the whole batch.
+     */
+    private void submitBatch(List<TableEntity> batch, TableTransactionActionType actionType, Map<TableEntity, Exception> failures) {
+        List<TableEntity> remaining = new ArrayList<>(batch);
+        while (!remaining.isEmpty()) {
+            List<TableTransactionAction> actions = new ArrayList<>(remaining.size());
+            for (TableEntity entity : remaining) {
+                actions.add(new TableTransactionAction(actionType, entity));
+            }
+            try {
+                tableClient.submitTransaction(actions);
+                return;
+            } catch (TableTransactionFailedException e) {
+                Integer failedIndex = e.getFailedTransactionActionIndex();
+                if (failedIndex == null || failedIndex < 0 || failedIndex >= remaining.size()) {
+                    remaining.forEach(entity -> failures.put(entity, e));
+                    return;
+                }
+                TableEntity failed = remaining.remove((int) failedIndex);
+                log.trace("Entity with partitionKey {} and rowKey {} was rejected in batch", failed.getPartitionKey(), failed.getRowKey(), e);
+                failures.put(failed, e);
+            } catch (Exception e) {
+                log.debug("Batch of {} entities in partition {} failed", remaining.size(), remaining.get(0).getPartitionKey(), e);
+                remaining.forEach(entity -> failures.put(entity, e));
+                return;
+            }
+        }
+    }
 }
@@ -0,0 +1,301 @@
+package no.cantara.realestate.azure.storage;
+
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Read-through cache in front of {@link AzureTableClient} for lookups that repeat every ingest cycle, such as
+ * sensor mappings and trend LastUpdatedAt rows.
+ *
+ * <ul>
+ *     <li>Rows are cached by (PartitionKey, RowKey), whole partitions by PartitionKey. Both share one LRU bound
+ *     of {@code maxEntries}.</li>
+ *     <li>A missing row is cached too, for the shorter {@code negativeTtl}, so repeated {@link #hasRow} checks for
+ *     an unknown sensor do not reach Azure each time.</li>
+ *     <li>An entry older than {@code refreshAfter} is still returned, and reloaded in the background; an entry
+ *     older than its TTL is reloaded before it is returned.</li>
+ *     <li>Threads that miss the same key at the same time share one load.</li>
+ * </ul>
+ * Writes made through other clients are seen once the entry is refreshed or expires; call
+ * {@link #invalidate(String, String)} after writing through the wrapped client to see them at once. Close the
+ * cache to stop its refresh thread. Thread-safe.
+ */
+public class AzureTableRowCache implements AutoCloseable {
+    private static final Logger log = getLogger(AzureTableRowCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(1);
+    public static final Duration DEFAULT_REFRESH_AFTER = Duration.ofMinutes(5);
+
+    private final AzureTableClient tableClient;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final long refreshAfterMillis;
+    private final LongSupplier clockMillis;
+    private final Executor refreshExecutor;
+
+    private final Map<CacheKey, Entry> entries;
+    private final Map<CacheKey, CompletableFuture<Object>> pendingLoads = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    public AzureTableRowCache(AzureTableClient tableClient) {
+        this(tableClient, DEFAULT_MAX_ENTRIES, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_REFRESH_AFTER);
+    }
+
+    /**
+     * @param maxEntries   the most rows and partitions kept; the least recently used is evicted first
+     * @param ttl          how long a row or partition is served without asking Azure
+     * @param negativeTtl  how long a not-found row is remembered
+     * @param refreshAfter age after which an entry is reloaded in the background while still being served
+     */
+    public AzureTableRowCache(AzureTableClient tableClient, int maxEntries, Duration ttl, Duration negativeTtl, Duration refreshAfter) {
+        this(tableClient, maxEntries, ttl, negativeTtl, refreshAfter, System::currentTimeMillis,
+                Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "table-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    // Visible for testing — inject a deterministic clock and refresh executor.
+    AzureTableRowCache(AzureTableClient tableClient, int maxEntries, Duration ttl, Duration negativeTtl, Duration refreshAfter,
+                       LongSupplier clockMillis, Executor refreshExecutor) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1, was " + maxEntries);
+        }
+        this.tableClient = tableClient;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.negativeTtlMillis = negativeTtl.toMillis();
+        this.refreshAfterMillis = refreshAfter.toMillis();
+        this.clockMillis = clockMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                return size() > AzureTableRowCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the row's properties, or empty if there is no such row
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<Map<String, Object>> findRow(String partitionKey, String rowKey) {
+        return Optional.ofNullable((Map<String, Object>) get(new CacheKey(partitionKey, rowKey)));
+    }
+
+    public boolean hasRow(String partitionKey, String rowKey) {
+        return findRow(partitionKey, rowKey).isPresent();
+    }
+
+    /**
+     * @see AzureTableClient#findRows(String)
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> findRows(String partitionKey) {
+        return (List<Map<String, Object>>) get(new CacheKey(partitionKey, null));
+    }
+
+    /**
+     * Forget a row, and the cached partition it belongs to.
+     */
+    public synchronized void invalidate(String partitionKey, String rowKey) {
+        entries.remove(new CacheKey(partitionKey, rowKey));
+        entries.remove(new CacheKey(partitionKey, null));
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stop the background refresh. Lookups still work, but stale entries are then reloaded only once expired.
+     */
+    @Override
+    public void close() {
+        if (refreshExecutor instanceof ExecutorService) {
+            ((ExecutorService) refreshExecutor).shutdown();
+        }
+    }
+
+    private Object get(CacheKey key) {
+        long now = clockMillis.getAsLong();
+        Entry entry;
+        boolean refresh = false;
+        CompletableFuture<Object> pendingLoad = null;
+        boolean loadHere = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && now >= entry.expiresAtMillis) {
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                pendingLoad = pendingLoads.get(key);
+                if (pendingLoad == null) {
+                    pendingLoad = new CompletableFuture<>();
+                    pendingLoads.put(key, pendingLoad);
+                    loadHere = true;
+                }
+            } else {
+                hits.increment();
+                if (!entry.refreshing && now - entry.loadedAtMillis >= refreshAfterMillis) {
+                    entry.refreshing = true;
+                    refresh = true;
+                }
+            }
+        }
+        if (entry == null) {
+            return loadHere ? loadShared(key, pendingLoad) : awaitLoad(pendingLoad);
+        }
+        if (refresh) {
+            try {
+                refreshExecutor.execute(() -> refresh(key));
+            } catch (RejectedExecutionException e) {
+                // Closed: the entry is reloaded once it expires.
+                log.trace("Not refreshing cached table entry {}, the cache is closed", key);
+            }
+        }
+        // null for a cached not-found row.
+        return entry.value;
+    }
+
+    /*
+    Load on this thread, and hand the outcome to the threads that missed the same key meanwhile.
+     */
+    private Object loadShared(CacheKey key, CompletableFuture<Object> pendingLoad) {
+        try {
+            Object value = load(key);
+            pendingLoad.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            pendingLoad.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                pendingLoads.remove(key, pendingLoad);
+            }
+        }
+    }
+
+    private static Object awaitLoad(CompletableFuture<Object> pendingLoad) {
+        try {
+            return pendingLoad.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Object load(CacheKey key) {
+        Object value = key.rowKey == null
+                ? Collections.unmodifiableList(tableClient.findRows(key.partitionKey))
+                : tableClient.findRow(key.partitionKey, key.rowKey).map(Collections::unmodifiableMap).orElse(null);
+        long now = clockMillis.getAsLong();
+        synchronized (this) {
+            entries.put(key, new Entry(value, now, now + (value == null ? negativeTtlMillis : ttlMillis)));
+        }
+        return value;
+    }
+
+    private void refresh(CacheKey key) {
+        try {
+            refreshes.increment();
+            load(key);
+        } catch (Exception e) {
+            log.debug("Failed to refresh cached table entry {}; serving the cached value until it expires", key, e);
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long loadedAtMillis;
+        final long expiresAtMillis;
+        boolean refreshing = false;
+
+        Entry(Object value, long loadedAtMillis, long expiresAtMillis) {
+            this.value = value;
+            this.loadedAtMillis = loadedAtMillis;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private static final class CacheKey {
+        final String partitionKey;
+        final String rowKey;
+
+        CacheKey(String partitionKey, String rowKey) {
+            this.partitionKey = partitionKey;
+            this.rowKey = rowKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return partitionKey.equals(cacheKey.partitionKey) && Objects.equals(rowKey, cacheKey.rowKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(partitionKey, rowKey);
+        }
+
+        @Override
+        public String toString() {
+            return rowKey == null ? partitionKey : partitionKey + "/" + rowKey;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package no.cantara.realestate.azure.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression applied to blob content, recorded in the blob's {@code Content-Encoding} header so that readers
+ * (including {@link AzureBlobClient}) can decompress it again.
+ *
+ * <p>{@link #ZSTD} needs {@code com.github.luben:zstd-jni} on the classpath; it is an optional dependency of this
+ * library. Check {@link #isAvailable()} before choosing it.
+ */
+public enum BlobContentEncoding {
+    IDENTITY(null),
+    GZIP("gzip"),
+    ZSTD("zstd");
+
+    private static final int GZIP_BUFFER_BYTES = 64 * 1024;
+
+    private final String headerValue;
+
+    BlobContentEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    /**
+     * @return the {@code Content-Encoding} header value, or {@code null} for uncompressed content
+     */
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    public boolean isAvailable() {
+        return this != ZSTD || ZstdCodec.AVAILABLE;
+    }
+
+    /**
+     * @return a stream that compresses into {@code out}; closing it finishes the compressed stream and closes
+     * {@code out}
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, GZIP_BUFFER_BYTES);
+            case ZSTD:
+                return ZstdCodec.compress(out);
+            default:
+                return out;
+        }
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, GZIP_BUFFER_BYTES);
+            case ZSTD:
+                return ZstdCodec.decompress(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * @return the encoding named by a {@code Content-Encoding} header. Values this library does not compress
+     * with, such as the {@code base64} of {@link AzureBlobClient#writeZipBlobWithTags}, are {@link #IDENTITY}:
+     * the content is returned as stored.
+     */
+    public static BlobContentEncoding fromHeader(String contentEncoding) {
+        if (contentEncoding != null) {
+            for (BlobContentEncoding encoding : values()) {
+                if (contentEncoding.trim().equalsIgnoreCase(encoding.headerValue)) {
+                    return encoding;
+                }
+            }
+        }
+        return IDENTITY;
+    }
+
+    /*
+    Checks for zstd-jni without referring to its classes, so that it links whether or not zstd-jni is present.
+    ZstdStreams, which does refer to them, is only loaded once the check has passed.
+     */
+    private static final class ZstdCodec {
+        static final boolean AVAILABLE = isOnClasspath();
+
+        static OutputStream compress(OutputStream out) throws IOException {
+            requireAvailable();
+            return ZstdStreams.compress(out);
+        }
+
+        static InputStream decompress(InputStream in) throws IOException {
+            requireAvailable();
+            return ZstdStreams.decompress(in);
+        }
+
+        private static void requireAvailable() {
+            if (!AVAILABLE) {
+                throw new IllegalStateException("zstd content encoding requires com.github.luben:zstd-jni on the classpath");
+            }
+        }
+
+        private static boolean isOnClasspath() {
+            try {
+                Class.forName("com.github.luben.zstd.ZstdOutputStream", false, BlobContentEncoding.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+    }
+}
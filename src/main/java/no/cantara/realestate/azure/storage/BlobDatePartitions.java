@@ -0,0 +1,53 @@
+package no.cantara.realestate.azure.storage;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Date-partitioned blob naming: {@code yyyy/MM/dd/HH/<name>}, in UTC.
+ *
+ * <p>Blob Storage can only list by name prefix. With the timestamp at the front of the name, a time-range
+ * lookup lists the virtual directories of the range instead of the whole container.
+ * {@link #prefixesBetween(Instant, Instant)} is that prefix index: whole days become one day prefix, the
+ * partial days at either end one prefix per hour.
+ */
+public final class BlobDatePartitions {
+
+    private static final DateTimeFormatter DAY_PREFIX = DateTimeFormatter.ofPattern("yyyy/MM/dd/").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter HOUR_PREFIX = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH/").withZone(ZoneOffset.UTC);
+
+    private BlobDatePartitions() {
+    }
+
+    /**
+     * @return {@code name} inside the hourly partition of {@code timestamp}, e.g. {@code 2024/03/01/13/trend.json}
+     */
+    public static String partitionedBlobName(Instant timestamp, String name) {
+        return HOUR_PREFIX.format(timestamp) + name;
+    }
+
+    /**
+     * @return the fewest prefixes that cover every hourly partition from {@code from} to {@code to}, inclusive.
+     * Partitions are whole hours, so blobs from the start of the first and the end of the last hour are included.
+     */
+    public static List<String> prefixesBetween(Instant from, Instant to) {
+        List<String> prefixes = new ArrayList<>();
+        Instant cursor = from.truncatedTo(ChronoUnit.HOURS);
+        while (!cursor.isAfter(to)) {
+            Instant nextDay = cursor.plus(1, ChronoUnit.DAYS);
+            // A day prefix when every hour of the day is in range, i.e. the last one is.
+            if (cursor.equals(cursor.truncatedTo(ChronoUnit.DAYS)) && !nextDay.minus(1, ChronoUnit.HOURS).isAfter(to)) {
+                prefixes.add(DAY_PREFIX.format(cursor));
+                cursor = nextDay;
+            } else {
+                prefixes.add(HOUR_PREFIX.format(cursor));
+                cursor = cursor.plus(1, ChronoUnit.HOURS);
+            }
+        }
+        return prefixes;
+    }
+}
@@ -0,0 +1,432 @@
+package no.cantara.realestate.azure.storage;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Local index of blob name, index tags, size and last-modified time for one container.
+ *
+ * <p>{@link AzureBlobClient#findBlobsByTags(String, String)}, {@link AzureBlobClient#findAllTagNames()} and
+ * the date lookups otherwise scan the container remotely on every call. With an index attached
+ * ({@link AzureBlobClient#useMetadataIndex(BlobMetadataIndex)}) they are answered from memory, the client
+ * records each of its own writes here, and {@link AzureBlobClient#reconcileMetadataIndex()} catches up with
+ * writes made by others.
+ *
+ * <p>The index is held in memory and persisted as an append-only journal file: one record per put or
+ * remove. Opening the index replays the journal; a record cut short by a crash is truncated away. When
+ * the journal holds more than twice as many records as there are blobs, it is rewritten with one record
+ * per blob. Thread-safe.
+ */
+public class BlobMetadataIndex implements AutoCloseable {
+    private static final Logger log = getLogger(BlobMetadataIndex.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+    private static final int RECONCILE_CHUNK_SIZE = 500;
+
+    private final Path journalFile;
+    private final Map<String, BlobMetadata> byName = new HashMap<>();
+    private final Map<String, Map<String, Set<String>>> namesByTag = new HashMap<>();
+    private final TreeMap<Instant, Set<String>> namesByLastModified = new TreeMap<>();
+    private DataOutputStream journal;
+    private long journalRecords = 0;
+    private boolean closed = false;
+    private final Object reconcileLock = new Object();
+    // Names put or removed since the running reconcile started listing, or null when none is running.
+    private Set<String> writtenDuringReconcile = null;
+
+    /**
+     * Open the index stored in {@code journalFile}, creating it if needed.
+     */
+    public BlobMetadataIndex(Path journalFile) throws IOException {
+        this.journalFile = journalFile;
+        Path parent = journalFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        replayJournal();
+        journal = openJournal();
+    }
+
+    public synchronized void put(BlobMetadata metadata) {
+        ensureOpen();
+        markWritten(metadata.getName());
+        index(metadata);
+        try {
+            writeRecord(journal, metadata);
+            journal.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write blob metadata journal " + journalFile, e);
+        }
+        journalRecords++;
+        compactIfNeeded();
+    }
+
+    public synchronized void remove(String blobName) {
+        ensureOpen();
+        markWritten(blobName);
+        if (unindex(blobName) == null) {
+            return;
+        }
+        try {
+            journal.writeByte(REMOVE);
+            journal.writeUTF(blobName);
+            journal.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write blob metadata journal " + journalFile, e);
+        }
+        journalRecords++;
+        compactIfNeeded();
+    }
+
+    public synchronized Optional<BlobMetadata> get(String blobName) {
+        return Optional.ofNullable(byName.get(blobName));
+    }
+
+    public synchronized List<String> findByTag(String tagKey, String tagValue) {
+        Set<String> names = namesByTag.getOrDefault(tagKey, Collections.emptyMap()).get(tagValue);
+        return names == null ? new ArrayList<>() : new ArrayList<>(names);
+    }
+
+    public synchronized Set<String> tagNames() {
+        return new HashSet<>(namesByTag.keySet());
+    }
+
+    /**
+     * @return blobs last modified from {@code from} to {@code to}, inclusive
+     */
+    public synchronized Set<String> findUpdatedBetween(Instant from, Instant to) {
+        Set<String> names = new HashSet<>();
+        if (from.isAfter(to)) {
+            return names;
+        }
+        namesByLastModified.subMap(from, true, to, true).values().forEach(names::addAll);
+        return names;
+    }
+
+    public synchronized int size() {
+        return byName.size();
+    }
+
+    /**
+     * Bring the index in line with a full listing of the container: listed blobs that are new or changed are
+     * put, indexed blobs that are not listed are removed.
+     *
+     * <p>The listing is read without holding the index lock, so lookups and writes carry on meanwhile; the
+     * differences are then applied a chunk at a time. A blob put or removed after the listing started is left
+     * as it is, since the listing may not have seen that write.
+     *
+     * @return the number of blobs put or removed
+     */
+    public int reconcile(Stream<BlobMetadata> listing) {
+        synchronized (reconcileLock) {
+            synchronized (this) {
+                ensureOpen();
+                writtenDuringReconcile = new HashSet<>();
+            }
+            try {
+                Map<String, BlobMetadata> listed = new HashMap<>();
+                listing.forEach(metadata -> listed.put(metadata.getName(), metadata));
+                int changes = applyInChunks(new ArrayList<>(listed.values()), metadata -> {
+                    if (metadata.equals(byName.get(metadata.getName()))) {
+                        return false;
+                    }
+                    put(metadata);
+                    return true;
+                }, BlobMetadata::getName);
+                List<String> unlisted;
+                synchronized (this) {
+                    unlisted = new ArrayList<>();
+                    for (String name : byName.keySet()) {
+                        if (!listed.containsKey(name)) {
+                            unlisted.add(name);
+                        }
+                    }
+                }
+                changes += applyInChunks(unlisted, name -> {
+                    if (!byName.containsKey(name)) {
+                        return false;
+                    }
+                    remove(name);
+                    return true;
+                }, name -> name);
+                return changes;
+            } finally {
+                synchronized (this) {
+                    writtenDuringReconcile = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        journal.close();
+    }
+
+    /*
+    Apply each change under the index lock, releasing it between chunks; skip blobs written since the listing
+    started.
+     */
+    private <T> int applyInChunks(List<T> items, Predicate<T> apply, Function<T, String> name) {
+        int changes = 0;
+        for (int start = 0; start < items.size(); start += RECONCILE_CHUNK_SIZE) {
+            List<T> chunk = items.subList(start, Math.min(items.size(), start + RECONCILE_CHUNK_SIZE));
+            synchronized (this) {
+                ensureOpen();
+                for (T item : chunk) {
+                    if (!writtenDuringReconcile.contains(name.apply(item)) && apply.test(item)) {
+                        changes++;
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    private void markWritten(String blobName) {
+        if (writtenDuringReconcile != null) {
+            writtenDuringReconcile.add(blobName);
+        }
+    }
+
+    private void index(BlobMetadata metadata) {
+        unindex(metadata.getName());
+        byName.put(metadata.getName(), metadata);
+        metadata.getTags().forEach((key, value) ->
+                namesByTag.computeIfAbsent(key, k -> new HashMap<>())
+                        .computeIfAbsent(value, v -> new HashSet<>())
+                        .add(metadata.getName()));
+        namesByLastModified.computeIfAbsent(metadata.getLastModified(), t -> new HashSet<>()).add(metadata.getName());
+    }
+
+    private BlobMetadata unindex(String blobName) {
+        BlobMetadata previous = byName.remove(blobName);
+        if (previous == null) {
+            return null;
+        }
+        previous.getTags().forEach((key, value) -> {
+            Map<String, Set<String>> byValue = namesByTag.get(key);
+            Set<String> names = byValue.get(value);
+            names.remove(blobName);
+            if (names.isEmpty()) {
+                byValue.remove(value);
+            }
+            if (byValue.isEmpty()) {
+                namesByTag.remove(key);
+            }
+        });
+        Set<String> names = namesByLastModified.get(previous.getLastModified());
+        names.remove(blobName);
+        if (names.isEmpty()) {
+            namesByLastModified.remove(previous.getLastModified());
+        }
+        return previous;
+    }
+
+    private void replayJournal() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        long validBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            CountingReader reader = new CountingReader(in);
+            while (true) {
+                try {
+                    reader.readRecord();
+                } catch (EOFException e) {
+                    break;
+                }
+                validBytes = reader.bytesRead;
+                journalRecords++;
+            }
+        }
+        long fileBytes = Files.size(journalFile);
+        if (validBytes < fileBytes) {
+            log.warn("Truncating {} incomplete bytes at the end of blob metadata journal {}", fileBytes - validBytes, journalFile);
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+        log.debug("Loaded {} blobs from metadata journal {}", byName.size(), journalFile);
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    /*
+    Rewrite the journal with one record per blob, once most of its records are superseded.
+     */
+    private void compactIfNeeded() {
+        if (journalRecords < MIN_RECORDS_BEFORE_COMPACTION || journalRecords <= 2L * byName.size()) {
+            return;
+        }
+        Path compacted = journalFile.resolveSibling(journalFile.getFileName() + ".compact");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+                for (BlobMetadata metadata : byName.values()) {
+                    writeRecord(out, metadata);
+                }
+            }
+            journal.close();
+            Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = openJournal();
+            journalRecords = byName.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact blob metadata journal " + journalFile, e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, BlobMetadata metadata) throws IOException {
+        out.writeByte(PUT);
+        out.writeUTF(metadata.getName());
+        out.writeLong(metadata.getSizeBytes());
+        out.writeLong(metadata.getLastModified().getEpochSecond());
+        out.writeInt(metadata.getLastModified().getNano());
+        out.writeInt(metadata.getTags().size());
+        for (Map.Entry<String, String> tag : metadata.getTags().entrySet()) {
+            out.writeUTF(tag.getKey());
+            out.writeUTF(tag.getValue());
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Blob metadata index " + journalFile + " is closed");
+        }
+    }
+
+    /*
+    Replays records and tracks how many bytes the complete ones used.
+     */
+    private class CountingReader {
+        private final DataInputStream in;
+        private long bytesRead = 0;
+
+        CountingReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        void readRecord() throws IOException {
+            byte op = in.readByte();
+            long recordBytes = 1;
+            String name = in.readUTF();
+            recordBytes += utfBytes(name);
+            if (op == REMOVE) {
+                unindex(name);
+            } else if (op == PUT) {
+                long sizeBytes = in.readLong();
+                Instant lastModified = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                int tagCount = in.readInt();
+                recordBytes += 8 + 8 + 4 + 4;
+                Map<String, String> tags = new HashMap<>();
+                for (int i = 0; i < tagCount; i++) {
+                    String key = in.readUTF();
+                    String value = in.readUTF();
+                    recordBytes += utfBytes(key) + utfBytes(value);
+                    tags.put(key, value);
+                }
+                index(new BlobMetadata(name, tags, sizeBytes, lastModified));
+            } else {
+                throw new IOException("Corrupt blob metadata journal " + journalFile + ": unknown record type " + op);
+            }
+            bytesRead += recordBytes;
+        }
+
+        private long utfBytes(String value) {
+            long bytes = 2;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                bytes += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF ? 3 : 2);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * What the index knows about one blob.
+     */
+    public static final class BlobMetadata {
+        private final String name;
+        private final Map<String, String> tags;
+        private final long sizeBytes;
+        private final Instant lastModified;
+
+        /**
+         * @param tags      index tags, or {@code null} for none
+         * @param sizeBytes the blob size, or {@code -1} when not known
+         */
+        public BlobMetadata(String name, Map<String, String> tags, long sizeBytes, Instant lastModified) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.tags = tags == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(tags));
+            this.sizeBytes = sizeBytes;
+            this.lastModified = Objects.requireNonNull(lastModified, "lastModified");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public Instant getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BlobMetadata that = (BlobMetadata) o;
+            return sizeBytes == that.sizeBytes && name.equals(that.name) && tags.equals(that.tags)
+                    && lastModified.equals(that.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, tags, sizeBytes, lastModified);
+        }
+
+        @Override
+        public String toString() {
+            return "BlobMetadata{" +
+                    "name='" + name + '\'' +
+                    ", tags=" + tags +
+                    ", sizeBytes=" + sizeBytes +
+                    ", lastModified=" + lastModified +
+                    '}';
+        }
+    }
+}
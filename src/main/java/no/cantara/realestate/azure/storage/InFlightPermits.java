@@ -0,0 +1,109 @@
+package no.cantara.realestate.azure.storage;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many requests of an async client are outstanding, without blocking a thread while waiting.
+ *
+ * <p>A request that finds no permit free is parked in a queue and started when the next permit is released.
+ * The permit is released as the request terminates or is cancelled, before its result reaches downstream, so
+ * a caller that chains the next request onto the result finds the permit free again.
+ */
+final class InFlightPermits {
+
+    private final Object lock = new Object();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private int available;
+
+    InFlightPermits(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * @return the request, subscribed to once a permit is free
+     */
+    <T> Mono<T> withPermit(Supplier<Mono<T>> request) {
+        return acquire().flatMap(permit -> Mono.defer(request)
+                .doOnTerminate(permit::release)
+                .doOnCancel(permit::release));
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            sink.onCancel(() -> cancel(waiter));
+            Permit permit = null;
+            synchronized (lock) {
+                if (available > 0) {
+                    available--;
+                    permit = new Permit();
+                    waiter.permit = permit;
+                } else {
+                    waiters.add(waiter);
+                }
+            }
+            if (permit != null) {
+                sink.success(permit);
+            }
+        });
+    }
+
+    /*
+    Hand the permit to the longest waiting request, or return it to the pool when nobody waits.
+     */
+    private void release() {
+        Waiter next;
+        Permit permit;
+        synchronized (lock) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+            permit = new Permit();
+            next.permit = permit;
+        }
+        next.sink.success(permit);
+    }
+
+    /*
+    A waiter cancelled before it got a permit leaves the queue; one cancelled after gives its permit back.
+     */
+    private void cancel(Waiter waiter) {
+        Permit granted;
+        synchronized (lock) {
+            if (waiters.remove(waiter)) {
+                return;
+            }
+            granted = waiter.permit;
+        }
+        if (granted != null) {
+            granted.release();
+        }
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private Permit permit;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+    }
+
+    private final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                InFlightPermits.this.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.data.tables.models.TableEntity;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a batched write through {@link AzureTableClient#upsertRows} or {@link AzureTableClient#createEntities}:
+ * how many entities were written, and why each of the others was not.
+ */
+public class TableBatchResult {
+
+    private final int succeeded;
+    private final Map<TableEntity, Exception> failures;
+
+    TableBatchResult(int succeeded, Map<TableEntity, Exception> failures) {
+        this.succeeded = succeeded;
+        this.failures = Collections.unmodifiableMap(new IdentityHashMap<>(failures));
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return the entities that were not written, keyed by the instance passed in, with the error for each
+     */
+    public Map<TableEntity, Exception> getFailures() {
+        return failures;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "TableBatchResult{" +
+                "succeeded=" + succeeded +
+                ", failed=" + failures.size() +
+                '}';
+    }
+}
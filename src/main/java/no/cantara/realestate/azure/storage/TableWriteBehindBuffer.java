@@ -0,0 +1,224 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.data.tables.models.TableEntity;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Write-behind buffer for rows that are updated far more often than they need to be written, such as trend
+ * LastUpdatedAt rows that advance several times a minute.
+ *
+ * <p>{@link #updateRow(String, String, Map)} only records the properties; later updates of the same
+ * (PartitionKey, RowKey) are merged over earlier ones, so only the latest value of each property is kept. Dirty
+ * rows are written every {@code flushInterval}, on {@link #flush()} and on {@link #close()}, with
+ * {@link AzureTableClient#upsertRows} as partition-grouped batch transactions. Rows that fail to write stay
+ * buffered for the next flush, with any values set while the flush ran taking precedence.
+ *
+ * <p>Unlike {@link AzureTableClient#updateRow}, a flushed row is created if it does not exist. Updates still
+ * buffered when the process dies are lost; use {@link #registerShutdownHook()} to flush on a normal JVM exit.
+ * Thread-safe.
+ */
+public class TableWriteBehindBuffer implements AutoCloseable {
+    private static final Logger log = getLogger(TableWriteBehindBuffer.class);
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(30);
+    public static final int DEFAULT_MAX_PENDING_ROWS = 10_000;
+
+    private final AzureTableClient tableClient;
+    private final int maxPendingRows;
+    private final ScheduledExecutorService flushScheduler;
+
+    private final Object flushLock = new Object();
+    private Map<RowKey, Map<String, Object>> pending = new LinkedHashMap<>();
+    private final LongAdder updatesReceived = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder rowsFailed = new LongAdder();
+    private boolean closed = false;
+
+    public TableWriteBehindBuffer(AzureTableClient tableClient) {
+        this(tableClient, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_PENDING_ROWS);
+    }
+
+    /**
+     * @param flushInterval  how often dirty rows are written; zero or negative for only explicit flushes
+     * @param maxPendingRows when this many distinct rows are buffered, the update that reaches it flushes at once
+     */
+    public TableWriteBehindBuffer(AzureTableClient tableClient, Duration flushInterval, int maxPendingRows) {
+        if (maxPendingRows < 1) {
+            throw new IllegalArgumentException("maxPendingRows must be at least 1, was " + maxPendingRows);
+        }
+        this.tableClient = tableClient;
+        this.maxPendingRows = maxPendingRows;
+        if (flushInterval.isZero() || flushInterval.isNegative()) {
+            flushScheduler = null;
+        } else {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "table-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = flushInterval.toMillis();
+            flushScheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Record new property values for a row, to be written on the next flush.
+     */
+    public void updateRow(String partitionKey, String rowKey, Map<String, Object> properties) {
+        boolean flushNow;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Write-behind buffer is closed");
+            }
+            pending.computeIfAbsent(new RowKey(partitionKey, rowKey), key -> new HashMap<>()).putAll(properties);
+            updatesReceived.increment();
+            flushNow = pending.size() >= maxPendingRows;
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Write every buffered row now.
+     *
+     * @return the outcome of the write; rows in {@link TableBatchResult#getFailures()} are kept for the next flush
+     */
+    public TableBatchResult flush() {
+        synchronized (flushLock) {
+            Map<RowKey, Map<String, Object>> dirty;
+            synchronized (this) {
+                dirty = pending;
+                pending = new LinkedHashMap<>();
+            }
+            if (dirty.isEmpty()) {
+                return new TableBatchResult(0, Map.of());
+            }
+            List<TableEntity> entities = new ArrayList<>(dirty.size());
+            Map<TableEntity, RowKey> keys = new IdentityHashMap<>();
+            dirty.forEach((key, properties) -> {
+                TableEntity entity = AzureTableClient.toTableEntity(key.partitionKey, key.rowKey, properties);
+                entities.add(entity);
+                keys.put(entity, key);
+            });
+            TableBatchResult result;
+            try {
+                result = tableClient.upsertRows(entities);
+            } catch (RuntimeException e) {
+                rowsFailed.add(entities.size());
+                requeue(dirty, dirty.keySet());
+                throw e;
+            }
+            rowsWritten.add(result.getSucceeded());
+            if (!result.isSuccessful()) {
+                rowsFailed.add(result.getFailures().size());
+                List<RowKey> failed = new ArrayList<>();
+                result.getFailures().keySet().forEach(entity -> failed.add(keys.get(entity)));
+                requeue(dirty, failed);
+            }
+            log.debug("Flushed {} buffered rows, {} failed", entities.size(), result.getFailures().size());
+            return result;
+        }
+    }
+
+    /**
+     * Flush when the JVM shuts down normally.
+     */
+    public void registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "table-write-behind-shutdown"));
+    }
+
+    /**
+     * Stop the periodic flush and write what is buffered. Further updates are refused.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+        }
+        flushQuietly();
+    }
+
+    public synchronized int getPendingRows() {
+        return pending.size();
+    }
+
+    public long getUpdatesReceived() {
+        return updatesReceived.sum();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.sum();
+    }
+
+    /*
+    Put failed rows back, under any properties that were updated again while the flush ran.
+     */
+    private synchronized void requeue(Map<RowKey, Map<String, Object>> dirty, Collection<RowKey> failed) {
+        for (RowKey key : failed) {
+            Map<String, Object> newer = pending.get(key);
+            Map<String, Object> merged = new HashMap<>(dirty.get(key));
+            if (newer != null) {
+                merged.putAll(newer);
+            }
+            pending.put(key, merged);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Failed to flush write-behind buffer; {} rows stay buffered", getPendingRows(), e);
+        }
+    }
+
+    private static final class RowKey {
+        final String partitionKey;
+        final String rowKey;
+
+        RowKey(String partitionKey, String rowKey) {
+            this.partitionKey = partitionKey;
+            this.rowKey = rowKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RowKey other = (RowKey) o;
+            return partitionKey.equals(other.partitionKey) && rowKey.equals(other.rowKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(partitionKey, rowKey);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package no.cantara.realestate.azure.storage;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The only class that refers to zstd-jni. Loading it fails when zstd-jni is missing, so
+ * {@link BlobContentEncoding#ZSTD} only calls it after checking that zstd-jni is on the classpath.
+ */
+final class ZstdStreams {
+
+    private ZstdStreams() {
+    }
+
+    static OutputStream compress(OutputStream out) throws IOException {
+        return new ZstdOutputStream(out);
+    }
+
+    static InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in);
+    }
+}
@@ -0,0 +1,73 @@
+package no.cantara.realestate.azure;
+
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubClientException;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.azure.iot.MqttSendQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AzureObservationDistributionClientAsyncTest {
+
+    AzureDeviceClient azureDeviceClient;
+    AzureObservationDistributionClient distributionClient;
+
+    @BeforeEach
+    void setUp() {
+        azureDeviceClient = mock(AzureDeviceClient.class);
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+        distributionClient = new AzureObservationDistributionClient(azureDeviceClient);
+    }
+
+    @Test
+    void publishAsyncSendsOnTheDrainThread() throws Exception {
+        CompletableFuture<Void> future = distributionClient.publishAsync(buildStubObservation());
+        future.get(5, TimeUnit.SECONDS);
+        verify(azureDeviceClient).sendEventAsync(any(), any());
+        assertEquals(1, distributionClient.getNumberOfMessagesObserved());
+    }
+
+    @Test
+    void throttledPublishAsyncParksInsteadOfBlocking() {
+        distributionClient.registerFailure(
+                new IotHubClientException(IotHubStatusCode.THROTTLED, "slow down"),
+                buildStubObservation());
+        assertTrue(distributionClient.isThrottled());
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<Void> future = distributionClient.publishAsync(buildStubObservation());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertTrue(elapsedMillis < 500, "publishAsync must not wait out the back-off, took " + elapsedMillis + " ms");
+        assertFalse(future.isDone());
+        assertEquals(1, distributionClient.getNumberOfMessagesInSendQueue());
+        assertTrue(distributionClient.drainSendQueueUntilBlocked() > 0, "drainer should wait out the back-off");
+        verify(azureDeviceClient, never()).sendEventAsync(any(), any());
+    }
+
+    @Test
+    void overflowDropsAccordingToPolicy() {
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(false);
+        distributionClient.configureSendQueue(1, MqttSendQueue.OverflowPolicy.REJECT_NEW);
+
+        CompletableFuture<Void> parked = distributionClient.publishAsync(buildStubObservation());
+        CompletableFuture<Void> rejected = distributionClient.publishAsync(buildStubObservation());
+
+        assertFalse(parked.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, distributionClient.getNumberOfMessagesDroppedFromSendQueue());
+    }
+}
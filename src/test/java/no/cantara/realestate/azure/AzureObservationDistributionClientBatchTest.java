@@ -0,0 +1,82 @@
+package no.cantara.realestate.azure;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageSentCallback;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AzureObservationDistributionClientBatchTest {
+
+    AzureDeviceClient azureDeviceClient;
+    AzureObservationDistributionClient distributionClient;
+
+    @BeforeEach
+    void setUp() {
+        azureDeviceClient = mock(AzureDeviceClient.class);
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+        distributionClient = new AzureObservationDistributionClient(azureDeviceClient);
+        distributionClient.enableBatching(3, 200_000, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        distributionClient.closeConnection();
+    }
+
+    @Test
+    void observationsAreCoalescedIntoOneMessage() throws Exception {
+        distributionClient.publish(buildStubObservation());
+        distributionClient.publish(buildStubObservation());
+        verify(azureDeviceClient, never()).sendEventAsync(any(), any());
+        assertEquals(2, distributionClient.getNumberOfMessagesInQueue());
+
+        distributionClient.publish(buildStubObservation());
+
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(azureDeviceClient, times(1)).sendEventAsync(messageCaptor.capture(), any());
+        JsonNode payload = new ObjectMapper().readTree(messageCaptor.getValue().getBytes());
+        assertTrue(payload.isArray());
+        assertEquals(3, payload.size());
+        assertEquals("Building1", payload.get(0).get("building").asText());
+        assertEquals(3, distributionClient.getNumberOfMessagesObserved());
+    }
+
+    @Test
+    void ackCountsEveryObservationInTheBatch() {
+        for (int i = 0; i < 3; i++) {
+            distributionClient.publish(buildStubObservation());
+        }
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        ArgumentCaptor<MessageSentCallback> callbackCaptor = ArgumentCaptor.forClass(MessageSentCallback.class);
+        verify(azureDeviceClient).sendEventAsync(messageCaptor.capture(), callbackCaptor.capture());
+
+        Message sentMessage = messageCaptor.getValue();
+        callbackCaptor.getValue().onMessageSent(sentMessage, null, sentMessage);
+
+        assertEquals(3, distributionClient.getNumberOfMessagesPublished());
+        assertEquals(0, distributionClient.getNumberOfMessagesInQueue());
+        assertEquals(3, distributionClient.getObservedMessages().size());
+    }
+
+    @Test
+    void flushSendsPartialBatch() {
+        distributionClient.publish(buildStubObservation());
+        distributionClient.flush();
+        verify(azureDeviceClient, times(1)).sendEventAsync(any(), any());
+    }
+}
@@ -0,0 +1,117 @@
+package no.cantara.realestate.azure;
+
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageSentCallback;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubClientException;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.azure.iot.MqttSendFailureType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Many publisher threads against SDK callback threads acknowledging concurrently — no count may be lost.
+ */
+class AzureObservationDistributionClientConcurrencyTest {
+
+    private static final int PUBLISHER_THREADS = 8;
+    private static final int MESSAGES_PER_PUBLISHER = 5_000;
+    private static final int TOTAL_MESSAGES = PUBLISHER_THREADS * MESSAGES_PER_PUBLISHER;
+    // Every failure is logged at error level, so keep this run smaller.
+    private static final int FAILURES_PER_REPORTER = 500;
+
+    AzureDeviceClient azureDeviceClient;
+    AzureObservationDistributionClient distributionClient;
+    ExecutorService callbackThreads;
+    ExecutorService publisherThreads;
+
+    @BeforeEach
+    void setUp() {
+        callbackThreads = Executors.newFixedThreadPool(4);
+        publisherThreads = Executors.newFixedThreadPool(PUBLISHER_THREADS);
+        azureDeviceClient = mock(AzureDeviceClient.class);
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+        // Acknowledge every message from another thread, as the SDK does.
+        doAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            MessageSentCallback callback = invocation.getArgument(1);
+            callbackThreads.execute(() -> callback.onMessageSent(message, null, message));
+            return null;
+        }).when(azureDeviceClient).sendEventAsync(any(Message.class), any(MessageSentCallback.class));
+        distributionClient = new AzureObservationDistributionClient(azureDeviceClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisherThreads.shutdownNow();
+        callbackThreads.shutdownNow();
+    }
+
+    @Test
+    void concurrentPublishLosesNoCounts() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> publishers = new ArrayList<>();
+        for (int i = 0; i < PUBLISHER_THREADS; i++) {
+            publishers.add(publisherThreads.submit(() -> {
+                start.await();
+                for (int j = 0; j < MESSAGES_PER_PUBLISHER; j++) {
+                    distributionClient.publish(buildStubObservation());
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> publisher : publishers) {
+            publisher.get(60, TimeUnit.SECONDS);
+        }
+        callbackThreads.shutdown();
+        assertTrue(callbackThreads.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(TOTAL_MESSAGES, distributionClient.getNumberOfMessagesObserved());
+        assertEquals(TOTAL_MESSAGES, distributionClient.getNumberOfMessagesPublished());
+        assertEquals(0, distributionClient.getNumberOfMessagesFailed());
+        assertEquals(0, distributionClient.getMessagesAwaitingSentAckCollection().size());
+        assertEquals(0, distributionClient.getNumberOfMessagesInQueue());
+    }
+
+    @Test
+    void concurrentFailuresAreCountedPerType() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> reporters = new ArrayList<>();
+        for (int i = 0; i < PUBLISHER_THREADS; i++) {
+            reporters.add(publisherThreads.submit(() -> {
+                start.await();
+                for (int j = 0; j < FAILURES_PER_REPORTER; j++) {
+                    distributionClient.registerFailure(
+                            new IotHubClientException(IotHubStatusCode.BAD_FORMAT, "bad format"), null);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> reporter : reporters) {
+            reporter.get(60, TimeUnit.SECONDS);
+        }
+
+        assertEquals(PUBLISHER_THREADS * FAILURES_PER_REPORTER, distributionClient.getNumberOfMessagesFailed());
+        assertEquals(PUBLISHER_THREADS * FAILURES_PER_REPORTER, distributionClient.getNumberOfMessagesFailed(MqttSendFailureType.FATAL));
+        assertEquals(1, distributionClient.getFailureCountsByType().size());
+    }
+}
@@ -11,8 +11,11 @@ import no.cantara.realestate.azure.iot.MqttSendFailureType;
 import no.cantara.realestate.observations.ObservationMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 
+import java.nio.file.Path;
+
 import static no.cantara.realestate.azure.AzureObservationDistributionClient.MAX_CONSECUTIVE_CLIENT_DISCONNECT_ERRORS;
 import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
 import static org.junit.jupiter.api.Assertions.*;
@@ -150,6 +153,82 @@ class AzureObservationDistributionClientDisconnectedTest {
         assertFalse(distributionClient.isSendingStopped());
     }
 
+    /**
+     * Layer 1 with the spool enabled: the observation is kept for replay instead, so publish() does not
+     * invite a retry that would deliver it twice.
+     */
+    @Test
+    void disconnectedUpFront_withSpool_spoolsInsteadOfThrowing(@TempDir Path spoolDirectory) {
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(false);
+        distributionClient.enableSpool(spoolDirectory, 64 * 1024, 2, 10);
+
+        distributionClient.publish(buildStubObservation());
+
+        assertEquals(1, distributionClient.getNumberOfMessagesSpooled());
+        assertEquals(1, distributionClient.getNumberOfMessagesInSpool());
+        verify(azureDeviceClient, never()).sendEventAsync(any(), any());
+        distributionClient.closeConnection();
+    }
+
+    /**
+     * A spooled observation stays in the spool until a resend gets through, and a replay is not
+     * counted as a new observation.
+     */
+    @Test
+    void spoolReplay_keepsTheObservationUntilTheResendSucceeds(@TempDir Path spoolDirectory) {
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(false);
+        distributionClient.enableSpool(spoolDirectory, 64 * 1024, 2, 10);
+        distributionClient.publish(buildStubObservation());
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+
+        doThrow(new IllegalStateException("client is closed")).when(azureDeviceClient).sendEventAsync(any(), any());
+        distributionClient.replaySpool();
+        assertEquals(1, distributionClient.getNumberOfMessagesInSpool());
+
+        doNothing().when(azureDeviceClient).sendEventAsync(any(), any());
+        distributionClient.replaySpool();
+        assertEquals(0, distributionClient.getNumberOfMessagesInSpool());
+        verify(azureDeviceClient, times(2)).sendEventAsync(any(), any());
+        assertEquals(0, distributionClient.getNumberOfMessagesObserved());
+        distributionClient.closeConnection();
+    }
+
+    @Test
+    void spoolReplay_discardsAnObservationThatKeepsFailingToResend(@TempDir Path spoolDirectory) {
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(false);
+        distributionClient.enableSpool(spoolDirectory, 64 * 1024, 2, 10);
+        distributionClient.publish(buildStubObservation());
+        distributionClient.publish(buildStubObservation());
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+
+        doThrow(new IllegalArgumentException("message rejected")).when(azureDeviceClient).sendEventAsync(any(), any());
+        for (int i = 1; i < AzureObservationDistributionClient.MAX_SPOOL_REPLAY_ATTEMPTS; i++) {
+            distributionClient.replaySpool();
+            assertEquals(2, distributionClient.getNumberOfMessagesInSpool());
+        }
+        distributionClient.replaySpool();
+        assertEquals(1, distributionClient.getNumberOfMessagesDiscardedFromSpool());
+
+        doNothing().when(azureDeviceClient).sendEventAsync(any(), any());
+        distributionClient.replaySpool();
+        assertEquals(0, distributionClient.getNumberOfMessagesInSpool());
+        distributionClient.closeConnection();
+    }
+
+    @Test
+    void closeConnection_closesTheSpoolAndOpenConnectionReopensIt(@TempDir Path spoolDirectory) {
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(false);
+        distributionClient.enableSpool(spoolDirectory, 64 * 1024, 2, 10);
+        distributionClient.publish(buildStubObservation());
+
+        distributionClient.closeConnection();
+        assertEquals(0, distributionClient.getNumberOfMessagesInSpool());
+
+        distributionClient.openConnection();
+        assertEquals(1, distributionClient.getNumberOfMessagesInSpool());
+        distributionClient.closeConnection();
+    }
+
     /**
      * The message was accepted while connected; the connection
      * then dropped and the SDK exhausted its retries, delivering
@@ -0,0 +1,81 @@
+package no.cantara.realestate.azure;
+
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.azure.iot.DailyQuotaScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AzureObservationDistributionClientQuotaTest {
+
+    AzureDeviceClient azureDeviceClient;
+    AzureObservationDistributionClient distributionClient;
+
+    @BeforeEach
+    void setUp() {
+        azureDeviceClient = mock(AzureDeviceClient.class);
+        when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+        distributionClient = new AzureObservationDistributionClient(azureDeviceClient);
+        distributionClient.setHealthy();
+    }
+
+    @Test
+    void publishIsChargedAgainstTheDailyBudget() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(1_000, 100);
+        distributionClient.useDailyQuota(scheduler);
+
+        distributionClient.publish(buildStubObservation());
+        distributionClient.publish(buildStubObservation());
+
+        assertEquals(2, scheduler.getUnitsUsedToday());
+        verify(azureDeviceClient, times(2)).sendEventAsync(any(), any());
+    }
+
+    @Test
+    void publishIsRejectedWhenTheDailyBudgetIsSpent() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(1, 100);
+        distributionClient.useDailyQuota(scheduler);
+
+        distributionClient.publish(buildStubObservation());
+        distributionClient.publish(buildStubObservation());
+
+        assertEquals(1, distributionClient.getNumberOfMessagesRejected());
+        verify(azureDeviceClient, times(1)).sendEventAsync(any(), any());
+    }
+
+    @Test
+    void publishParksInTheSendQueueWhileTheBucketIsEmpty() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(1_000, 1);
+        distributionClient.useDailyQuota(scheduler);
+
+        long start = System.nanoTime();
+        distributionClient.publish(buildStubObservation());
+        distributionClient.publish(buildStubObservation());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 500, "publish() waited " + elapsedMillis + " ms for the quota");
+        verify(azureDeviceClient, times(1)).sendEventAsync(any(), any());
+        verify(azureDeviceClient, timeout(5_000).times(2)).sendEventAsync(any(), any());
+        assertEquals(0, distributionClient.getNumberOfMessagesRejected());
+    }
+
+    @Test
+    void quotaCanOnlyBeEnabledOnce() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(1_000, 100);
+        distributionClient.useDailyQuota(scheduler);
+
+        assertSame(scheduler, distributionClient.getDailyQuotaScheduler());
+        assertThrows(IllegalStateException.class, () -> distributionClient.useDailyQuota(scheduler));
+    }
+}
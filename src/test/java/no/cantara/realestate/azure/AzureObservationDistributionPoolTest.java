@@ -0,0 +1,111 @@
+package no.cantara.realestate.azure;
+
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageSentCallback;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubClientException;
+import no.cantara.realestate.azure.iot.AzureDeviceClient;
+import no.cantara.realestate.azure.iot.MqttSendFailureType;
+import no.cantara.realestate.observations.ObservationMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.cantara.realestate.azure.AzureObservationDistributionClientTest.buildStubObservation;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AzureObservationDistributionPoolTest {
+
+    private static final int NUMBER_OF_DEVICES = 3;
+
+    List<AzureDeviceClient> azureDeviceClients;
+    AzureObservationDistributionPool pool;
+
+    @BeforeEach
+    void setUp() {
+        azureDeviceClients = new ArrayList<>();
+        List<AzureObservationDistributionClient> distributionClients = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_DEVICES; i++) {
+            AzureDeviceClient azureDeviceClient = mock(AzureDeviceClient.class);
+            when(azureDeviceClient.isConnectionEstablished()).thenReturn(true);
+            doAnswer(invocation -> {
+                Message message = invocation.getArgument(0);
+                MessageSentCallback callback = invocation.getArgument(1);
+                callback.onMessageSent(message, null, message);
+                return null;
+            }).when(azureDeviceClient).sendEventAsync(any(Message.class), any(MessageSentCallback.class));
+            azureDeviceClients.add(azureDeviceClient);
+            distributionClients.add(new AzureObservationDistributionClient(azureDeviceClient));
+        }
+        pool = new AzureObservationDistributionPool(distributionClients, 160);
+    }
+
+    @Test
+    void sensorIsAlwaysPublishedThroughTheSameDevice() {
+        AzureObservationDistributionClient owner = pool.deviceClientFor("rec1");
+        for (int i = 0; i < 10; i++) {
+            pool.publish(observation("rec1"));
+        }
+        assertEquals(10, owner.getNumberOfMessagesPublished());
+        for (AzureObservationDistributionClient deviceClient : pool.getDeviceClients()) {
+            if (deviceClient != owner) {
+                assertEquals(0, deviceClient.getNumberOfMessagesPublished());
+            }
+        }
+    }
+
+    @Test
+    void aggregateStatsSumTheDevices() {
+        for (int i = 0; i < 300; i++) {
+            pool.publish(observation("rec" + i));
+        }
+        assertEquals(300, pool.getNumberOfMessagesObserved());
+        assertEquals(300, pool.getNumberOfMessagesPublished());
+        long perDeviceSum = 0;
+        for (AzureObservationDistributionClient deviceClient : pool.getDeviceClients()) {
+            assertTrue(deviceClient.getNumberOfMessagesPublished() > 0, "every device should carry some sensors");
+            perDeviceSum += deviceClient.getNumberOfMessagesPublished();
+        }
+        assertEquals(300, perDeviceSum);
+        assertNotNull(pool.getWhenLastMessageDistributed());
+    }
+
+    @Test
+    void stoppedDeviceOnlyAffectsItsOwnSensors() {
+        AzureObservationDistributionClient stopped = pool.deviceClientFor("rec1");
+        stopped.registerFailure(new IotHubClientException(IotHubStatusCode.QUOTA_EXCEEDED, "quota gone"), null);
+
+        assertTrue(stopped.isSendingStopped());
+        assertTrue(pool.isSendingStopped());
+        assertFalse(pool.isHealthy());
+        assertEquals(1, pool.getFailureCountsByType().get(MqttSendFailureType.QUOTA_EXCEEDED));
+
+        String otherSensor = null;
+        for (int i = 0; otherSensor == null; i++) {
+            if (pool.deviceClientFor("rec" + i) != stopped) {
+                otherSensor = "rec" + i;
+            }
+        }
+        pool.publish(observation(otherSensor));
+        assertEquals(1, pool.deviceClientFor(otherSensor).getNumberOfMessagesPublished());
+    }
+
+    @Test
+    void parseConnectionStrings() {
+        assertEquals(List.of("HostName=a", "HostName=b"),
+                AzureObservationDistributionPool.parseConnectionStrings(" HostName=a, ,HostName=b "));
+        assertTrue(AzureObservationDistributionPool.parseConnectionStrings("").isEmpty());
+    }
+
+    private static ObservationMessage observation(String sensorId) {
+        ObservationMessage observationMessage = buildStubObservation();
+        observationMessage.setSensorId(sensorId);
+        return observationMessage;
+    }
+}
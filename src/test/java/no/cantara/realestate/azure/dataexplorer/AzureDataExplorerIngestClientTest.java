@@ -0,0 +1,115 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.microsoft.azure.kusto.ingest.IngestClient;
+import com.microsoft.azure.kusto.ingest.IngestionProperties;
+import com.microsoft.azure.kusto.ingest.exceptions.IngestionServiceException;
+import com.microsoft.azure.kusto.ingest.source.CompressionType;
+import com.microsoft.azure.kusto.ingest.source.StreamSourceInfo;
+import no.cantara.realestate.observations.ObservationMessage;
+import no.cantara.realestate.observations.ObservationMessageBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AzureDataExplorerIngestClientTest {
+
+    IngestClient streamingClient;
+    IngestClient queuedClient;
+
+    @BeforeEach
+    void setUp() {
+        streamingClient = mock(IngestClient.class);
+        queuedClient = mock(IngestClient.class);
+    }
+
+    @Test
+    void smallBatchIsStreamedAsGzippedJsonLines() throws Exception {
+        AzureDataExplorerIngestClient ingestClient = new AzureDataExplorerIngestClient(streamingClient, queuedClient,
+                "telemetry", "RealestateTelemetry", "JsonTelemetryMapping", 4 * 1024 * 1024, 64 * 1024 * 1024);
+
+        long submitted = ingestClient.ingest(Stream.of(observation("sensor-1"), observation("sensor-2")));
+
+        assertEquals(2, submitted);
+        ArgumentCaptor<StreamSourceInfo> source = ArgumentCaptor.forClass(StreamSourceInfo.class);
+        ArgumentCaptor<IngestionProperties> properties = ArgumentCaptor.forClass(IngestionProperties.class);
+        verify(streamingClient).ingestFromStream(source.capture(), properties.capture());
+        verifyNoInteractions(queuedClient);
+        assertEquals(CompressionType.gz, source.getValue().getCompressionType());
+        List<String> lines = gunzipLines(source.getValue());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("sensor-1"));
+        assertTrue(lines.get(1).contains("sensor-2"));
+        assertEquals("RealestateTelemetry", properties.getValue().getTableName());
+        assertEquals(IngestionProperties.DataFormat.MULTIJSON, properties.getValue().getDataFormat());
+        assertEquals(1, ingestClient.getBatchesStreamed());
+    }
+
+    @Test
+    void largeBatchesAreQueued() throws Exception {
+        AzureDataExplorerIngestClient ingestClient = new AzureDataExplorerIngestClient(streamingClient, queuedClient,
+                "telemetry", "RealestateTelemetry", "JsonTelemetryMapping", 1024, 8 * 1024);
+
+        long submitted = ingestClient.ingest(IntStream.range(0, 100).mapToObj(i -> observation("sensor-" + i)));
+
+        assertEquals(100, submitted);
+        verifyNoInteractions(streamingClient);
+        assertTrue(ingestClient.getBatchesQueued() > 1);
+        verify(queuedClient, times((int) ingestClient.getBatchesQueued())).ingestFromStream(any(), any());
+        assertEquals(100, ingestClient.getObservationsIngested());
+    }
+
+    @Test
+    void refusedStreamingFallsBackToQueued() throws Exception {
+        when(streamingClient.ingestFromStream(any(), any())).thenThrow(IngestionServiceException.class);
+        AzureDataExplorerIngestClient ingestClient = new AzureDataExplorerIngestClient(streamingClient, queuedClient,
+                "telemetry", "RealestateTelemetry", "JsonTelemetryMapping", 4 * 1024 * 1024, 64 * 1024 * 1024);
+
+        ingestClient.ingest(Stream.of(observation("sensor-1")));
+
+        ArgumentCaptor<StreamSourceInfo> source = ArgumentCaptor.forClass(StreamSourceInfo.class);
+        verify(queuedClient).ingestFromStream(source.capture(), any());
+        assertEquals(1, gunzipLines(source.getValue()).size());
+        assertEquals(0, ingestClient.getBatchesStreamed());
+        assertEquals(1, ingestClient.getBatchesQueued());
+    }
+
+    @Test
+    void ingestUriIsDerivedFromClusterUri() {
+        assertEquals("https://ingest-mycluster.westeurope.kusto.windows.net",
+                AzureDataExplorerIngestClient.ingestUri("https://mycluster.westeurope.kusto.windows.net"));
+    }
+
+    private static List<String> gunzipLines(StreamSourceInfo source) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(source.getStream()), StandardCharsets.UTF_8))) {
+            return reader.lines().toList();
+        }
+    }
+
+    private static ObservationMessage observation(String sensorId) {
+        return new ObservationMessageBuilder()
+                .withSensorId(sensorId)
+                .withRealEstate("RE1")
+                .withBuilding("B1")
+                .withFloor("01")
+                .withSensorType("temp")
+                .withMeasurementUnit("C")
+                .withValue(21.5)
+                .withObservationTime(Instant.parse("2024-03-01T12:00:00Z"))
+                .withReceivedAt(Instant.parse("2024-03-01T12:00:01Z"))
+                .build();
+    }
+}
@@ -0,0 +1,107 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.microsoft.azure.kusto.data.Client;
+import com.microsoft.azure.kusto.data.KustoResultColumn;
+import com.microsoft.azure.kusto.data.KustoResultSetTable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class KustoResultStreamingTest {
+
+    AzureDataExplorerClient dataExplorerClient;
+
+    @BeforeEach
+    void setUp() {
+        dataExplorerClient = new AzureDataExplorerClient(mock(Client.class), "telemetry");
+    }
+
+    @Test
+    void rowsAreStreamedAndReadByIndex() {
+        KustoResultSetTable resultSet = resultSet(
+                new String[][]{{"sensorId", "string"}, {"value", "real"}},
+                new Object[]{"sensor-1", 21.5},
+                new Object[]{"sensor-2", null});
+
+        List<KustoRow> rows = dataExplorerClient.streamRows(resultSet).collect(Collectors.toList());
+
+        assertEquals(2, rows.size());
+        assertEquals("sensor-1", rows.get(0).getString("sensorId"));
+        assertEquals(21.5, rows.get(0).getDouble("value"));
+        assertTrue(rows.get(1).isNull(rows.get(1).columnIndex("value")));
+        assertTrue(Double.isNaN(rows.get(1).getDouble("value")));
+        verify(resultSet, never()).getObject(anyString());
+    }
+
+    @Test
+    void streamReadsOnlyWhatIsConsumed() {
+        KustoResultSetTable resultSet = resultSet(
+                new String[][]{{"sensorId", "string"}},
+                new Object[]{"sensor-1"},
+                new Object[]{"sensor-2"},
+                new Object[]{"sensor-3"});
+
+        assertEquals("sensor-1", dataExplorerClient.streamRows(resultSet).findFirst().get().get(0));
+        verify(resultSet, times(1)).next();
+    }
+
+    @Test
+    void mapToListKeepsColumnOrder() {
+        KustoResultSetTable resultSet = resultSet(
+                new String[][]{{"sensorId", "string"}, {"value", "real"}},
+                new Object[]{"sensor-1", 21.5});
+
+        List<Map<String, Object>> rows = dataExplorerClient.mapToList(resultSet);
+
+        assertEquals(List.of("sensorId", "value"), List.copyOf(rows.get(0).keySet()));
+        assertEquals(21.5, rows.get(0).get("value"));
+    }
+
+    @Test
+    void numericColumnsAreHeldAsPrimitiveArrays() {
+        Object[][] rows = new Object[3000][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Object[]{"sensor-" + i, i % 100 == 0 ? null : (double) i, (long) i};
+        }
+        KustoResultSetTable resultSet = resultSet(
+                new String[][]{{"sensorId", "string"}, {"value", "real"}, {"count", "long"}}, rows);
+
+        KustoColumnarResult result = KustoColumnarResult.from(resultSet);
+
+        assertEquals(3000, result.getRowCount());
+        assertFalse(result.isNumeric("sensorId"));
+        double[] values = result.getDoubleColumn("value");
+        assertEquals(3000, values.length);
+        assertEquals(2999.0, values[2999]);
+        assertTrue(result.isNull("value", 100));
+        assertTrue(Double.isNaN(values[100]));
+        assertNull(result.getColumn("value")[100]);
+        assertEquals(42.0, result.getDoubleColumn("count")[42]);
+        assertEquals("sensor-7", result.getColumn("sensorId")[7]);
+        assertThrows(IllegalArgumentException.class, () -> result.getDoubleColumn("sensorId"));
+    }
+
+    private static KustoResultSetTable resultSet(String[][] columnDefinitions, Object[]... rows) {
+        KustoResultColumn[] columns = Arrays.stream(columnDefinitions).map(definition -> {
+            KustoResultColumn column = mock(KustoResultColumn.class);
+            when(column.getColumnName()).thenReturn(definition[0]);
+            when(column.getColumnType()).thenReturn(definition[1]);
+            return column;
+        }).toArray(KustoResultColumn[]::new);
+        KustoResultSetTable resultSet = mock(KustoResultSetTable.class);
+        AtomicInteger current = new AtomicInteger(-1);
+        when(resultSet.getColumns()).thenReturn(columns);
+        when(resultSet.next()).thenAnswer(invocation -> current.incrementAndGet() < rows.length);
+        when(resultSet.getObject(anyInt())).thenAnswer(invocation -> rows[current.get()][(int) invocation.getArgument(0)]);
+        return resultSet;
+    }
+}
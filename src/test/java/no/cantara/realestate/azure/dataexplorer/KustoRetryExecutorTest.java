@@ -0,0 +1,95 @@
+package no.cantara.realestate.azure.dataexplorer;
+
+import com.microsoft.azure.kusto.data.Client;
+import com.microsoft.azure.kusto.data.KustoOperationResult;
+import com.microsoft.azure.kusto.data.KustoResultSetTable;
+import com.microsoft.azure.kusto.data.exceptions.DataServiceException;
+import com.microsoft.azure.kusto.data.exceptions.ThrottleException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class KustoRetryExecutorTest {
+
+    final List<Long> sleeps = new ArrayList<>();
+    KustoRetryExecutor retryExecutor;
+
+    @BeforeEach
+    void setUp() {
+        retryExecutor = new KustoRetryExecutor(4, Duration.ofSeconds(1), Duration.ofSeconds(30), sleeps::add);
+    }
+
+    @Test
+    void throttledCallIsRetriedWithGrowingBackoff() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = retryExecutor.execute("test", () -> {
+            if (calls.incrementAndGet() < 4) {
+                throw mock(ThrottleException.class);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, retryExecutor.getThrottledAttempts());
+        assertEquals(3, sleeps.size());
+        assertTrue(sleeps.get(0) >= 500 && sleeps.get(0) <= 1000, "first wait " + sleeps.get(0));
+        assertTrue(sleeps.get(1) >= 1000 && sleeps.get(1) <= 2000, "second wait " + sleeps.get(1));
+        assertTrue(sleeps.get(2) >= 2000 && sleeps.get(2) <= 4000, "third wait " + sleeps.get(2));
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        ThrottleException throttled = mock(ThrottleException.class);
+
+        assertSame(throttled, assertThrows(ThrottleException.class,
+                () -> retryExecutor.execute("test", () -> {
+                    throw throttled;
+                })));
+        assertEquals(4, retryExecutor.getThrottledAttempts());
+        assertEquals(1, retryExecutor.getRetriesExhausted());
+        assertEquals(3, sleeps.size());
+    }
+
+    @Test
+    void otherErrorsAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(DataServiceException.class, () -> retryExecutor.execute("test", () -> {
+            calls.incrementAndGet();
+            throw mock(DataServiceException.class);
+        }));
+        assertEquals(1, calls.get());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    void backoffIsCappedAndHonoursRetryAfter() {
+        long capped = retryExecutor.backoffMillis(20, 0);
+        assertTrue(capped >= 15_000 && capped <= 30_000, "capped wait " + capped);
+        assertEquals(10_000, retryExecutor.backoffMillis(1, 10_000));
+    }
+
+    @Test
+    void runQueryReturnsTheResultOfTheRetriedQuery() throws Exception {
+        Client kustoClient = mock(Client.class);
+        KustoOperationResult response = mock(KustoOperationResult.class);
+        KustoResultSetTable primaryResults = mock(KustoResultSetTable.class);
+        when(response.getPrimaryResults()).thenReturn(primaryResults);
+        when(kustoClient.executeQuery("telemetry", "observations | take 2"))
+                .thenThrow(mock(ThrottleException.class))
+                .thenReturn(response);
+        AzureDataExplorerClient dataExplorerClient = new AzureDataExplorerClient(kustoClient, "telemetry", retryExecutor);
+
+        assertSame(primaryResults, dataExplorerClient.runQuery("observations | take 2"));
+        verify(kustoClient, times(2)).executeQuery("telemetry", "observations | take 2");
+        assertEquals(1, sleeps.size());
+    }
+}
@@ -0,0 +1,98 @@
+package no.cantara.realestate.azure.iot;
+
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+import com.microsoft.azure.sdk.iot.device.MultiplexingClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.microsoft.azure.sdk.iot.device.transport.IotHubConnectionStatus.CONNECTED;
+import static com.microsoft.azure.sdk.iot.device.IotHubConnectionStatusChangeReason.CONNECTION_OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+class AmqpMultiplexedDevicesTest {
+
+    private static final String HOST_NAME = "test-hub.azure-devices.net";
+
+    MultiplexingClient multiplexingClient;
+    AmqpMultiplexedDevices multiplexedDevices;
+
+    @BeforeEach
+    void setUp() {
+        multiplexingClient = mock(MultiplexingClient.class);
+        multiplexedDevices = new AmqpMultiplexedDevices(HOST_NAME,
+                new IotHubTransportSettings(IotHubClientProtocol.AMQPS, 30, 10, 10), multiplexingClient);
+    }
+
+    @Test
+    void devicesShareOneConnection() throws Exception {
+        AzureDeviceClient first = multiplexedDevices.addDevice(connectionString("device1"));
+        AzureDeviceClient second = multiplexedDevices.addDevice(connectionString("device2"));
+
+        first.openConnection();
+        second.openConnection();
+
+        verify(multiplexingClient, times(1)).registerDeviceClients(anyIterable());
+        verify(multiplexingClient, times(1)).open(anyBoolean());
+        assertTrue(multiplexedDevices.isOpen());
+        assertEquals(2, multiplexedDevices.getDeviceClients().size());
+        // Connected only once the SDK reports it for the device.
+        assertFalse(first.isConnectionEstablished());
+        first.handleConnectionStatusChange(CONNECTED, CONNECTION_OK, null);
+        second.handleConnectionStatusChange(CONNECTED, CONNECTION_OK, null);
+        assertTrue(first.isConnectionEstablished());
+        assertTrue(second.isConnectionEstablished());
+
+        first.closeConnection();
+        verify(multiplexingClient, times(1)).close();
+        assertFalse(multiplexedDevices.isOpen());
+        assertFalse(first.isConnectionEstablished());
+        assertFalse(second.isConnectionEstablished());
+    }
+
+    @Test
+    void reopeningDoesNotRegisterTheDevicesAgain() throws Exception {
+        AzureDeviceClient first = multiplexedDevices.addDevice(connectionString("device1"));
+
+        first.openConnection();
+        first.closeConnection();
+        first.openConnection();
+
+        verify(multiplexingClient, times(1)).registerDeviceClients(anyIterable());
+        verify(multiplexingClient, times(2)).open(anyBoolean());
+        assertTrue(multiplexedDevices.isOpen());
+        assertThrows(IllegalStateException.class, () -> multiplexedDevices.addDevice(connectionString("device2")));
+    }
+
+    @Test
+    void devicesCannotBeAddedOnceOpen() {
+        multiplexedDevices.addDevice(connectionString("device1"));
+        multiplexedDevices.open();
+        assertThrows(IllegalStateException.class, () -> multiplexedDevices.addDevice(connectionString("device2")));
+    }
+
+    @Test
+    void deviceMustBelongToTheSameHub() {
+        assertThrows(IllegalArgumentException.class, () -> multiplexedDevices.addDevice(
+                "HostName=other-hub.azure-devices.net;DeviceId=device1;SharedAccessKey=c2VjcmV0a2V5"));
+    }
+
+    @Test
+    void multiplexingRequiresAmqp() {
+        assertThrows(IllegalArgumentException.class, () -> new AmqpMultiplexedDevices(HOST_NAME,
+                new IotHubTransportSettings(IotHubClientProtocol.MQTT, 30, 10, 10), multiplexingClient));
+    }
+
+    @Test
+    void hostNameOf() {
+        assertEquals(HOST_NAME, AmqpMultiplexedDevices.hostNameOf(connectionString("device1")));
+        assertNull(AmqpMultiplexedDevices.hostNameOf("DeviceId=device1;SharedAccessKey=c2VjcmV0a2V5"));
+        assertNull(AmqpMultiplexedDevices.hostNameOf(null));
+    }
+
+    private static String connectionString(String deviceId) {
+        return "HostName=" + HOST_NAME + ";DeviceId=" + deviceId + ";SharedAccessKey=c2VjcmV0a2V5";
+    }
+}
@@ -0,0 +1,112 @@
+package no.cantara.realestate.azure.iot;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DailyQuotaSchedulerTest {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    @Test
+    void billingUnitsAreStarted4KbBlocks() {
+        assertEquals(1, DailyQuotaScheduler.billingUnits(0));
+        assertEquals(1, DailyQuotaScheduler.billingUnits(4096));
+        assertEquals(2, DailyQuotaScheduler.billingUnits(4097));
+        assertEquals(63, DailyQuotaScheduler.billingUnits(252 * 1024));
+    }
+
+    @Test
+    void burstIsLimitedToOneSecondOfSends() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(400_000, 10, now::get);
+        int sent = 0;
+        for (int i = 0; i < 100; i++) {
+            if (scheduler.millisUntilNextSend() == 0) {
+                scheduler.recordSent(500);
+                sent++;
+            }
+        }
+        assertEquals(10, sent);
+        assertTrue(scheduler.millisUntilNextSend() > 0);
+    }
+
+    @Test
+    void budgetIsSpreadOverTheWholeDay() {
+        // One message per second on average, with a per-second limit of 10.
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(86_400, 10, now::get);
+        long sentBeforeNoon = 0;
+        long sent = 0;
+        while (now.get() < DAY_MILLIS) {
+            long waitMillis = scheduler.millisUntilNextSend();
+            if (waitMillis == 0) {
+                scheduler.recordSent(200);
+                sent++;
+                if (now.get() < DAY_MILLIS / 2) {
+                    sentBeforeNoon++;
+                }
+            } else {
+                now.addAndGet(waitMillis);
+            }
+        }
+        assertEquals(86_400, sent);
+        assertTrue(Math.abs(sentBeforeNoon - 43_200) < 100, "sent " + sentBeforeNoon + " before noon");
+    }
+
+    @Test
+    void largeMessageOverdrawsAndDelaysTheNextSend() {
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(86_400, 5, now::get);
+        assertEquals(0, scheduler.millisUntilNextSend());
+        scheduler.recordSent(10 * DailyQuotaScheduler.BILLING_UNIT_BYTES);
+        assertEquals(10, scheduler.getUnitsUsedToday());
+        // 5 tokens - 10 units = 5 units of debt, repaid at about one unit per second.
+        long waitMillis = scheduler.millisUntilNextSend();
+        assertTrue(waitMillis > 4_000 && waitMillis <= 5_100, "waited " + waitMillis);
+    }
+
+    @Test
+    void exhaustedBudgetWaitsForUtcMidnightAndResets() {
+        now.set(DAY_MILLIS - 60_000);
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(3, 100, now::get);
+        for (int i = 0; i < 3; i++) {
+            scheduler.recordSent(100);
+        }
+        assertTrue(scheduler.isDailyBudgetExhausted());
+        assertEquals(0, scheduler.getRemainingDailyBudget());
+        assertEquals(60_000, scheduler.millisUntilNextSend());
+        assertEquals(Instant.ofEpochMilli(now.get()), scheduler.getProjectedExhaustion());
+
+        now.set(DAY_MILLIS);
+        assertFalse(scheduler.isDailyBudgetExhausted());
+        assertEquals(3, scheduler.getRemainingDailyBudget());
+        assertEquals(0, scheduler.getUnitsUsedToday());
+    }
+
+    @Test
+    void projectedExhaustionFollowsTodaysRate() {
+        now.set(DAY_MILLIS / 4);
+        DailyQuotaScheduler scheduler = new DailyQuotaScheduler(1_000, 100, now::get);
+        assertNull(scheduler.getProjectedExhaustion());
+
+        // 500 units in the first 6 hours: the rest lasts another 6 hours, until noon UTC.
+        for (int i = 0; i < 500; i++) {
+            scheduler.recordSent(100);
+        }
+        assertEquals(Instant.ofEpochMilli(DAY_MILLIS / 2), scheduler.getProjectedExhaustion());
+
+        // Slow usage lasts past midnight.
+        DailyQuotaScheduler slow = new DailyQuotaScheduler(1_000, 100, now::get);
+        slow.recordSent(100);
+        assertNull(slow.getProjectedExhaustion());
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new DailyQuotaScheduler(0, 10, now::get));
+        assertThrows(IllegalArgumentException.class, () -> new DailyQuotaScheduler(100, 0, now::get));
+    }
+}
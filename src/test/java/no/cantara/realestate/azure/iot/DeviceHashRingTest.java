@@ -0,0 +1,62 @@
+package no.cantara.realestate.azure.iot;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceHashRingTest {
+
+    @Test
+    void sameSensorAlwaysRoutesToSameDevice() {
+        DeviceHashRing ring = new DeviceHashRing(4);
+        DeviceHashRing rebuilt = new DeviceHashRing(4);
+        for (int i = 0; i < 1000; i++) {
+            String sensorId = "sensor-" + i;
+            int device = ring.deviceFor(sensorId);
+            assertEquals(device, ring.deviceFor(sensorId));
+            assertEquals(device, rebuilt.deviceFor(sensorId));
+            assertTrue(device >= 0 && device < 4);
+        }
+    }
+
+    @Test
+    void loadIsSpreadOverAllDevices() {
+        int numberOfDevices = 4;
+        int numberOfSensors = 20_000;
+        DeviceHashRing ring = new DeviceHashRing(numberOfDevices);
+        int[] sensorsPerDevice = new int[numberOfDevices];
+        for (int i = 0; i < numberOfSensors; i++) {
+            sensorsPerDevice[ring.deviceFor("rec" + i)]++;
+        }
+        int expected = numberOfSensors / numberOfDevices;
+        for (int device = 0; device < numberOfDevices; device++) {
+            assertTrue(Math.abs(sensorsPerDevice[device] - expected) < expected * 0.2,
+                    "device " + device + " got " + sensorsPerDevice[device] + " of " + numberOfSensors + " sensors");
+        }
+    }
+
+    @Test
+    void addingADeviceOnlyMovesSensorsToTheNewDevice() {
+        DeviceHashRing three = new DeviceHashRing(3);
+        DeviceHashRing four = new DeviceHashRing(4);
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String sensorId = "rec" + i;
+            int before = three.deviceFor(sensorId);
+            int after = four.deviceFor(sensorId);
+            if (before != after) {
+                assertEquals(3, after, "a sensor may only move to the new device");
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 3_500, "expected about a quarter of the sensors to move, moved " + moved);
+    }
+
+    @Test
+    void singleDeviceAndNullKey() {
+        assertEquals(0, new DeviceHashRing(1).deviceFor("rec1"));
+        DeviceHashRing ring = new DeviceHashRing(3);
+        assertEquals(ring.deviceFor(""), ring.deviceFor(null));
+        assertThrows(IllegalArgumentException.class, () -> new DeviceHashRing(0));
+    }
+}
@@ -0,0 +1,33 @@
+package no.cantara.realestate.azure.iot;
+
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IotHubTransportSettingsTest {
+
+    @Test
+    void defaultsKeepMqttOverWebSockets() {
+        IotHubTransportSettings settings = new IotHubTransportSettings();
+        assertEquals(IotHubClientProtocol.MQTT_WS, settings.getProtocol());
+        assertEquals(30, settings.getKeepAliveSeconds());
+        assertFalse(settings.isAmqp());
+    }
+
+    @Test
+    void amqpProtocolsCanBeMultiplexed() {
+        assertTrue(new IotHubTransportSettings(IotHubClientProtocol.AMQPS, 30, 10, 10).isAmqp());
+        assertTrue(new IotHubTransportSettings(IotHubClientProtocol.AMQPS_WS, 30, 10, 10).isAmqp());
+        assertFalse(new IotHubTransportSettings(IotHubClientProtocol.MQTT, 30, 10, 10).isAmqp());
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new IotHubTransportSettings(null, 30, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new IotHubTransportSettings(IotHubClientProtocol.HTTPS, 30, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new IotHubTransportSettings(IotHubClientProtocol.MQTT, 0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new IotHubTransportSettings(IotHubClientProtocol.MQTT, 30, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new IotHubTransportSettings(IotHubClientProtocol.MQTT, 30, 10, 0));
+    }
+}
@@ -0,0 +1,56 @@
+package no.cantara.realestate.azure.iot;
+
+import no.cantara.realestate.observations.ObservationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class MqttSendQueueTest {
+
+    @Test
+    void pollsInFifoOrder() {
+        MqttSendQueue queue = new MqttSendQueue(10, MqttSendQueue.OverflowPolicy.REJECT_NEW);
+        ObservationMessage first = mock(ObservationMessage.class);
+        ObservationMessage second = mock(ObservationMessage.class);
+        queue.offer(first);
+        queue.offer(second);
+        assertEquals(2, queue.size());
+        assertSame(first, queue.poll().getObservationMessage());
+        assertSame(second, queue.poll().getObservationMessage());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void rejectNewCompletesTheNewFutureExceptionally() {
+        MqttSendQueue queue = new MqttSendQueue(1, MqttSendQueue.OverflowPolicy.REJECT_NEW);
+        ObservationMessage kept = mock(ObservationMessage.class);
+        CompletableFuture<Void> keptFuture = queue.offer(kept);
+        CompletableFuture<Void> rejectedFuture = queue.offer(mock(ObservationMessage.class));
+
+        assertTrue(rejectedFuture.isCompletedExceptionally());
+        assertFalse(keptFuture.isDone());
+        assertEquals(1, queue.getNumberOfMessagesDropped());
+        assertSame(kept, queue.poll().getObservationMessage());
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheNewMessage() {
+        MqttSendQueue queue = new MqttSendQueue(1, MqttSendQueue.OverflowPolicy.DROP_OLDEST);
+        CompletableFuture<Void> oldestFuture = queue.offer(mock(ObservationMessage.class));
+        ObservationMessage newest = mock(ObservationMessage.class);
+        CompletableFuture<Void> newestFuture = queue.offer(newest);
+
+        assertTrue(oldestFuture.isCompletedExceptionally());
+        assertFalse(newestFuture.isDone());
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getNumberOfMessagesDropped());
+        assertSame(newest, queue.poll().getObservationMessage());
+    }
+}
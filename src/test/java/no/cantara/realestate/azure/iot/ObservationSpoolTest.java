@@ -0,0 +1,168 @@
+package no.cantara.realestate.azure.iot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObservationSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] record(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(byte[] record) {
+        return record == null ? null : new String(record, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void peekLeavesTheRecordUntilItIsRemoved() throws Exception {
+        // Room for one record per segment, so remove() moves on to the next segment.
+        try (ObservationSpool spool = new ObservationSpool(directory, 24, 4)) {
+            spool.append(record("first"));
+            spool.append(record("second"));
+            assertEquals("first", read(spool.peek()));
+            assertEquals("first", read(spool.peek()));
+            assertEquals(2, spool.getNumberOfRecordsPending());
+            assertTrue(spool.remove());
+            assertEquals("second", read(spool.peek()));
+            assertTrue(spool.remove());
+            assertNull(spool.peek());
+            assertFalse(spool.remove());
+            assertEquals(0, spool.getNumberOfRecordsPending());
+        }
+    }
+
+    @Test
+    void pollsRecordsInAppendOrder() throws Exception {
+        try (ObservationSpool spool = new ObservationSpool(directory, 1024, 4)) {
+            spool.append(record("first"));
+            spool.append(record("second"));
+            assertEquals(2, spool.getNumberOfRecordsPending());
+            assertEquals("first", read(spool.poll()));
+            assertEquals("second", read(spool.poll()));
+            assertNull(spool.poll());
+            assertEquals(0, spool.getNumberOfRecordsPending());
+        }
+    }
+
+    @Test
+    void rollsOverToNewSegmentsAndDeletesReadOnes() throws Exception {
+        try (ObservationSpool spool = new ObservationSpool(directory, 64, 10)) {
+            for (int i = 0; i < 10; i++) {
+                spool.append(record("observation-" + i));
+            }
+            assertTrue(segmentCount() > 1);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("observation-" + i, read(spool.poll()));
+            }
+            assertNull(spool.poll());
+            assertEquals(1, segmentCount());
+        }
+    }
+
+    @Test
+    void survivesRestart() throws Exception {
+        try (ObservationSpool spool = new ObservationSpool(directory, 64, 10)) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(record("observation-" + i));
+            }
+            assertEquals("observation-0", read(spool.poll()));
+        }
+        try (ObservationSpool reopened = new ObservationSpool(directory, 64, 10)) {
+            assertEquals(4, reopened.getNumberOfRecordsPending());
+            assertEquals("observation-1", read(reopened.poll()));
+            reopened.append(record("after-restart"));
+            assertEquals("observation-2", read(reopened.poll()));
+            assertEquals("observation-3", read(reopened.poll()));
+            assertEquals("observation-4", read(reopened.poll()));
+            assertEquals("after-restart", read(reopened.poll()));
+        }
+    }
+
+    @Test
+    void survivesRestartAcrossSeveralSegments() throws Exception {
+        try (ObservationSpool spool = new ObservationSpool(directory, 64, 10)) {
+            for (int i = 0; i < 10; i++) {
+                spool.append(record("observation-" + i));
+            }
+        }
+        assertEquals(4, segmentCount());
+        ObservationSpool reopened = new ObservationSpool(directory, 64, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("observation-" + i, read(reopened.poll()));
+        }
+        reopened.close();
+        assertThrows(IllegalStateException.class, reopened::poll);
+    }
+
+    @Test
+    void truncatesASegmentAtItsFirstCorruptRecordOnRecovery() throws Exception {
+        // A length that would never move the reader forward, and one that runs past the written records.
+        for (int badLength : new int[]{-4, 1000}) {
+            Path spoolDirectory = Files.createDirectory(directory.resolve("length" + badLength));
+            try (ObservationSpool spool = new ObservationSpool(spoolDirectory, 64, 10)) {
+                for (int i = 0; i < 3; i++) {
+                    spool.append(record("observation-" + i));
+                }
+            }
+            // The second record starts after the 8 byte header and the first 17 byte record.
+            try (Stream<Path> files = Files.list(spoolDirectory);
+                 FileChannel channel = FileChannel.open(files.findFirst().orElseThrow(), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, badLength), 8 + 17);
+            }
+
+            try (ObservationSpool reopened = new ObservationSpool(spoolDirectory, 64, 10)) {
+                assertEquals(1, reopened.getNumberOfRecordsPending());
+                assertEquals("observation-0", read(reopened.poll()));
+                assertNull(reopened.poll());
+                reopened.append(record("after-restart"));
+                assertEquals("after-restart", read(reopened.poll()));
+            }
+        }
+    }
+
+    @Test
+    void discardsOldestSegmentWhenDiskBoundIsReached() throws Exception {
+        // 64 byte segments hold three 13 byte records ("observation-N" + 4 byte length) after the header.
+        try (ObservationSpool spool = new ObservationSpool(directory, 64, 2)) {
+            for (int i = 0; i < 9; i++) {
+                spool.append(record("observation-" + i));
+            }
+            assertEquals(2, segmentCount());
+            assertEquals(3, spool.getNumberOfRecordsDropped());
+            assertEquals(6, spool.getNumberOfRecordsPending());
+            assertEquals("observation-3", read(spool.poll()));
+        }
+    }
+
+    @Test
+    void rejectsRecordLargerThanASegment() throws Exception {
+        try (ObservationSpool spool = new ObservationSpool(directory, 32, 2)) {
+            assertFalse(spool.append(new byte[64]));
+            assertEquals(1, spool.getNumberOfRecordsDropped());
+            assertEquals(0, spool.getNumberOfRecordsPending());
+        }
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package no.cantara.realestate.azure.iot;
+
+import no.cantara.realestate.observations.ObservationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class TelemetryBatcherTest {
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    private TelemetryBatcher batcher(int maxCount, int maxBytes, long lingerMillis) {
+        return new TelemetryBatcher(maxCount, maxBytes, lingerMillis, now::get);
+    }
+
+    private static byte[] json(String value) {
+        return ("{\"v\":\"" + value + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void holdsObservationsUntilCountIsReached() {
+        TelemetryBatcher b = batcher(3, 10_000, 1_000);
+        assertTrue(b.add(mock(ObservationMessage.class), json("1")).isEmpty());
+        assertTrue(b.add(mock(ObservationMessage.class), json("2")).isEmpty());
+        List<TelemetryBatch> ready = b.add(mock(ObservationMessage.class), json("3"));
+        assertEquals(1, ready.size());
+        assertEquals(3, ready.get(0).size());
+        assertEquals("[{\"v\":\"1\"},{\"v\":\"2\"},{\"v\":\"3\"}]",
+                new String(ready.get(0).getPayload(), StandardCharsets.UTF_8));
+        assertEquals(0, b.getPendingCount());
+    }
+
+    @Test
+    void sendsPendingBatchBeforeExceedingMaxBytes() {
+        // Each entry is 9 bytes; "[a,b]" = 2 + 9 + 1 + 9 = 21 bytes.
+        TelemetryBatcher b = batcher(100, 25, 1_000);
+        assertTrue(b.add(mock(ObservationMessage.class), json("1")).isEmpty());
+        assertTrue(b.add(mock(ObservationMessage.class), json("2")).isEmpty());
+        List<TelemetryBatch> ready = b.add(mock(ObservationMessage.class), json("3"));
+        assertEquals(1, ready.size());
+        assertEquals(2, ready.get(0).size());
+        assertTrue(ready.get(0).getPayload().length <= 25);
+        assertEquals(1, b.getPendingCount());
+    }
+
+    @Test
+    void oversizedObservationIsSentAlone() {
+        TelemetryBatcher b = batcher(100, 10, 1_000);
+        List<TelemetryBatch> ready = b.add(mock(ObservationMessage.class), json("too-large"));
+        assertEquals(1, ready.size());
+        assertEquals(1, ready.get(0).size());
+        assertEquals(0, b.getPendingCount());
+    }
+
+    @Test
+    void lingerExpiresPendingBatch() {
+        TelemetryBatcher b = batcher(100, 10_000, 1_000);
+        b.add(mock(ObservationMessage.class), json("1"));
+        now.addAndGet(999);
+        assertNull(b.pollExpired());
+        now.addAndGet(1);
+        TelemetryBatch batch = b.pollExpired();
+        assertEquals(1, batch.size());
+        assertNull(b.pollExpired());
+    }
+
+    @Test
+    void drainReturnsPendingRegardlessOfAge() {
+        TelemetryBatcher b = batcher(100, 10_000, 60_000);
+        assertNull(b.drain());
+        b.add(mock(ObservationMessage.class), json("1"));
+        assertEquals(1, b.drain().size());
+        assertEquals(0, b.getPendingCount());
+    }
+
+    @Test
+    void maxBytesIsCappedBelowIotHubLimit() {
+        assertThrows(IllegalArgumentException.class,
+                () -> batcher(100, TelemetryBatcher.IOT_HUB_MAX_MESSAGE_BYTES, 1_000));
+    }
+}
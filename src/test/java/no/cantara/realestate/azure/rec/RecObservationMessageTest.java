@@ -30,6 +30,33 @@ class RecObservationMessageTest {
 
     }
 
+    @Test
+    void copiesAllProperties() {
+        RecObservationMessage recObservation = new RecObservationMessage(observationMessage);
+        assertEquals(observationMessage.getSensorId(), recObservation.getSensorId());
+        assertEquals(observationMessage.getTfm(), recObservation.getTfm());
+        assertEquals(observationMessage.getRealEstate(), recObservation.getRealEstate());
+        assertEquals(observationMessage.getBuilding(), recObservation.getBuilding());
+        assertEquals(observationMessage.getFloor(), recObservation.getFloor());
+        assertEquals(observationMessage.getSection(), recObservation.getSection());
+        assertEquals(observationMessage.getServesRoom(), recObservation.getServesRoom());
+        assertEquals(observationMessage.getPlacementRoom(), recObservation.getPlacementRoom());
+        assertEquals(observationMessage.getClimateZone(), recObservation.getClimateZone());
+        assertEquals(observationMessage.getElectricityZone(), recObservation.getElectricityZone());
+        assertEquals(observationMessage.getSensorType(), recObservation.getSensorType());
+        assertEquals(observationMessage.getMeasurementUnit(), recObservation.getMeasurementUnit());
+        assertEquals(observationMessage.getValue(), recObservation.getValue());
+        assertEquals(observationMessage.getObservationTime(), recObservation.getObservationTime());
+        assertEquals(observationMessage.getReceivedAt(), recObservation.getReceivedAt());
+    }
+
+    @Test
+    void copyFromRecObservationMessageKeepsQuantityKind() {
+        RecObservationMessage recObservation = new RecObservationMessage(new RecObservationMessage(observationMessage));
+        assertEquals("https://w3id.org/rec/core/Temperature", recObservation.getQuantityKind());
+        assertEquals(observationMessage.getSensorId(), recObservation.getSensorId());
+    }
+
     private static ObservationMessage buildStubObservation() {
         Instant observedAt = Instant.now().minusSeconds(10);
         Instant receivedAt = Instant.now();
@@ -0,0 +1,83 @@
+package no.cantara.realestate.azure.rec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.realestate.observations.ObservationMessage;
+import no.cantara.realestate.observations.ObservationMessageBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecTelemetrySerializerTest {
+
+    private ObjectMapper objectMapper;
+    private RecTelemetrySerializer serializer;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = RealEstateObjectMapper.getInstance().getObjectMapper();
+        serializer = new RecTelemetrySerializer(objectMapper);
+    }
+
+    @Test
+    void sameBytesAsWriteValueAsBytes() throws Exception {
+        ObservationMessage observationMessage = buildStubObservation("rec1", "Building1");
+        byte[] expected = objectMapper.writeValueAsBytes(new RecObservationMessage(observationMessage));
+        assertArrayEquals(expected, serializer.serialize(observationMessage));
+    }
+
+    @Test
+    void reusedBufferDoesNotLeakPreviousObservation() throws Exception {
+        byte[] first = serializer.serialize(buildStubObservation("rec1", "A building with a rather long name"));
+        byte[] second = serializer.serialize(buildStubObservation("rec2", "B1"));
+
+        RecObservationMessage firstRead = read(first);
+        RecObservationMessage secondRead = read(second);
+        assertEquals("rec1", firstRead.getSensorId());
+        assertEquals("A building with a rather long name", firstRead.getBuilding());
+        assertEquals("rec2", secondRead.getSensorId());
+        assertEquals("B1", secondRead.getBuilding());
+        assertEquals("https://w3id.org/rec/core/Temperature", secondRead.getQuantityKind());
+    }
+
+    @Test
+    void largeObservationIsSerializedInFull() throws Exception {
+        String longName = "x".repeat(RecTelemetrySerializer.MAX_RETAINED_BUFFER_BYTES * 2);
+        ObservationMessage large = buildStubObservation("rec1", longName);
+
+        RecObservationMessage largeRead = read(serializer.serialize(large));
+        assertEquals(longName, largeRead.getBuilding());
+        RecObservationMessage next = read(serializer.serialize(buildStubObservation("rec2", "B1")));
+        assertEquals("B1", next.getBuilding());
+    }
+
+    private RecObservationMessage read(byte[] json) throws Exception {
+        return objectMapper.readerFor(RecObservationMessage.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(json);
+    }
+
+    private static ObservationMessage buildStubObservation(String sensorId, String building) {
+        return new ObservationMessageBuilder()
+                .withSensorId(sensorId)
+                .withRealEstate("RE1")
+                .withBuilding(building)
+                .withFloor("04")
+                .withSection("Section West")
+                .withServesRoom("Room1")
+                .withPlacementRoom("Room21")
+                .withClimateZone("air1")
+                .withElectricityZone("light")
+                .withSensorType("temp")
+                .withMeasurementUnit("C")
+                .withValue(22)
+                .withObservationTime(Instant.now().minusSeconds(10))
+                .withReceivedAt(Instant.now())
+                .withTfm("TFM12345")
+                .build();
+    }
+}
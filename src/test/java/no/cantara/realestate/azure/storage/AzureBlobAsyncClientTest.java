@@ -0,0 +1,149 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.storage.blob.BlobAsyncClient;
+import com.azure.storage.blob.BlobContainerAsyncClient;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AzureBlobAsyncClientTest {
+
+    BlobContainerAsyncClient blobContainerAsyncClient;
+    BlobAsyncClient blobAsyncClient;
+
+    @BeforeEach
+    void setUp() {
+        blobContainerAsyncClient = mock(BlobContainerAsyncClient.class);
+        blobAsyncClient = mock(BlobAsyncClient.class);
+        when(blobContainerAsyncClient.getBlobContainerName()).thenReturn("observations");
+        when(blobContainerAsyncClient.getBlobAsyncClient(anyString())).thenReturn(blobAsyncClient);
+    }
+
+    @Test
+    void writeBlobsKeepsAtMostMaxInFlightUploads() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class))).thenAnswer(invocation ->
+                Mono.fromRunnable(() -> maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        .then(Mono.delay(Duration.ofMillis(5)))
+                        .doFinally(signal -> inFlight.decrementAndGet())
+                        .then(Mono.empty()));
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 4);
+        Map<String, byte[]> blobs = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            blobs.put("observation-" + i + ".json", "{}".getBytes());
+        }
+
+        Map<String, Boolean> written = client.writeBlobs(blobs).get();
+
+        assertEquals(40, written.size());
+        assertTrue(written.values().stream().allMatch(Boolean::booleanValue));
+        assertTrue(maxObserved.get() <= 4, "max in flight was " + maxObserved.get());
+        assertTrue(maxObserved.get() > 1, "uploads were not pipelined");
+    }
+
+    @Test
+    void writeBlobsSharesMaxInFlightWithSingleUploads() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class))).thenAnswer(invocation ->
+                Mono.fromRunnable(() -> maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        .then(Mono.delay(Duration.ofMillis(5)))
+                        .doFinally(signal -> inFlight.decrementAndGet())
+                        .then(Mono.empty()));
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 2);
+        Map<String, byte[]> blobs = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            blobs.put("observation-" + i + ".json", "{}".getBytes());
+        }
+
+        CompletableFuture<Map<String, Boolean>> bulk = client.writeBlobs(blobs);
+        List<CompletableFuture<Void>> singles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            singles.add(client.writeBlob("single-" + i + ".json", "{}".getBytes(), "application/json"));
+        }
+        CompletableFuture.allOf(singles.toArray(CompletableFuture[]::new)).get();
+
+        assertEquals(20, bulk.get().size());
+        assertTrue(maxObserved.get() <= 2, "max in flight was " + maxObserved.get());
+    }
+
+    @Test
+    void failedUploadIsReportedWithoutStoppingTheOthers() throws Exception {
+        BlobAsyncClient failingClient = mock(BlobAsyncClient.class);
+        when(blobContainerAsyncClient.getBlobAsyncClient("bad.json")).thenReturn(failingClient);
+        when(failingClient.uploadWithResponse(any(BlobParallelUploadOptions.class)))
+                .thenReturn(Mono.error(new RuntimeException("storage unavailable")));
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class))).thenReturn(Mono.empty());
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 2);
+        Map<String, byte[]> blobs = new LinkedHashMap<>();
+        blobs.put("good.json", "{}".getBytes());
+        blobs.put("bad.json", "{}".getBytes());
+
+        Map<String, Boolean> written = client.writeBlobs(blobs).get();
+
+        assertTrue(written.get("good.json"));
+        assertFalse(written.get("bad.json"));
+    }
+
+    @Test
+    void writeBlobCompletesWhenUploaded() throws Exception {
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class))).thenReturn(Mono.empty());
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 1);
+
+        // With one permit, the second call only proceeds once the first upload has released it.
+        client.writeBlob("a.json", "{}".getBytes(), "application/json").get();
+        client.writeBlob("b.json", "{}".getBytes(), "application/json").get();
+    }
+
+    @Test
+    void writeChainedOntoAnotherWriteGetsItsPermit() throws Exception {
+        // The upload completes on a Reactor thread, as it does on the HTTP client's event loop.
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class)))
+                .thenAnswer(invocation -> Mono.delay(Duration.ofMillis(5)).then(Mono.empty()));
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 1);
+
+        client.writeBlob("a.json", "{}".getBytes(), "application/json")
+                .thenCompose(v -> client.writeBlob("b.json", "{}".getBytes(), "application/json"))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void writeBlobDoesNotBlockTheCallerWhileThePermitsAreTaken() throws Exception {
+        Sinks.Empty<Void> firstUpload = Sinks.empty();
+        when(blobAsyncClient.uploadWithResponse(any(BlobParallelUploadOptions.class)))
+                .thenAnswer(invocation -> firstUpload.asMono())
+                .thenAnswer(invocation -> Mono.empty());
+        AzureBlobAsyncClient client = new AzureBlobAsyncClient(blobContainerAsyncClient, 1);
+
+        CompletableFuture<Void> first = client.writeBlob("a.json", "{}".getBytes(), "application/json");
+        CompletableFuture<Void> second = client.writeBlob("b.json", "{}".getBytes(), "application/json");
+        assertFalse(second.isDone());
+
+        firstUpload.tryEmitEmpty();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void rejectsInvalidMaxInFlight() {
+        assertThrows(IllegalArgumentException.class, () -> new AzureBlobAsyncClient(blobContainerAsyncClient, 0));
+    }
+}
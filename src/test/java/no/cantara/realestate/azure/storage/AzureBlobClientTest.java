@@ -0,0 +1,272 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.core.http.rest.PagedIterable;
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobDownloadContentResponse;
+import com.azure.storage.blob.models.BlobDownloadHeaders;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.options.BlockBlobOutputStreamOptions;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import com.azure.storage.blob.specialized.BlobOutputStream;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+import no.cantara.realestate.azure.CantaraRealestateAzureException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class AzureBlobClientTest {
+
+    BlobContainerClient blobContainerClient;
+    BlobClient blobClient;
+    AzureBlobClient azureBlobClient;
+    final AtomicLong now = new AtomicLong(0);
+
+    @BeforeEach
+    void setUp() {
+        blobContainerClient = mock(BlobContainerClient.class);
+        blobClient = mock(BlobClient.class);
+        when(blobContainerClient.getBlobContainerName()).thenReturn("trends");
+        when(blobContainerClient.getBlobClient("export.json")).thenReturn(blobClient);
+        azureBlobClient = new AzureBlobClient(blobContainerClient, now::get);
+    }
+
+    @Test
+    void containerExistenceIsCheckedOncePerTtl() {
+        when(blobContainerClient.exists()).thenReturn(true);
+        BlockBlobClient blockBlobClient = mock(BlockBlobClient.class);
+        when(blobClient.getBlockBlobClient()).thenReturn(blockBlobClient);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(azureBlobClient.writeBlob("export.json", "{}"));
+        }
+        verify(blobContainerClient, times(1)).exists();
+
+        now.addAndGet(AzureBlobClient.DEFAULT_CONTAINER_CHECK_TTL.toMillis());
+        assertTrue(azureBlobClient.writeBlob("export.json", "{}"));
+        verify(blobContainerClient, times(2)).exists();
+    }
+
+    @Test
+    void containerNotFoundInvalidatesTheExistenceCheck() {
+        when(blobContainerClient.exists()).thenReturn(true);
+        BlockBlobClient blockBlobClient = mock(BlockBlobClient.class);
+        when(blobClient.getBlockBlobClient()).thenReturn(blockBlobClient);
+        assertTrue(azureBlobClient.writeBlob("export.json", "{}"));
+
+        BlobStorageException notFound = mock(BlobStorageException.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        when(blobClient.uploadWithResponse(any(BlobParallelUploadOptions.class), isNull(), eq(Context.NONE))).thenThrow(notFound);
+        assertFalse(azureBlobClient.writeBlobWithTags("export.json", "{}", Map.of(), true));
+
+        assertTrue(azureBlobClient.writeBlob("export.json", "{}"));
+        verify(blobContainerClient, times(2)).exists();
+    }
+
+    @Test
+    void taggedWriteIsOneUploadRequest() {
+        Map<String, String> tags = Map.of("parentId", "parent1234");
+
+        assertTrue(azureBlobClient.writeBlobWithTags("export.json", "{}", tags, true));
+
+        ArgumentCaptor<BlobParallelUploadOptions> options = ArgumentCaptor.forClass(BlobParallelUploadOptions.class);
+        verify(blobClient).uploadWithResponse(options.capture(), isNull(), eq(Context.NONE));
+        assertEquals("application/json", options.getValue().getHeaders().getContentType());
+        assertEquals(tags, options.getValue().getTags());
+        assertNull(options.getValue().getRequestConditions());
+        verify(blobClient, never()).setHttpHeaders(any());
+        verify(blobClient, never()).setTags(any());
+    }
+
+    @Test
+    void streamedUploadUsesParallelTransferOptions() {
+        azureBlobClient.setParallelTransfer(4L * 1024 * 1024, 8);
+        Map<String, String> tags = Map.of("parentId", "parent1234");
+
+        assertTrue(azureBlobClient.writeBlob("export.json",
+                new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), "application/json", tags, false));
+
+        ArgumentCaptor<BlobParallelUploadOptions> options = ArgumentCaptor.forClass(BlobParallelUploadOptions.class);
+        verify(blobClient).uploadWithResponse(options.capture(), isNull(), eq(Context.NONE));
+        assertEquals(4L * 1024 * 1024, options.getValue().getParallelTransferOptions().getBlockSizeLong());
+        assertEquals(8, options.getValue().getParallelTransferOptions().getMaxConcurrency());
+        assertEquals("application/json", options.getValue().getHeaders().getContentType());
+        assertEquals(tags, options.getValue().getTags());
+        // No overwrite: the upload must not replace an existing blob.
+        assertEquals("*", options.getValue().getRequestConditions().getIfNoneMatch());
+    }
+
+    @Test
+    void writerOutputIsCommittedOnClose() throws IOException {
+        BlockBlobClient blockBlobClient = mock(BlockBlobClient.class);
+        BlobOutputStream blobOutputStream = mock(BlobOutputStream.class);
+        when(blobClient.getBlockBlobClient()).thenReturn(blockBlobClient);
+        when(blockBlobClient.getBlobOutputStream(any(BlockBlobOutputStreamOptions.class))).thenReturn(blobOutputStream);
+
+        assertTrue(azureBlobClient.writeBlob("export.json",
+                channel -> channel.write(ByteBuffer.wrap("[1,2,3]".getBytes(StandardCharsets.UTF_8))),
+                "application/json", null, true));
+
+        verify(blobOutputStream).write(any(byte[].class), anyInt(), eq(7));
+        verify(blobOutputStream).close();
+    }
+
+    @Test
+    void failingWriterLeavesBlobUncommitted() throws IOException {
+        BlockBlobClient blockBlobClient = mock(BlockBlobClient.class);
+        BlobOutputStream blobOutputStream = mock(BlobOutputStream.class);
+        when(blobClient.getBlockBlobClient()).thenReturn(blockBlobClient);
+        when(blockBlobClient.getBlobOutputStream(any(BlockBlobOutputStreamOptions.class))).thenReturn(blobOutputStream);
+
+        assertFalse(azureBlobClient.writeBlob("export.json", channel -> {
+            throw new IOException("export aborted");
+        }, "application/json", null, true));
+
+        verify(blobOutputStream, never()).close();
+    }
+
+    @Test
+    void partitionedLookupListsOnlyTheRangePrefixes() {
+        PagedIterable<BlobItem> hour = mock(PagedIterable.class);
+        when(hour.stream()).thenAnswer(invocation -> Stream.of(new BlobItem().setName("2024/03/01/23/a.json")));
+        PagedIterable<BlobItem> day = mock(PagedIterable.class);
+        when(day.stream()).thenAnswer(invocation -> Stream.of(
+                new BlobItem().setName("2024/03/02/00/b.json"), new BlobItem().setName("2024/03/02/17/c.json")));
+        when(blobContainerClient.listBlobs(argThat(options -> options != null && "2024/03/01/23/".equals(options.getPrefix())), isNull()))
+                .thenReturn(hour);
+        when(blobContainerClient.listBlobs(argThat(options -> options != null && "2024/03/02/".equals(options.getPrefix())), isNull()))
+                .thenReturn(day);
+
+        List<String> names = azureBlobClient.streamPartitionedBlobNames(
+                Instant.parse("2024-03-01T23:10:00Z"), Instant.parse("2024-03-02T23:59:00Z")).collect(Collectors.toList());
+
+        assertEquals(List.of("2024/03/01/23/a.json", "2024/03/02/00/b.json", "2024/03/02/17/c.json"), names);
+        ArgumentCaptor<ListBlobsOptions> options = ArgumentCaptor.forClass(ListBlobsOptions.class);
+        verify(blobContainerClient, times(2)).listBlobs(options.capture(), isNull());
+        assertEquals(AzureBlobClient.LIST_PAGE_SIZE, options.getValue().getMaxResultsPerPage());
+    }
+
+    @Test
+    void writesAreRecordedInTheMetadataIndex() throws IOException {
+        Path directory = Files.createTempDirectory("blob-index");
+        try (BlobMetadataIndex index = new BlobMetadataIndex(directory.resolve("index.journal"))) {
+            azureBlobClient.useMetadataIndex(index);
+
+            assertTrue(azureBlobClient.writeBlobWithTags("export.json", "{}", Map.of("parentId", "parent1234"), true));
+
+            assertEquals(List.of("export.json"), azureBlobClient.findBlobsByTags("parentId", "parent1234"));
+            assertEquals(Set.of("parentId"), azureBlobClient.findAllTagNames());
+            assertEquals(Set.of("export.json"), azureBlobClient.findBlobsUpdatedByDate(Instant.EPOCH, Instant.EPOCH));
+            assertEquals(2, index.get("export.json").get().getSizeBytes());
+            verify(blobContainerClient, never()).findBlobsByTags(anyString());
+        } finally {
+            Files.deleteIfExists(directory.resolve("index.journal"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void compressedBlobIsDecompressedOnRead() throws IOException {
+        BlockBlobClient blockBlobClient = mock(BlockBlobClient.class);
+        BlobOutputStream blobOutputStream = mock(BlobOutputStream.class);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            stored.write(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(blobOutputStream).write(any(byte[].class), anyInt(), anyInt());
+        when(blobClient.getBlockBlobClient()).thenReturn(blockBlobClient);
+        ArgumentCaptor<BlockBlobOutputStreamOptions> options = ArgumentCaptor.forClass(BlockBlobOutputStreamOptions.class);
+        when(blockBlobClient.getBlobOutputStream(options.capture())).thenReturn(blobOutputStream);
+        String json = "[{\"sensorId\":\"s1\",\"value\":22.5}]".repeat(50);
+
+        assertTrue(azureBlobClient.writeCompressedJsonBlob("export.json", json, BlobContentEncoding.GZIP, null, true));
+
+        assertEquals("gzip", options.getValue().getHeaders().getContentEncoding());
+        assertTrue(stored.size() < json.length());
+        verify(blobOutputStream, times(1)).close();
+
+        BlobDownloadContentResponse response = mock(BlobDownloadContentResponse.class);
+        when(response.getValue()).thenReturn(BinaryData.fromBytes(stored.toByteArray()));
+        when(response.getDeserializedHeaders()).thenReturn(new BlobDownloadHeaders().setContentEncoding("gzip"));
+        when(blobClient.downloadContentWithResponse(isNull(), isNull(), isNull(), eq(Context.NONE))).thenReturn(response);
+        assertEquals(json, azureBlobClient.readBlob("export.json"));
+    }
+
+    @Test
+    void downloadStreamsAndDecompressesLazily() throws IOException {
+        String json = "[{\"sensorId\":\"s1\",\"value\":22.5}]".repeat(50);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (OutputStream out = BlobContentEncoding.GZIP.compress(gzipped)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        ByteArrayInputStream stored = new ByteArrayInputStream(gzipped.toByteArray());
+        BlobInputStream blobInputStream = mock(BlobInputStream.class);
+        BlobProperties properties = mock(BlobProperties.class);
+        when(properties.getContentEncoding()).thenReturn("gzip");
+        when(blobInputStream.getProperties()).thenReturn(properties);
+        when(blobInputStream.read(any(byte[].class), anyInt(), anyInt())).thenAnswer(invocation ->
+                stored.read(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        ArgumentCaptor<BlobInputStreamOptions> options = ArgumentCaptor.forClass(BlobInputStreamOptions.class);
+        when(blobClient.openInputStream(options.capture())).thenReturn(blobInputStream);
+        azureBlobClient.setParallelTransfer(1024 * 1024, 2);
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        assertTrue(azureBlobClient.downloadTo("export.json", downloaded));
+
+        assertEquals(json, downloaded.toString(StandardCharsets.UTF_8));
+        assertEquals(1024 * 1024, options.getValue().getBlockSize());
+    }
+
+    @Test
+    void blobStreamIsClosedWhenDecompressionFails() throws IOException {
+        ByteArrayInputStream notGzip = new ByteArrayInputStream("not gzip".getBytes(StandardCharsets.UTF_8));
+        BlobInputStream blobInputStream = mock(BlobInputStream.class);
+        BlobProperties properties = mock(BlobProperties.class);
+        when(properties.getContentEncoding()).thenReturn("gzip");
+        when(blobInputStream.getProperties()).thenReturn(properties);
+        when(blobInputStream.read(any(byte[].class), anyInt(), anyInt())).thenAnswer(invocation ->
+                notGzip.read(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        when(blobClient.openInputStream(any(BlobInputStreamOptions.class))).thenReturn(blobInputStream);
+
+        assertThrows(CantaraRealestateAzureException.class, () -> azureBlobClient.openInputStream("export.json"));
+        verify(blobInputStream).close();
+    }
+
+    @Test
+    void rejectsInvalidParallelTransfer() {
+        assertThrows(IllegalArgumentException.class, () -> azureBlobClient.setParallelTransfer(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> azureBlobClient.setParallelTransfer(1024, 0));
+    }
+}
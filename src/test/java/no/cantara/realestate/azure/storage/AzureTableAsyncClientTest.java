@@ -0,0 +1,158 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.core.http.HttpResponse;
+import com.azure.data.tables.TableAsyncClient;
+import com.azure.data.tables.models.TableEntity;
+import com.azure.data.tables.models.TableServiceException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AzureTableAsyncClientTest {
+
+    TableAsyncClient tableAsyncClient;
+
+    @BeforeEach
+    void setUp() {
+        tableAsyncClient = mock(TableAsyncClient.class);
+    }
+
+    @Test
+    void throttledRequestIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        when(tableAsyncClient.upsertEntity(any(TableEntity.class))).thenAnswer(invocation ->
+                attempts.incrementAndGet() == 1 ? Mono.error(serviceException(429)) : Mono.empty());
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 4, 3);
+
+        client.upsertRow("Desigo", "trend-1", Map.of("LastUpdatedAt", Instant.EPOCH)).get();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, client.getThrottledCount());
+    }
+
+    @Test
+    void otherErrorsAreNotRetried() {
+        when(tableAsyncClient.updateEntity(any(TableEntity.class))).thenReturn(Mono.error(serviceException(400)));
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 4, 3);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.updateRow("Desigo", "trend-1", Map.of()).get());
+
+        assertInstanceOf(TableServiceException.class, e.getCause());
+        verify(tableAsyncClient, times(1)).updateEntity(any(TableEntity.class));
+    }
+
+    @Test
+    void missingRowIsEmpty() throws Exception {
+        when(tableAsyncClient.getEntity("Desigo", "unknown")).thenReturn(Mono.error(serviceException(404)));
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 4, 3);
+
+        assertEquals(Optional.empty(), client.findRow("Desigo", "unknown").get());
+    }
+
+    @Test
+    void upsertRowsKeepsAtMostMaxInFlightAndReportsFailures() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        when(tableAsyncClient.upsertEntity(any(TableEntity.class))).thenAnswer(invocation -> {
+            TableEntity entity = invocation.getArgument(0);
+            if (entity.getRowKey().equals("trend-7")) {
+                return Mono.error(serviceException(400));
+            }
+            return Mono.fromRunnable(() -> maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                    .then(Mono.delay(Duration.ofMillis(5)))
+                    .doFinally(signal -> inFlight.decrementAndGet())
+                    .then();
+        });
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 3, 0);
+        List<TableEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            entities.add(AzureTableClient.toTableEntity("Desigo", "trend-" + i, Map.of()));
+        }
+
+        TableBatchResult result = client.upsertRows(entities).get();
+
+        assertEquals(29, result.getSucceeded());
+        assertTrue(result.getFailures().containsKey(entities.get(7)));
+        assertTrue(maxObserved.get() <= 3, "max in flight was " + maxObserved.get());
+    }
+
+    @Test
+    void upsertRowsSharesMaxInFlightWithSingleRowRequests() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        when(tableAsyncClient.upsertEntity(any(TableEntity.class))).thenAnswer(invocation ->
+                Mono.fromRunnable(() -> maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        .then(Mono.delay(Duration.ofMillis(5)))
+                        .doFinally(signal -> inFlight.decrementAndGet())
+                        .then());
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 2, 0);
+        List<TableEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(AzureTableClient.toTableEntity("Desigo", "trend-" + i, Map.of()));
+        }
+
+        CompletableFuture<TableBatchResult> bulk = client.upsertRows(entities);
+        List<CompletableFuture<Void>> singles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            singles.add(client.upsertRow("Metasys", "trend-" + i, Map.of()));
+        }
+        CompletableFuture.allOf(singles.toArray(CompletableFuture[]::new)).get();
+
+        assertEquals(20, bulk.get().getSucceeded());
+        assertTrue(maxObserved.get() <= 2, "max in flight was " + maxObserved.get());
+    }
+
+    @Test
+    void upsertChainedOntoAnotherUpsertGetsItsPermit() throws Exception {
+        // The request completes on a Reactor thread, as it does on the HTTP client's event loop.
+        when(tableAsyncClient.upsertEntity(any(TableEntity.class)))
+                .thenAnswer(invocation -> Mono.delay(Duration.ofMillis(5)).then());
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 1, 0);
+
+        client.upsertRow("Desigo", "trend-1", Map.of())
+                .thenCompose(v -> client.upsertRow("Desigo", "trend-2", Map.of()))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void upsertRowDoesNotBlockTheCallerWhileThePermitsAreTaken() throws Exception {
+        Sinks.Empty<Void> firstUpsert = Sinks.empty();
+        when(tableAsyncClient.upsertEntity(any(TableEntity.class)))
+                .thenAnswer(invocation -> firstUpsert.asMono())
+                .thenAnswer(invocation -> Mono.empty());
+        AzureTableAsyncClient client = new AzureTableAsyncClient(tableAsyncClient, 1, 0);
+
+        CompletableFuture<Void> first = client.upsertRow("Desigo", "trend-1", Map.of());
+        CompletableFuture<Void> second = client.upsertRow("Desigo", "trend-2", Map.of());
+        assertFalse(second.isDone());
+
+        firstUpsert.tryEmitEmpty();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+    }
+
+    private static TableServiceException serviceException(int statusCode) {
+        HttpResponse response = mock(HttpResponse.class);
+        when(response.getStatusCode()).thenReturn(statusCode);
+        TableServiceException exception = mock(TableServiceException.class);
+        when(exception.getResponse()).thenReturn(response);
+        return exception;
+    }
+}
@@ -4,14 +4,32 @@ import com.azure.core.http.rest.PagedIterable;
 import com.azure.data.tables.TableClient;
 import com.azure.data.tables.models.ListEntitiesOptions;
 import com.azure.data.tables.models.TableEntity;
+import com.azure.data.tables.models.TableTransactionAction;
+import com.azure.data.tables.models.TableTransactionActionType;
+import com.azure.data.tables.models.TableTransactionFailedException;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class AzureTableClientTest {
@@ -27,6 +45,102 @@ class AzureTableClientTest {
         PagedIterable<TableEntity> pagedIterable = mock(PagedIterable.class);
         when(pagedIterable.stream()).thenReturn(stubRows.stream());
         when(tableClient.listEntities(isA(ListEntitiesOptions.class), isNull(), isNull())).thenReturn(pagedIterable);
-        assertEquals(1, azureTableClient.listRows("1").size());
+        List<Map<String, String>> rows = azureTableClient.listRows("1");
+        assertEquals(1, rows.size());
+        // The list is mutable, as it was before the rows were streamed.
+        rows.add(Map.of("RealEstate", "2"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void findRowsWithProjectionAndFilter() {
+        TableClient tableClient = mock(TableClient.class);
+        AzureTableClient azureTableClient = new AzureTableClient(tableClient);
+        TableEntity tableEntity = new TableEntity("Desigo", "trend-1");
+        tableEntity.addProperty("LastUpdatedAt", "2024-03-01T12:00:00Z");
+        PagedIterable<TableEntity> pagedIterable = mock(PagedIterable.class);
+        when(pagedIterable.stream()).thenReturn(Stream.of(tableEntity));
+        ArgumentCaptor<ListEntitiesOptions> options = ArgumentCaptor.forClass(ListEntitiesOptions.class);
+        when(tableClient.listEntities(options.capture(), isNull(), isNull())).thenReturn(pagedIterable);
+
+        List<Map<String, Object>> rows = azureTableClient.findRows("Desigo", "LastUpdatedAt lt '2024-03-02'",
+                List.of("RowKey", "LastUpdatedAt")).toList();
+
+        assertEquals(1, rows.size());
+        assertEquals("PartitionKey eq 'Desigo' and (LastUpdatedAt lt '2024-03-02')", options.getValue().getFilter());
+        assertEquals(List.of("RowKey", "LastUpdatedAt"), options.getValue().getSelect());
+    }
+
+    @Test
+    void upsertRowsGroupsByPartitionInBatchesOfAtMost100() {
+        TableClient tableClient = mock(TableClient.class);
+        AzureTableClient azureTableClient = new AzureTableClient(tableClient);
+        List<TableEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            entities.add(AzureTableClient.toTableEntity("Desigo", "trend-" + i, Map.of("LastUpdatedAt", Instant.EPOCH)));
+        }
+        entities.add(AzureTableClient.toTableEntity("Metasys", "trend-0", Map.of("LastUpdatedAt", Instant.EPOCH)));
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        when(tableClient.submitTransaction(anyList())).thenAnswer(invocation -> {
+            List<TableTransactionAction> actions = invocation.getArgument(0);
+            assertEquals(1, actions.stream().map(action -> action.getEntity().getPartitionKey()).distinct().count());
+            assertTrue(actions.stream().allMatch(action -> action.getActionType() == TableTransactionActionType.UPSERT_MERGE));
+            batchSizes.add(actions.size());
+            return null;
+        });
+
+        TableBatchResult result = azureTableClient.upsertRows(entities);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(251, result.getSucceeded());
+        batchSizes.sort(Comparator.reverseOrder());
+        assertEquals(List.of(100, 100, 50, 1), batchSizes);
+        assertEquals("1970-01-01T00:00:00Z", entities.get(0).getProperty("LastUpdatedAt"));
+    }
+
+    @Test
+    void batchesShareTheClientsThreadsUntilClosed() throws Exception {
+        TableClient tableClient = mock(TableClient.class);
+        AzureTableClient azureTableClient = new AzureTableClient(tableClient);
+        azureTableClient.setMaxConcurrentBatches(2);
+        List<TableEntity> entities = new ArrayList<>();
+        for (int partition = 0; partition < 6; partition++) {
+            entities.add(AzureTableClient.toTableEntity("partition-" + partition, "trend-1", Map.of()));
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(tableClient.submitTransaction(anyList())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return null;
+        });
+
+        Thread otherCaller = new Thread(() -> azureTableClient.upsertRows(entities));
+        otherCaller.start();
+        assertEquals(6, azureTableClient.upsertRows(entities).getSucceeded());
+        otherCaller.join();
+
+        assertTrue(maxInFlight.get() <= 2, "batches in flight: " + maxInFlight.get());
+        azureTableClient.close();
+        assertThrows(RejectedExecutionException.class, () -> azureTableClient.upsertRows(entities));
+    }
+
+    @Test
+    void rejectedEntityIsReportedAndTheRestOfItsBatchResubmitted() {
+        TableClient tableClient = mock(TableClient.class);
+        AzureTableClient azureTableClient = new AzureTableClient(tableClient);
+        List<TableEntity> entities = List.of(
+                AzureTableClient.toTableEntity("Desigo", "trend-1", Map.of()),
+                AzureTableClient.toTableEntity("Desigo", "trend-2", Map.of()),
+                AzureTableClient.toTableEntity("Desigo", "trend-3", Map.of()));
+        TableTransactionFailedException rejected = mock(TableTransactionFailedException.class);
+        when(rejected.getFailedTransactionActionIndex()).thenReturn(1);
+        when(tableClient.submitTransaction(anyList())).thenThrow(rejected).thenReturn(null);
+
+        TableBatchResult result = azureTableClient.createEntities(entities);
+
+        assertEquals(2, result.getSucceeded());
+        assertEquals(Set.of(entities.get(1)), result.getFailures().keySet());
+        verify(tableClient, times(2)).submitTransaction(anyList());
+    }
+}
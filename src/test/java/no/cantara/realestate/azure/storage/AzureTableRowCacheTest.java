@@ -0,0 +1,147 @@
+package no.cantara.realestate.azure.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AzureTableRowCacheTest {
+
+    AzureTableClient tableClient;
+    AzureTableRowCache cache;
+    final AtomicLong now = new AtomicLong(0);
+
+    @BeforeEach
+    void setUp() {
+        tableClient = mock(AzureTableClient.class);
+        // Refresh runs on the calling thread.
+        cache = new AzureTableRowCache(tableClient, 2, Duration.ofMinutes(10), Duration.ofMinutes(1),
+                Duration.ofMinutes(5), now::get, Runnable::run);
+    }
+
+    @Test
+    void repeatedLookupIsServedFromCache() {
+        when(tableClient.findRow("Desigo", "trend-1")).thenReturn(Optional.of(Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z")));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("2024-03-01T12:00:00Z", cache.findRow("Desigo", "trend-1").get().get("LastUpdatedAt"));
+        }
+
+        verify(tableClient, times(1)).findRow("Desigo", "trend-1");
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void notFoundIsCachedForTheNegativeTtl() {
+        when(tableClient.findRow("Desigo", "unknown")).thenReturn(Optional.empty());
+
+        assertFalse(cache.hasRow("Desigo", "unknown"));
+        assertFalse(cache.hasRow("Desigo", "unknown"));
+        verify(tableClient, times(1)).findRow("Desigo", "unknown");
+
+        now.addAndGet(Duration.ofMinutes(1).toMillis());
+        assertFalse(cache.hasRow("Desigo", "unknown"));
+        verify(tableClient, times(2)).findRow("Desigo", "unknown");
+    }
+
+    @Test
+    void staleEntryIsServedWhileRefreshed() {
+        when(tableClient.findRow("Desigo", "trend-1"))
+                .thenReturn(Optional.of(Map.of("LastUpdatedAt", "old")))
+                .thenReturn(Optional.of(Map.of("LastUpdatedAt", "new")));
+        cache.findRow("Desigo", "trend-1");
+
+        now.addAndGet(Duration.ofMinutes(6).toMillis());
+        assertEquals("old", cache.findRow("Desigo", "trend-1").get().get("LastUpdatedAt"));
+        assertEquals("new", cache.findRow("Desigo", "trend-1").get().get("LastUpdatedAt"));
+        assertEquals(1, cache.getRefreshCount());
+        verify(tableClient, times(2)).findRow("Desigo", "trend-1");
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        when(tableClient.findRows("Desigo")).thenReturn(List.of(Map.of("RowKey", "trend-1")));
+        when(tableClient.findRow("Desigo", "trend-1")).thenReturn(Optional.of(Map.of()));
+        when(tableClient.findRow("Desigo", "trend-2")).thenReturn(Optional.of(Map.of()));
+
+        cache.findRows("Desigo");
+        cache.findRow("Desigo", "trend-1");
+        cache.findRows("Desigo");
+        cache.findRow("Desigo", "trend-2");
+
+        assertEquals(2, cache.size());
+        cache.findRows("Desigo");
+        cache.findRow("Desigo", "trend-1");
+        verify(tableClient, times(1)).findRows("Desigo");
+        verify(tableClient, times(2)).findRow("Desigo", "trend-1");
+    }
+
+    @Test
+    void invalidateForgetsRowAndPartition() {
+        when(tableClient.findRows("Desigo")).thenReturn(List.of());
+        when(tableClient.findRow("Desigo", "trend-1")).thenReturn(Optional.empty());
+        cache.findRows("Desigo");
+        cache.findRow("Desigo", "trend-1");
+
+        cache.invalidate("Desigo", "trend-1");
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(tableClient.findRow("Desigo", "trend-1")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return Optional.of(Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+        });
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            Future<Optional<Map<String, Object>>> first = callers.submit(() -> cache.findRow("Desigo", "trend-1"));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Optional<Map<String, Object>>> second = callers.submit(() -> cache.findRow("Desigo", "trend-1"));
+            Future<Optional<Map<String, Object>>> third = callers.submit(() -> cache.findRow("Desigo", "trend-1"));
+            while (cache.getMissCount() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertTrue(first.get(5, TimeUnit.SECONDS).isPresent());
+            assertTrue(second.get(5, TimeUnit.SECONDS).isPresent());
+            assertTrue(third.get(5, TimeUnit.SECONDS).isPresent());
+            verify(tableClient, times(1)).findRow("Desigo", "trend-1");
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void closeStopsTheRefreshExecutor() {
+        ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+        AzureTableRowCache closingCache = new AzureTableRowCache(tableClient, 2, Duration.ofMinutes(10),
+                Duration.ofMinutes(1), Duration.ofMinutes(5), now::get, refreshExecutor);
+        when(tableClient.findRow("Desigo", "trend-1")).thenReturn(Optional.of(Map.of("LastUpdatedAt", "old")));
+        closingCache.findRow("Desigo", "trend-1");
+
+        closingCache.close();
+        now.addAndGet(Duration.ofMinutes(6).toMillis());
+
+        assertTrue(refreshExecutor.isShutdown());
+        assertEquals("old", closingCache.findRow("Desigo", "trend-1").get().get("LastUpdatedAt"));
+    }
+}
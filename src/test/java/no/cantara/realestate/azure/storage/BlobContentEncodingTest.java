@@ -0,0 +1,94 @@
+package no.cantara.realestate.azure.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobContentEncodingTest {
+
+    @Test
+    void gzipRoundTrip() throws IOException {
+        String json = "{\"sensorId\":\"s1\",\"value\":22.5}".repeat(100);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (OutputStream out = BlobContentEncoding.GZIP.compress(stored)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(stored.size() < json.length() / 10, "compressed to " + stored.size() + " bytes");
+
+        try (InputStream in = BlobContentEncoding.GZIP.decompress(new ByteArrayInputStream(stored.toByteArray()))) {
+            assertEquals(json, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void fromHeader() {
+        assertEquals(BlobContentEncoding.GZIP, BlobContentEncoding.fromHeader("gzip"));
+        assertEquals(BlobContentEncoding.ZSTD, BlobContentEncoding.fromHeader(" ZSTD "));
+        // Written by writeZipBlobWithTags; returned as stored.
+        assertEquals(BlobContentEncoding.IDENTITY, BlobContentEncoding.fromHeader("base64"));
+        assertEquals(BlobContentEncoding.IDENTITY, BlobContentEncoding.fromHeader(null));
+    }
+
+    @Test
+    void identityPassesThrough() throws IOException {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        assertSame(stored, BlobContentEncoding.IDENTITY.compress(stored));
+        assertNull(BlobContentEncoding.IDENTITY.getHeaderValue());
+        assertTrue(BlobContentEncoding.GZIP.isAvailable());
+    }
+
+    @Test
+    void zstdIsReportedUnavailableWithoutZstdJni() throws Exception {
+        Class<?> encodingClass = Class.forName(BlobContentEncoding.class.getName(), true, new WithoutZstdClassLoader());
+        Object zstd = encodingClass.getMethod("valueOf", String.class).invoke(null, "ZSTD");
+
+        assertEquals(false, encodingClass.getMethod("isAvailable").invoke(zstd));
+        Method decompress = encodingClass.getMethod("decompress", InputStream.class);
+        InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+                () -> decompress.invoke(zstd, new ByteArrayInputStream(new byte[0])));
+        assertTrue(thrown.getCause() instanceof IllegalStateException, "threw " + thrown.getCause());
+    }
+
+    /*
+    Loads this package's classes itself, from the test classpath, and hides zstd-jni from them.
+     */
+    private static final class WithoutZstdClassLoader extends ClassLoader {
+        WithoutZstdClassLoader() {
+            super(BlobContentEncodingTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("com.github.luben.")) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith(BlobContentEncoding.class.getPackageName() + ".")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (in == null) {
+                            throw new ClassNotFoundException(name);
+                        }
+                        byte[] bytes = in.readAllBytes();
+                        loaded = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return loaded;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package no.cantara.realestate.azure.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlobDatePartitionsTest {
+
+    @Test
+    void partitionedBlobNameUsesUtcHour() {
+        assertEquals("2024/03/01/13/trend.json",
+                BlobDatePartitions.partitionedBlobName(Instant.parse("2024-03-01T13:45:10Z"), "trend.json"));
+    }
+
+    @Test
+    void rangeWithinOneHourIsOnePrefix() {
+        assertEquals(List.of("2024/03/01/13/"), BlobDatePartitions.prefixesBetween(
+                Instant.parse("2024-03-01T13:05:00Z"), Instant.parse("2024-03-01T13:55:00Z")));
+    }
+
+    @Test
+    void wholeDaysCollapseToDayPrefixes() {
+        List<String> prefixes = BlobDatePartitions.prefixesBetween(
+                Instant.parse("2024-03-01T22:30:00Z"), Instant.parse("2024-03-04T01:10:00Z"));
+        assertEquals(List.of(
+                "2024/03/01/22/", "2024/03/01/23/",
+                "2024/03/02/", "2024/03/03/",
+                "2024/03/04/00/", "2024/03/04/01/"), prefixes);
+    }
+
+    @Test
+    void dayEndingInItsLastHourIsOneDayPrefix() {
+        assertEquals(List.of("2024/03/02/"), BlobDatePartitions.prefixesBetween(
+                Instant.parse("2024-03-02T00:00:00Z"), Instant.parse("2024-03-02T23:00:00Z")));
+    }
+
+    @Test
+    void emptyRange() {
+        assertEquals(List.of(), BlobDatePartitions.prefixesBetween(
+                Instant.parse("2024-03-02T00:00:00Z"), Instant.parse("2024-03-01T00:00:00Z")));
+    }
+}
@@ -0,0 +1,140 @@
+package no.cantara.realestate.azure.storage;
+
+import no.cantara.realestate.azure.storage.BlobMetadataIndex.BlobMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobMetadataIndexTest {
+
+    private static final Instant T0 = Instant.parse("2024-03-01T12:00:00Z");
+
+    Path directory;
+    Path journalFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("blob-index");
+        journalFile = directory.resolve("index.journal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void answersTagAndDateQueries() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            index.put(new BlobMetadata("a.json", Map.of("parentId", "p1"), 10, T0));
+            index.put(new BlobMetadata("b.json", Map.of("parentId", "p2", "site", "oslo"), 20, T0.plusSeconds(60)));
+            index.put(new BlobMetadata("c.json", null, 30, T0.plusSeconds(3600)));
+
+            assertEquals(List.of("a.json"), index.findByTag("parentId", "p1"));
+            assertEquals(Set.of("parentId", "site"), index.tagNames());
+            assertEquals(Set.of("a.json", "b.json"), index.findUpdatedBetween(T0, T0.plusSeconds(60)));
+
+            // Overwriting a blob replaces its tags.
+            index.put(new BlobMetadata("a.json", Map.of("parentId", "p2"), 11, T0.plusSeconds(120)));
+            assertEquals(List.of(), index.findByTag("parentId", "p1"));
+            assertEquals(Set.of("a.json", "b.json"), Set.copyOf(index.findByTag("parentId", "p2")));
+            assertEquals(Set.of("b.json"), index.findUpdatedBetween(T0, T0.plusSeconds(60)));
+        }
+    }
+
+    @Test
+    void reopenedIndexReplaysTheJournal() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            index.put(new BlobMetadata("a.json", Map.of("parentId", "p1"), 10, T0));
+            index.put(new BlobMetadata("b.json", Map.of("parentId", "p1"), 20, T0));
+            index.remove("a.json");
+        }
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            assertEquals(1, index.size());
+            assertEquals(List.of("b.json"), index.findByTag("parentId", "p1"));
+            assertEquals(20, index.get("b.json").get().getSizeBytes());
+        }
+    }
+
+    @Test
+    void incompleteRecordIsTruncatedOnOpen() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            index.put(new BlobMetadata("a.json", Map.of("parentId", "p1"), 10, T0));
+            index.put(new BlobMetadata("b.json", Map.of("parentId", "p1"), 20, T0));
+        }
+        long size = Files.size(journalFile);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            assertEquals(1, index.size());
+            index.put(new BlobMetadata("c.json", null, 30, T0));
+        }
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            assertEquals(Set.of("a.json", "c.json"), index.findUpdatedBetween(T0, T0));
+        }
+    }
+
+    @Test
+    void reconcileAppliesTheListing() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            index.put(new BlobMetadata("a.json", null, 10, T0));
+            index.put(new BlobMetadata("deleted.json", null, 10, T0));
+
+            int changes = index.reconcile(Stream.of(
+                    new BlobMetadata("a.json", null, 10, T0),
+                    new BlobMetadata("new.json", Map.of("site", "oslo"), 5, T0)));
+
+            assertEquals(2, changes);
+            assertEquals(Set.of("a.json", "new.json"), index.findUpdatedBetween(T0, T0));
+        }
+    }
+
+    @Test
+    void reconcileKeepsBlobsWrittenWhileListing() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            index.put(new BlobMetadata("a.json", null, 10, T0));
+
+            // The write comes from another thread, so it would time out if the listing held the index lock.
+            Stream<BlobMetadata> listing = Stream.of(new BlobMetadata("a.json", null, 10, T0))
+                    .peek(metadata -> CompletableFuture.runAsync(() -> index.put(new BlobMetadata("written-meanwhile.json", null, 5, T0)))
+                            .orTimeout(5, TimeUnit.SECONDS)
+                            .join());
+            int changes = index.reconcile(listing);
+
+            assertEquals(0, changes);
+            assertEquals(Set.of("a.json", "written-meanwhile.json"), index.findUpdatedBetween(T0, T0));
+        }
+    }
+
+    @Test
+    void journalIsCompacted() throws IOException {
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            for (int i = 0; i < 5_000; i++) {
+                index.put(new BlobMetadata("a.json", Map.of("version", String.valueOf(i)), i, T0));
+            }
+        }
+        assertTrue(Files.size(journalFile) < 100_000, "journal is " + Files.size(journalFile) + " bytes");
+        try (BlobMetadataIndex index = new BlobMetadataIndex(journalFile)) {
+            assertEquals(List.of("a.json"), index.findByTag("version", "4999"));
+        }
+    }
+}
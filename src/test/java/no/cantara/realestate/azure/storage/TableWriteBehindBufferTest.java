@@ -0,0 +1,116 @@
+package no.cantara.realestate.azure.storage;
+
+import com.azure.data.tables.models.TableEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class TableWriteBehindBufferTest {
+
+    AzureTableClient tableClient;
+    TableWriteBehindBuffer buffer;
+    final List<List<TableEntity>> flushed = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        tableClient = mock(AzureTableClient.class);
+        when(tableClient.upsertRows(anyCollection())).thenAnswer(invocation -> {
+            Collection<TableEntity> entities = invocation.getArgument(0);
+            flushed.add(new ArrayList<>(entities));
+            return new TableBatchResult(entities.size(), Map.of());
+        });
+        // Only explicit flushes.
+        buffer = new TableWriteBehindBuffer(tableClient, Duration.ZERO, 100);
+    }
+
+    @Test
+    void repeatedUpdatesOfARowAreCoalesced() {
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z", "Count", 1));
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:05:00Z"));
+        buffer.updateRow("Desigo", "trend-2", Map.of("LastUpdatedAt", "2024-03-01T12:01:00Z"));
+        assertEquals(2, buffer.getPendingRows());
+        verifyNoInteractions(tableClient);
+
+        TableBatchResult result = buffer.flush();
+
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, flushed.size());
+        TableEntity trend1 = flushed.get(0).get(0);
+        assertEquals("trend-1", trend1.getRowKey());
+        assertEquals("2024-03-01T12:05:00Z", trend1.getProperty("LastUpdatedAt"));
+        assertEquals(1, trend1.getProperty("Count"));
+        assertEquals(0, buffer.getPendingRows());
+        assertEquals(3, buffer.getUpdatesReceived());
+        assertEquals(2, buffer.getRowsWritten());
+    }
+
+    @Test
+    void flushWithNothingBufferedDoesNotCallAzure() {
+        assertTrue(buffer.flush().isSuccessful());
+        verifyNoInteractions(tableClient);
+    }
+
+    @Test
+    void failedRowsStayBufferedForTheNextFlush() {
+        when(tableClient.upsertRows(anyCollection())).thenAnswer(invocation -> {
+            Collection<TableEntity> entities = invocation.getArgument(0);
+            Map<TableEntity, Exception> failures = new IdentityHashMap<>();
+            entities.stream()
+                    .filter(entity -> entity.getRowKey().equals("trend-2"))
+                    .forEach(entity -> failures.put(entity, new RuntimeException("Rejected")));
+            return new TableBatchResult(entities.size() - failures.size(), failures);
+        });
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+        buffer.updateRow("Desigo", "trend-2", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+
+        TableBatchResult result = buffer.flush();
+
+        assertEquals(1, result.getFailures().size());
+        assertEquals(1, buffer.getPendingRows());
+        assertEquals(1, buffer.getRowsWritten());
+        assertEquals(1, buffer.getRowsFailed());
+    }
+
+    @Test
+    void rowsStayBufferedWhenTheWriteThrows() {
+        when(tableClient.upsertRows(anyCollection())).thenThrow(new RuntimeException("Storage unavailable"));
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+
+        assertThrows(RuntimeException.class, buffer::flush);
+        assertEquals(1, buffer.getPendingRows());
+    }
+
+    @Test
+    void reachingMaxPendingRowsFlushesAtOnce() {
+        buffer = new TableWriteBehindBuffer(tableClient, Duration.ZERO, 2);
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:01:00Z"));
+        verifyNoInteractions(tableClient);
+
+        buffer.updateRow("Desigo", "trend-2", Map.of("LastUpdatedAt", "2024-03-01T12:01:00Z"));
+
+        assertEquals(1, flushed.size());
+        assertEquals(0, buffer.getPendingRows());
+    }
+
+    @Test
+    void closeFlushesAndRefusesFurtherUpdates() {
+        buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:00:00Z"));
+
+        buffer.close();
+
+        assertEquals(1, flushed.size());
+        assertThrows(IllegalStateException.class,
+                () -> buffer.updateRow("Desigo", "trend-1", Map.of("LastUpdatedAt", "2024-03-01T12:01:00Z")));
+    }
+}